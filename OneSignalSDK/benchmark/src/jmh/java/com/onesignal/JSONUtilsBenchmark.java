@@ -0,0 +1,90 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The diffs UserStateSynchronizer runs on every sync, and the diff-into used to apply each change to a UserState
+ */
+@State(Scope.Benchmark)
+public class JSONUtilsBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int tagCount;
+
+    private JSONObject current;
+    private JSONObject unchanged;
+    private JSONObject changed;
+    private JSONObject tagUpdate;
+    private Set<String> locationFields;
+
+    @Setup
+    public void setUp() throws JSONException {
+        current = UserStateFixtures.syncValues(tagCount);
+        unchanged = new JSONObject(current.toString());
+        changed = UserStateFixtures.withOneTagAndArrayChange(current);
+        tagUpdate = new JSONObject().put("tags", new JSONObject().put("tag_0", "changed").put("tag_new", "value"));
+        locationFields = new HashSet<>(Arrays.asList("lat", "long", "loc_acc", "loc_type"));
+    }
+
+    // A sync with nothing to send, the common case when only depend values changed
+    @Benchmark
+    public JSONObject diffUnchanged() {
+        return JSONUtils.generateJsonDiff(current, unchanged, null, null);
+    }
+
+    // A sync after one tag changed and one array entry was added, goes through handleJsonArray
+    @Benchmark
+    public JSONObject diffOneTagAndArrayChange() {
+        return JSONUtils.generateJsonDiff(current, changed, null, null);
+    }
+
+    // Same as a location update, the location fields are sent even when unchanged
+    @Benchmark
+    public JSONObject diffWithIncludeFields() {
+        return JSONUtils.generateJsonDiff(current, changed, null, locationFields);
+    }
+
+    // UserState.generateJsonDiffFromIntoSyncValued, as run for each sendTags
+    @Benchmark
+    public JSONObject diffIntoTagUpdate() throws JSONException {
+        JSONObject base = new JSONObject(current.toString());
+        return JSONUtils.generateJsonDiff(base, tagUpdate, base, null);
+    }
+}
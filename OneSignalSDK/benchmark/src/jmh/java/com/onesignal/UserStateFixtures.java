@@ -0,0 +1,106 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Player states shaped like the ones UserState keeps for a push player: the device fields sent on create,
+ *    a location, tags, a nested object and an array field.
+ */
+class UserStateFixtures {
+
+    static final String ARRAY_FIELD = "purchased_skus";
+    static final String NESTED_FIELD = "notification_settings";
+
+    static JSONObject syncValues(int tagCount) throws JSONException {
+        JSONObject syncValues = new JSONObject()
+                .put("app_id", "b2f7f966-d8cc-11e4-bed1-df8f05be55ba")
+                .put("device_type", 1)
+                .put("identifier", "fcm-token-cU8Zq0n9T4uO7hJ3-bI9aP2r5Xk1mWc6vLxYy8dEfGgHh")
+                .put("language", "en")
+                .put("timezone", -25200)
+                .put("timezone_id", "America/Los_Angeles")
+                .put("sdk", "040500")
+                .put("sdk_type", "native")
+                .put("android_package", "com.onesignal.example")
+                .put("device_model", "Pixel 5")
+                .put("device_os", "11")
+                .put("game_version", 42)
+                .put("net_type", 0)
+                .put("carrier", "T-Mobile")
+                .put("rooted", false)
+                .put("notification_types", 1)
+                .put("external_user_id", "user-1234567890")
+                .put("lat", 37.7749)
+                .put("long", -122.4194)
+                .put("loc_acc", 12.5)
+                .put("loc_type", 1)
+                .put("tags", tags(tagCount, "value"))
+                .put(NESTED_FIELD, new JSONObject()
+                        .put("sound", true)
+                        .put("vibrate", true)
+                        .put("badge", new JSONObject().put("enabled", true).put("count", 3)))
+                .put(ARRAY_FIELD, array(tagCount / 10 + 1));
+        return syncValues;
+    }
+
+    static JSONObject dependValues() throws JSONException {
+        return new JSONObject()
+                .put("subscribableStatus", 1)
+                .put("androidPermission", true)
+                .put("userSubscribePref", true)
+                .put("loc_bg", false)
+                .put("loc_time_stamp", 1620000000000L)
+                .put("session", false);
+    }
+
+    static JSONObject tags(int tagCount, String valuePrefix) throws JSONException {
+        JSONObject tags = new JSONObject();
+        for (int i = 0; i < tagCount; i++)
+            tags.put("tag_" + i, valuePrefix + "_" + i);
+        return tags;
+    }
+
+    static JSONArray array(int length) {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < length; i++)
+            array.put("sku_" + i);
+        return array;
+    }
+
+    // A copy of syncValues as it looks after one tag changed and one array entry was added
+    static JSONObject withOneTagAndArrayChange(JSONObject syncValues) throws JSONException {
+        JSONObject changed = new JSONObject(syncValues.toString());
+        changed.getJSONObject("tags").put("tag_0", "changed");
+        changed.getJSONArray(ARRAY_FIELD).put("sku_new");
+        return changed;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+
+/**
+ * The copies and serialization behind UserState.persistState and loadState.
+ * The operation log's file writes need an Android Context, so this covers the lines it writes and reads
+ *    through OSUserStateOperationLogFormat, and the copy-on-write of a change.
+ */
+@State(Scope.Benchmark)
+public class UserStateSerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int tagCount;
+
+    private ImmutableJSONObject syncValues;
+    private ImmutableJSONObject dependValues;
+    private String snapshotLine;
+    private String tagsOperationLine;
+    private JSONObject tagUpdate;
+
+    @Setup
+    public void setUp() throws JSONException {
+        syncValues = new ImmutableJSONObject(UserStateFixtures.syncValues(tagCount));
+        dependValues = new ImmutableJSONObject(UserStateFixtures.dependValues());
+        snapshotLine = OSUserStateOperationLogFormat.encodeSnapshot(syncValues, dependValues);
+        tagsOperationLine = encodeTagsOperation();
+        tagUpdate = new JSONObject().put("tags", new JSONObject().put("tag_0", "changed"));
+    }
+
+    // Writing a snapshot on compaction
+    @Benchmark
+    public String encodeSnapshot() throws JSONException {
+        return OSUserStateOperationLogFormat.encodeSnapshot(syncValues, dependValues);
+    }
+
+    // Reading a snapshot back into UserState values on load
+    @Benchmark
+    public ImmutableJSONObject decodeSnapshot() throws JSONException {
+        OSUserStateOperationLogFormat.Snapshot snapshot = OSUserStateOperationLogFormat.decodeSnapshot(snapshotLine);
+        new ImmutableJSONObject(snapshot.dependValues);
+        return new ImmutableJSONObject(snapshot.syncValues);
+    }
+
+    // Loading a log with a tags change appended after its snapshot
+    @Benchmark
+    public ImmutableJSONObject decodeSnapshotAndOperation() throws JSONException {
+        OSUserStateOperationLogFormat.Snapshot snapshot = OSUserStateOperationLogFormat.decodeSnapshot(snapshotLine);
+        OSUserStateOperationLogFormat.applyOperation(snapshot, tagsOperationLine);
+        new ImmutableJSONObject(snapshot.dependValues);
+        return new ImmutableJSONObject(snapshot.syncValues);
+    }
+
+    // The streaming parser used for the on_session response, for comparison with decodeSnapshot
+    @Benchmark
+    public JSONObject decodeSnapshotStreaming() throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new StringReader(snapshotLine));
+        try {
+            return JSONUtils.readJSONObject(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Appending the tags of one change, only the changed key is written
+    @Benchmark
+    public String encodeTagsOperation() throws JSONException {
+        return OSUserStateOperationLogFormat.encodeOperations(syncValues, Collections.singleton("tags"),
+                dependValues, Collections.<String>emptySet());
+    }
+
+    // UserState.generateJsonDiffFromIntoSyncValued, copy out, apply the change and publish a new snapshot
+    @Benchmark
+    public ImmutableJSONObject applyTagChange() {
+        JSONObject current = syncValues.toJSONObject();
+        JSONObject output = JSONUtils.generateJsonDiff(current, tagUpdate, current, null);
+        return new ImmutableJSONObject(output);
+    }
+
+    // A top level change that shares the nested values with the previous snapshot
+    @Benchmark
+    public ImmutableJSONObject copyOnWriteTopLevelChange() {
+        return syncValues.with("language", "fr");
+    }
+}
@@ -27,69 +27,331 @@
 
 package com.onesignal;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read only JSON object, used as the snapshot type of {@link UserState} values.
+ * Instances are never modified, changes return a new instance so a reader can hold onto one without
+ *    copying or locking. Only the top level map is copied on change, nested objects are themselves
+ *    ImmutableJSONObjects and are shared between the old and new instance.
+ * Values are kept as read from JSON, nested JSONObjects are converted on the way in and JSONArrays are
+ *    copied in and out since they can't be made read only.
+ * Getters follow the coercion rules of JSONObject so it can be swapped in for one.
+ */
 class ImmutableJSONObject {
 
-    private final JSONObject jsonObject;
+    private static final ImmutableJSONObject EMPTY = new ImmutableJSONObject(Collections.<String, Object>emptyMap());
+
+    private final Map<String, Object> values;
 
     public ImmutableJSONObject() {
-        this.jsonObject = new JSONObject();
+        this.values = EMPTY.values;
     }
 
+    /**
+     * Copies jsonObject, it can be modified afterwards without affecting this instance
+     */
     public ImmutableJSONObject(JSONObject jsonObject) {
-        this.jsonObject = jsonObject;
+        Map<String, Object> values = new HashMap<>();
+        Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            values.put(key, toImmutableValue(jsonObject.opt(key)));
+        }
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    private ImmutableJSONObject(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    /**
+     * @param value a null value removes the key, same as JSONObject.put
+     * @return this instance if key already has an equal value
+     */
+    @NonNull ImmutableJSONObject with(@NonNull String key, @Nullable Object value) {
+        if (value == null)
+            return without(key);
+
+        Object immutableValue = toImmutableValue(value);
+        if (sameValue(immutableValue, values.get(key)))
+            return this;
+
+        Map<String, Object> newValues = new HashMap<>(values);
+        newValues.put(key, immutableValue);
+        return new ImmutableJSONObject(Collections.unmodifiableMap(newValues));
+    }
+
+    /**
+     * @return this instance if none of the changes differ from the current values
+     */
+    @NonNull ImmutableJSONObject withAll(@NonNull Map<String, Object> changes) {
+        Map<String, Object> newValues = new HashMap<>(values);
+        boolean changed = false;
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == null)
+                changed |= newValues.remove(entry.getKey()) != null;
+            else {
+                Object immutableValue = toImmutableValue(entry.getValue());
+                Object oldValue = newValues.get(entry.getKey());
+                if (!sameValue(immutableValue, oldValue)) {
+                    newValues.put(entry.getKey(), immutableValue);
+                    changed = true;
+                }
+            }
+        }
+        return changed ? new ImmutableJSONObject(Collections.unmodifiableMap(newValues)) : this;
+    }
+
+    @NonNull ImmutableJSONObject without(@NonNull String key) {
+        if (!values.containsKey(key))
+            return this;
+
+        Map<String, Object> newValues = new HashMap<>(values);
+        newValues.remove(key);
+        return new ImmutableJSONObject(Collections.unmodifiableMap(newValues));
+    }
+
+    @NonNull ImmutableJSONObject withoutAll(@NonNull Collection<String> keys) {
+        Map<String, Object> newValues = new HashMap<>(values);
+        if (!newValues.keySet().removeAll(keys))
+            return this;
+        return new ImmutableJSONObject(Collections.unmodifiableMap(newValues));
+    }
+
+    /**
+     * Converts to a new JSONObject for the network and persistence edges, the caller owns the result
+     */
+    @NonNull JSONObject toJSONObject() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            for (Map.Entry<String, Object> entry : values.entrySet())
+                jsonObject.put(entry.getKey(), toJSONValue(entry.getValue()));
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject;
+    }
+
+    /**
+     * Same as {@link #toJSONObject()} limited to the given keys, nested values of other keys aren't converted
+     */
+    @NonNull JSONObject toJSONObject(@NonNull Collection<String> keys) {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            for (String key : keys) {
+                Object value = values.get(key);
+                if (value != null)
+                    jsonObject.put(key, toJSONValue(value));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject;
+    }
+
+    /**
+     * @return true if both have the same value, or no value, at key
+     */
+    boolean valueEquals(@NonNull ImmutableJSONObject other, String key) {
+        return sameValue(values.get(key), other.values.get(key));
+    }
+
+    Set<String> keySet() {
+        return values.keySet();
+    }
+
+    /**
+     * @return the nested object at name, null if there is none
+     */
+    @Nullable ImmutableJSONObject optImmutableJSONObject(String name) {
+        Object value = values.get(name);
+        return value instanceof ImmutableJSONObject ? (ImmutableJSONObject) value : null;
     }
 
     public long getLong(String name) throws JSONException {
-        return jsonObject.getLong(name);
+        Object value = values.get(name);
+        if (value == null)
+            throw new JSONException("No value for " + name);
+
+        Long result = toLong(value);
+        if (result == null)
+            throw new JSONException("Value " + value + " at " + name + " cannot be converted to long");
+        return result;
     }
 
     public boolean has(String name) {
-        return jsonObject.has(name);
+        return values.containsKey(name);
     }
 
+    /**
+     * Nested objects are returned as a new JSONObject
+     */
     public Object opt(String name) {
-        return jsonObject.opt(name);
+        return toJSONValue(values.get(name));
     }
 
     public String optString(String name) {
-        return jsonObject.optString(name);
+        return optString(name, "");
     }
 
     public String optString(String name, String fallback) {
-        return jsonObject.optString(name, fallback);
+        Object value = values.get(name);
+        if (value == null)
+            return fallback;
+        if (value instanceof String)
+            return (String) value;
+        if (value instanceof ImmutableJSONObject)
+            return ((ImmutableJSONObject) value).toJSONObject().toString();
+        return String.valueOf(value);
     }
 
     public boolean optBoolean(String name) {
-        return jsonObject.optBoolean(name);
+        return optBoolean(name, false);
     }
 
     public boolean optBoolean(String name, boolean fallback) {
-        return jsonObject.optBoolean(name, fallback);
+        Object value = values.get(name);
+        if (value instanceof Boolean)
+            return (Boolean) value;
+        if (value instanceof String) {
+            if ("true".equalsIgnoreCase((String) value))
+                return true;
+            if ("false".equalsIgnoreCase((String) value))
+                return false;
+        }
+        return fallback;
     }
 
     public long optLong(String name) {
-        return jsonObject.optLong(name);
+        Long result = toLong(values.get(name));
+        return result != null ? result : 0L;
     }
 
     public int optInt(String name) {
-        return jsonObject.optInt(name);
+        return optInt(name, 0);
     }
 
     public int optInt(String name, int fallback) {
-        return jsonObject.optInt(name, fallback);
+        Object value = values.get(name);
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        if (value instanceof String) {
+            try {
+                return (int) Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return fallback;
     }
 
+    /**
+     * @return a new JSONObject of the nested object at name, null if there is none
+     */
     public JSONObject optJSONObject(String name) {
-        return jsonObject.optJSONObject(name);
+        ImmutableJSONObject value = optImmutableJSONObject(name);
+        return value != null ? value.toJSONObject() : null;
+    }
+
+    private static Long toLong(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        if (value instanceof String) {
+            try {
+                return (long) Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Numbers compare by value, the same number can be boxed as an Integer by one caller and a Long by
+     *    JSON parsing, and arrays compare by content
+     */
+    private static boolean sameValue(@Nullable Object value, @Nullable Object otherValue) {
+        if (value == null || otherValue == null)
+            return value == otherValue;
+        if (value instanceof Number && otherValue instanceof Number)
+            return sameNumber((Number) value, (Number) otherValue);
+        if (value instanceof JSONArray && otherValue instanceof JSONArray)
+            return value.toString().equals(otherValue.toString());
+        return value.equals(otherValue);
+    }
+
+    private static boolean sameNumber(Number number, Number otherNumber) {
+        if (isIntegral(number) && isIntegral(otherNumber))
+            return number.longValue() == otherNumber.longValue();
+        return Double.compare(number.doubleValue(), otherNumber.doubleValue()) == 0;
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+    }
+
+    private static Object toImmutableValue(Object value) {
+        if (value instanceof JSONObject)
+            return new ImmutableJSONObject((JSONObject) value);
+        if (value instanceof JSONArray)
+            return copyArray((JSONArray) value);
+        return value;
+    }
+
+    private static Object toJSONValue(Object value) {
+        if (value instanceof ImmutableJSONObject)
+            return ((ImmutableJSONObject) value).toJSONObject();
+        if (value instanceof JSONArray)
+            return copyArray((JSONArray) value);
+        return value;
+    }
+
+    private static JSONArray copyArray(JSONArray array) {
+        try {
+            return new JSONArray(array.toString());
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return new JSONArray();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ImmutableJSONObject))
+            return false;
+
+        ImmutableJSONObject other = (ImmutableJSONObject) o;
+        if (!values.keySet().equals(other.values.keySet()))
+            return false;
+        for (String key : values.keySet()) {
+            if (!valueEquals(other, key))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return values.keySet().hashCode();
     }
 
     @Override
     public String toString() {
         return "ImmutableJSONObject{" +
-                "jsonObject=" + jsonObject +
+                "jsonObject=" + toJSONObject() +
                 '}';
     }
 }
@@ -1,5 +1,6 @@
 package com.onesignal;
 
+import android.util.JsonReader;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -7,9 +8,12 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -93,41 +97,33 @@ class JSONUtils {
             return;
         }
 
-        String arrayStr = toStringNE(newArray);
+        Set<String> newValues = toStringSet(newArray);
+        Set<String> curValues = curArray == null ? Collections.<String>emptySet() : toStringSet(curArray);
 
         JSONArray newOutArray = new JSONArray();
-        JSONArray remOutArray = new JSONArray();
-        String curArrayStr = curArray == null ? null : toStringNE(curArray);
-
-        for (int i = 0; i < newArray.length(); i++) {
-            String arrayValue = (String)newArray.get(i);
-            if (curArray == null || !curArrayStr.contains(arrayValue))
-                newOutArray.put(arrayValue);
+        for (String value : newValues) {
+            if (!curValues.contains(value))
+                newOutArray.put(value);
         }
 
-        if (curArray != null) {
-            for (int i = 0; i < curArray.length(); i++) {
-                String arrayValue = curArray.getString(i);
-                if (!arrayStr.contains(arrayValue))
-                    remOutArray.put(arrayValue);
-            }
+        JSONArray remOutArray = new JSONArray();
+        for (String value : curValues) {
+            if (!newValues.contains(value))
+                remOutArray.put(value);
         }
 
-        if (!newOutArray.toString().equals("[]"))
+        if (newOutArray.length() > 0)
             output.put(key + "_a", newOutArray);
-        if (!remOutArray.toString().equals("[]"))
+        if (remOutArray.length() > 0)
             output.put(key + "_d", remOutArray);
     }
 
-    static String toStringNE(JSONArray jsonArray) {
-        String strArray = "[";
-
-        try {
-            for (int i = 0; i < jsonArray.length(); i++)
-                strArray += "\"" + jsonArray.getString(i) + "\"";
-        } catch (JSONException ignored) {}
-
-        return strArray + "]";
+    // Keeps the array order so _a and _d list values in the order they were set
+    private static Set<String> toStringSet(JSONArray jsonArray) throws JSONException {
+        Set<String> values = new LinkedHashSet<>();
+        for (int i = 0; i < jsonArray.length(); i++)
+            values.add(jsonArray.getString(i));
+        return values;
     }
 
     static JSONObject getJSONObjectWithoutBlankValues(ImmutableJSONObject jsonObject, String getKey) {
@@ -247,6 +243,69 @@ class JSONUtils {
         return true;
     }
 
+    /**
+     * Reads the next object from a streaming reader into a JSONObject.
+     * Lets a large response be converted one part at a time, skipping the parts that aren't
+     *   needed, instead of parsing the whole body from a String.
+     */
+    static @NonNull JSONObject readJSONObject(@NonNull JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            object.put(name, readJSONValue(reader));
+        }
+        reader.endObject();
+        return object;
+    }
+
+    /**
+     * Reads the next array from a streaming reader into a JSONArray.
+     */
+    static @NonNull JSONArray readJSONArray(@NonNull JsonReader reader) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext())
+            array.put(readJSONValue(reader));
+        reader.endArray();
+        return array;
+    }
+
+    /**
+     * Reads the next value as the same type new JSONObject(String) would have given it.
+     */
+    private static @NonNull Object readJSONValue(@NonNull JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readJSONObject(reader);
+            case BEGIN_ARRAY:
+                return readJSONArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            case NUMBER:
+                return parseJSONNumber(reader.nextString());
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static @NonNull Number parseJSONNumber(@NonNull String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long longValue = Long.parseLong(number);
+                if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE)
+                    return (int) longValue;
+                return longValue;
+            } catch (NumberFormatException ignored) {
+                // Too large for a long, falls through to double
+            }
+        }
+        return Double.parseDouble(number);
+    }
+
     // Converts Java types that are equivalent in the JSON format to the same types.
     // This allows for assertEquals on two values from JSONObject.get to test values as long as it
     //   returns in the same JSON output.
@@ -0,0 +1,366 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * OSKeyValueStore kept in a single binary file per prefs name, replacing the SharedPreferences XML file
+ *    which was rewritten in full on every flush and parsed in full on the first read.
+ * The file is a header followed by one record per key written, a flush only appends records for the keys
+ *    it changed. Loading reads the file in one go and replays the records, the last one for a key wins.
+ * Once enough records are overwritten the file is compacted down to one record per key.
+ * Record: type byte, key, then the value for that type (nothing for a removal).
+ * A record cut short by the process dying mid write ends the replay, everything before it is kept
+ *    and the file is compacted so later appends don't land behind the partial record.
+ * A file with a header this version doesn't recognize is never rewritten, the store isn't opened instead.
+ *
+ * The first time a prefs name is opened the values in its SharedPreferences XML file are copied over.
+ * The XML file is left as is and isn't read again once the binary file exists.
+ */
+class OSAppendLogKeyValueStore implements OSKeyValueStore {
+
+   static final Factory FACTORY = new Factory() {
+      @Override
+      public @Nullable OSKeyValueStore open(@NonNull Context context, @NonNull String prefsName) {
+         File file = getFile(context, prefsName);
+         OSAppendLogKeyValueStore store = new OSAppendLogKeyValueStore(file);
+         if (!file.exists())
+            store.migrate(context.getSharedPreferences(prefsName, Context.MODE_PRIVATE).getAll());
+         // Not opened at all rather than empty, a write to an empty store would compact away the saved values
+         else if (!store.load())
+            return null;
+         return store;
+      }
+   };
+
+   // Compact once this many records are overwritten, and they outnumber the live keys
+   static final int MAX_STALE_RECORDS_BEFORE_COMPACT = 128;
+
+   private static final String FILE_NAME_PREFIX = "onesignal_prefs_";
+
+   private static final int MAGIC = 0x4F534B56; // "OSKV"
+   private static final byte FORMAT_VERSION = 1;
+
+   private static final byte TYPE_REMOVE = 0;
+   private static final byte TYPE_STRING = 1;
+   private static final byte TYPE_BOOLEAN = 2;
+   private static final byte TYPE_INT = 3;
+   private static final byte TYPE_LONG = 4;
+   private static final byte TYPE_FLOAT = 5;
+   private static final byte TYPE_STRING_SET = 6;
+
+   private final File file;
+   private final HashMap<String, Object> values = new HashMap<>();
+   // Records in the file, compared against values.size() to know how many are stale
+   private int recordCount;
+   // Set when the file doesn't match values, the next write rewrites it instead of appending
+   private boolean needsRewrite;
+
+   OSAppendLogKeyValueStore(@NonNull File file) {
+      this.file = file;
+   }
+
+   @Override
+   public synchronized @Nullable Object get(@NonNull String key) {
+      return values.get(key);
+   }
+
+   @Override
+   public synchronized boolean contains(@NonNull String key) {
+      return values.containsKey(key);
+   }
+
+   @Override
+   public synchronized void write(@NonNull Map<String, Object> changes) {
+      if (changes.isEmpty())
+         return;
+
+      ByteArrayOutputStream records = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(records);
+      int written = 0;
+      try {
+         for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Object value = change.getValue();
+            if (value instanceof Set)
+               value = new HashSet<>((Set<String>)value);
+
+            if (!writeRecord(output, change.getKey(), value))
+               continue;
+
+            if (value == null)
+               values.remove(change.getKey());
+            else
+               values.put(change.getKey(), value);
+            written++;
+         }
+      } catch (IOException e) {
+         // Only from the in memory stream, values is already up to date so rewrite the file from it
+         needsRewrite = true;
+      }
+
+      if (needsRewrite || isCompactionDue(recordCount + written)) {
+         compact();
+         return;
+      }
+
+      FileOutputStream outputStream = null;
+      try {
+         outputStream = new FileOutputStream(file, true);
+         outputStream.write(records.toByteArray());
+         outputStream.close();
+         outputStream = null;
+         recordCount += written;
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSAppendLogKeyValueStore: Failed to append to " + file.getName(), e);
+         OSUtils.closeQuietly(outputStream);
+         needsRewrite = true;
+      }
+   }
+
+   static File getFile(@NonNull Context context, @NonNull String prefsName) {
+      return new File(context.getFilesDir(), FILE_NAME_PREFIX + prefsName);
+   }
+
+   synchronized int getRecordCount() {
+      return recordCount;
+   }
+
+   private boolean isCompactionDue(int records) {
+      int staleRecords = records - values.size();
+      return staleRecords >= MAX_STALE_RECORDS_BEFORE_COMPACT && staleRecords > values.size();
+   }
+
+   private synchronized void migrate(@NonNull Map<String, ?> sharedPreferences) {
+      for (Map.Entry<String, ?> entry : sharedPreferences.entrySet()) {
+         if (entry.getValue() != null)
+            values.put(entry.getKey(), entry.getValue());
+      }
+
+      // Written even when empty, the file existing marks the migration as done
+      compact();
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSAppendLogKeyValueStore: Migrated " + values.size() + " values to " + file.getName());
+   }
+
+   /**
+    * @return false if the file couldn't be read or has a header this version doesn't know, such as one
+    *    written by a newer SDK before a downgrade. The store must not be used and the file is left as is.
+    */
+   private synchronized boolean load() {
+      byte[] bytes;
+      try {
+         bytes = readFile();
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSAppendLogKeyValueStore: Failed to read " + file.getName(), e);
+         return false;
+      }
+
+      ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
+      DataInputStream input = new DataInputStream(inputStream);
+      try {
+         if (input.readInt() != MAGIC || input.readByte() != FORMAT_VERSION) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OSAppendLogKeyValueStore: Unknown format in " + file.getName() + ", not opening it");
+            return false;
+         }
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OSAppendLogKeyValueStore: Header cut short in " + file.getName() + ", not opening it", e);
+         return false;
+      }
+
+      // Only a torn tail after a valid header is compacted away
+      int validLength = bytes.length - inputStream.available();
+      try {
+         while (inputStream.available() > 0) {
+            byte type = input.readByte();
+            String key = input.readUTF();
+            Object value = readValue(input, type);
+            if (value == null)
+               values.remove(key);
+            else
+               values.put(key, value);
+            recordCount++;
+            validLength = bytes.length - inputStream.available();
+         }
+      } catch (EOFException e) {
+         // Partial record at the end, keep what was read before it
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSAppendLogKeyValueStore: Failed to parse " + file.getName(), e);
+      }
+
+      if (validLength < bytes.length) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSAppendLogKeyValueStore: Dropping " + (bytes.length - validLength) + " unreadable bytes from " + file.getName());
+         compact();
+      }
+      return true;
+   }
+
+   /**
+    * Replaces the file with one record per key in values
+    */
+   private void compact() {
+      try {
+         ByteArrayOutputStream records = new ByteArrayOutputStream();
+         DataOutputStream output = new DataOutputStream(records);
+         output.writeInt(MAGIC);
+         output.writeByte(FORMAT_VERSION);
+         int written = 0;
+         for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (writeRecord(output, entry.getKey(), entry.getValue()))
+               written++;
+         }
+
+         // Renamed over the old file so a reader never sees a partial compaction
+         OSUtils.writeFileAtomically(file, records.toByteArray(), true);
+
+         recordCount = written;
+         needsRewrite = false;
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSAppendLogKeyValueStore: Failed to compact " + file.getName(), e);
+         needsRewrite = true;
+      }
+   }
+
+   private byte[] readFile() throws IOException {
+      FileInputStream inputStream = new FileInputStream(file);
+      try {
+         byte[] bytes = new byte[(int)file.length()];
+         int read = 0;
+         while (read < bytes.length) {
+            int count = inputStream.read(bytes, read, bytes.length - read);
+            if (count < 0)
+               break;
+            read += count;
+         }
+         return read == bytes.length ? bytes : Arrays.copyOf(bytes, read);
+      } finally {
+         OSUtils.closeQuietly(inputStream);
+      }
+   }
+
+   /**
+    * @return false if value isn't a type this store can save, nothing is written for it
+    */
+   private static boolean writeRecord(DataOutputStream output, String key, @Nullable Object value) throws IOException {
+      if (value == null) {
+         output.writeByte(TYPE_REMOVE);
+         output.writeUTF(key);
+      } else if (value instanceof String) {
+         output.writeByte(TYPE_STRING);
+         output.writeUTF(key);
+         writeString(output, (String)value);
+      } else if (value instanceof Boolean) {
+         output.writeByte(TYPE_BOOLEAN);
+         output.writeUTF(key);
+         output.writeBoolean((Boolean)value);
+      } else if (value instanceof Integer) {
+         output.writeByte(TYPE_INT);
+         output.writeUTF(key);
+         output.writeInt((Integer)value);
+      } else if (value instanceof Long) {
+         output.writeByte(TYPE_LONG);
+         output.writeUTF(key);
+         output.writeLong((Long)value);
+      } else if (value instanceof Float) {
+         output.writeByte(TYPE_FLOAT);
+         output.writeUTF(key);
+         output.writeFloat((Float)value);
+      } else if (value instanceof Set) {
+         Set<String> set = (Set<String>)value;
+         output.writeByte(TYPE_STRING_SET);
+         output.writeUTF(key);
+         output.writeInt(set.size());
+         for (String item : set)
+            writeString(output, item);
+      } else {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OSAppendLogKeyValueStore: Can't save " + value.getClass().getSimpleName() + " for " + key);
+         return false;
+      }
+      return true;
+   }
+
+   private static @Nullable Object readValue(DataInputStream input, byte type) throws IOException {
+      switch (type) {
+         case TYPE_REMOVE:
+            return null;
+         case TYPE_STRING:
+            return readString(input);
+         case TYPE_BOOLEAN:
+            return input.readBoolean();
+         case TYPE_INT:
+            return input.readInt();
+         case TYPE_LONG:
+            return input.readLong();
+         case TYPE_FLOAT:
+            return input.readFloat();
+         case TYPE_STRING_SET:
+            int size = input.readInt();
+            HashSet<String> set = new HashSet<>();
+            for (int i = 0; i < size; i++)
+               set.add(readString(input));
+            return set;
+         default:
+            throw new IOException("Unknown record type " + type);
+      }
+   }
+
+   // writeUTF caps out at 64KB, cached in app messages can be larger than that
+   private static void writeString(DataOutputStream output, String value) throws IOException {
+      byte[] bytes = value.getBytes("UTF-8");
+      output.writeInt(bytes.length);
+      output.write(bytes);
+   }
+
+   private static String readString(DataInputStream input) throws IOException {
+      int length = input.readInt();
+      if (length < 0 || length > input.available())
+         throw new EOFException();
+      byte[] bytes = new byte[length];
+      input.readFully(bytes);
+      return new String(bytes, "UTF-8");
+   }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip settings and byte counters for {@link OneSignalRestClient}.
+ * Responses: Accept-Encoding: gzip is sent on every endpoint unless it is switched off for it,
+ *    setting the header ourselves turns off the transparent decoding some HttpURLConnection
+ *    implementations do, so responses are decoded here as they are read instead.
+ * Requests: Bodies are only compressed for endpoints the backend has said accept it, through
+ *    the gzip_request_endpoints remote param, and only once they are larger than minRequestBytes.
+ * Endpoints are matched by template, see {@link OneSignalRestClient#getEndpointTemplate(String)}.
+ */
+class OSHttpCompression {
+
+   static final int DEFAULT_MIN_REQUEST_BYTES = 1024;
+
+   static final String GZIP_ENCODING = "gzip";
+   private static final String IDENTITY_ENCODING = "identity";
+
+   private volatile int minRequestBytes = DEFAULT_MIN_REQUEST_BYTES;
+   private final Set<String> requestGzipEndpoints = OSUtils.newConcurrentSet();
+   private final Set<String> responseGzipDisabledEndpoints = OSUtils.newConcurrentSet();
+
+   // Uncompressed size vs size on the wire, the difference is the savings
+   private final AtomicLong requestBodyBytes = new AtomicLong();
+   private final AtomicLong requestWireBytes = new AtomicLong();
+   private final AtomicLong responseBodyBytes = new AtomicLong();
+   private final AtomicLong responseWireBytes = new AtomicLong();
+
+   void setMinRequestBytes(int minRequestBytes) {
+      this.minRequestBytes = minRequestBytes;
+   }
+
+   void setRequestCompression(@NonNull String endpointTemplate, boolean enabled) {
+      if (enabled)
+         requestGzipEndpoints.add(endpointTemplate);
+      else
+         requestGzipEndpoints.remove(endpointTemplate);
+   }
+
+   void setResponseCompression(@NonNull String endpointTemplate, boolean enabled) {
+      if (enabled)
+         responseGzipDisabledEndpoints.remove(endpointTemplate);
+      else
+         responseGzipDisabledEndpoints.add(endpointTemplate);
+   }
+
+   /**
+    * Replaces the endpoints accepting gzip request bodies with the ones from remote params
+    */
+   void setRequestCompressionEndpoints(@Nullable JSONArray endpointTemplates) {
+      requestGzipEndpoints.clear();
+      if (endpointTemplates == null)
+         return;
+
+      for (int i = 0; i < endpointTemplates.length(); i++) {
+         String endpointTemplate = endpointTemplates.optString(i, null);
+         if (endpointTemplate != null)
+            requestGzipEndpoints.add(endpointTemplate);
+      }
+   }
+
+   boolean shouldCompressRequest(@NonNull String endpointTemplate, int bodyBytes) {
+      return bodyBytes >= minRequestBytes && requestGzipEndpoints.contains(endpointTemplate);
+   }
+
+   /**
+    * @return the value for the Accept-Encoding request header
+    */
+   @NonNull String getAcceptEncoding(@NonNull String endpointTemplate) {
+      return responseGzipDisabledEndpoints.contains(endpointTemplate) ? IDENTITY_ENCODING : GZIP_ENCODING;
+   }
+
+   /**
+    * Returns the bytes to write for a request body, gzipped if enabled for the endpoint
+    * @return null if the body should be sent as is
+    */
+   @Nullable byte[] compressRequest(@NonNull String endpointTemplate, @NonNull byte[] body) throws IOException {
+      if (!shouldCompressRequest(endpointTemplate, body.length))
+         return null;
+
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+      GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+      gzipOutputStream.write(body);
+      gzipOutputStream.close();
+
+      // Not worth the server decoding it if it didn't get smaller
+      if (compressed.size() >= body.length)
+         return null;
+      return compressed.toByteArray();
+   }
+
+   void countRequest(int bodyBytes, int wireBytes) {
+      requestBodyBytes.addAndGet(bodyBytes);
+      requestWireBytes.addAndGet(wireBytes);
+   }
+
+   /**
+    * Wraps a response stream so it is decoded based on its Content-Encoding and counted as it is read
+    * @param requestWireBytes also counts the bytes on the wire, for metrics of this one request
+    */
+   @NonNull InputStream decodeResponse(@NonNull InputStream inputStream, @Nullable String contentEncoding, @Nullable AtomicLong requestWireBytes) throws IOException {
+      InputStream wireStream = new CountingInputStream(inputStream, responseWireBytes, requestWireBytes);
+      if (!GZIP_ENCODING.equalsIgnoreCase(contentEncoding))
+         return new CountingInputStream(wireStream, responseBodyBytes, null);
+
+      // GZIPInputStream reads the gzip header as it is created, an empty body has none to read
+      PushbackInputStream peekStream = new PushbackInputStream(wireStream, 1);
+      int firstByte = peekStream.read();
+      if (firstByte == -1)
+         return new CountingInputStream(peekStream, responseBodyBytes, null);
+
+      peekStream.unread(firstByte);
+      return new CountingInputStream(new GZIPInputStream(peekStream), responseBodyBytes, null);
+   }
+
+   long getRequestBodyBytes() {
+      return requestBodyBytes.get();
+   }
+
+   long getRequestWireBytes() {
+      return requestWireBytes.get();
+   }
+
+   long getResponseBodyBytes() {
+      return responseBodyBytes.get();
+   }
+
+   long getResponseWireBytes() {
+      return responseWireBytes.get();
+   }
+
+   void resetCounters() {
+      requestBodyBytes.set(0);
+      requestWireBytes.set(0);
+      responseBodyBytes.set(0);
+      responseWireBytes.set(0);
+   }
+
+   private static class CountingInputStream extends FilterInputStream {
+      private final AtomicLong counter;
+      private final AtomicLong secondCounter;
+
+      CountingInputStream(InputStream inputStream, AtomicLong counter, @Nullable AtomicLong secondCounter) {
+         super(inputStream);
+         this.counter = counter;
+         this.secondCounter = secondCounter;
+      }
+
+      @Override
+      public int read() throws IOException {
+         int result = super.read();
+         if (result != -1)
+            count(1);
+         return result;
+      }
+
+      @Override
+      public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+         int read = super.read(buffer, offset, length);
+         if (read > 0)
+            count(read);
+         return read;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+         long skipped = super.skip(n);
+         count(skipped);
+         return skipped;
+      }
+
+      private void count(long bytes) {
+         counter.addAndGet(bytes);
+         if (secondCounter != null)
+            secondCounter.addAndGet(bytes);
+      }
+   }
+}
@@ -0,0 +1,442 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools backing the async methods of {@link OneSignalRestClient}.
+ * Requests run on a bounded network pool, response handlers on a separate callback pool so a slow
+ *    handler can't hold a network slot, and timeouts are enforced by a single watchdog thread.
+ * All pools are created lazily and let their idle threads die after the keep alive time.
+ * Requests wait in a lane for their {@link Priority}, each lane has its own concurrency limit and
+ *    free network slots go to the highest priority lane first, see {@link #startQueuedRequests()}.
+ */
+class OSHttpDispatcher {
+
+   /**
+    * Lanes in order of priority
+    */
+   enum Priority {
+      // Something on screen is waiting on it, such as IAM content
+      INTERACTIVE(DEFAULT_MAX_CONCURRENT_REQUESTS),
+      // Creating the player and on_session, gates everything else for the session
+      SESSION(DEFAULT_MAX_CONCURRENT_REQUESTS),
+      // Impressions, receipts, outcomes and focus time, held back while SESSION requests are in flight
+      TELEMETRY(1),
+      BACKGROUND(1);
+
+      private final int defaultMaxConcurrent;
+
+      Priority(int defaultMaxConcurrent) {
+         this.defaultMaxConcurrent = defaultMaxConcurrent;
+      }
+   }
+
+   static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+   static final int DEFAULT_MAX_CALLBACK_THREADS = 2;
+   static final long DEFAULT_KEEP_ALIVE_MS = 10_000;
+   // Longest a sync TELEMETRY request waits for SESSION requests to finish before going anyway
+   static final long MAX_TELEMETRY_DEFERRAL_MS = 10_000;
+
+   private static final String NETWORK_THREAD_PREFIX = "OS_REST_NETWORK_";
+   private static final String CALLBACK_THREAD_PREFIX = "OS_REST_CALLBACK_";
+   private static final String TIMEOUT_THREAD_PREFIX = "OS_REST_TIMEOUT_";
+
+   private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+   private int maxCallbackThreads = DEFAULT_MAX_CALLBACK_THREADS;
+   private long keepAliveMs = DEFAULT_KEEP_ALIVE_MS;
+
+   private ThreadPoolExecutor networkExecutor;
+   private ThreadPoolExecutor callbackExecutor;
+   private ScheduledThreadPoolExecutor timeoutExecutor;
+
+   private final Lane[] lanes = new Lane[Priority.values().length];
+   private int runningRequests;
+   private int syncSessionRequests;
+   // Bumped on shutdown so requests dropped by it don't release slots of the new pool
+   private int generation;
+
+   OSHttpDispatcher() {
+      for (Priority priority : Priority.values())
+         lanes[priority.ordinal()] = new Lane(priority.defaultMaxConcurrent);
+   }
+
+   /**
+    * Changes the pool limits, applied to the live pools as well as any created later.
+    * @param maxConcurrentRequests max number of HTTP requests in flight at once
+    * @param maxCallbackThreads max number of ResponseHandler callbacks running at once
+    * @param keepAliveMs time an idle thread is kept around before it is stopped
+    */
+   synchronized void configure(int maxConcurrentRequests, int maxCallbackThreads, long keepAliveMs) {
+      if (maxConcurrentRequests < 1 || maxCallbackThreads < 1 || keepAliveMs < 1)
+         throw new IllegalArgumentException("OSHttpDispatcher limits must be positive");
+
+      this.maxConcurrentRequests = maxConcurrentRequests;
+      this.maxCallbackThreads = maxCallbackThreads;
+      this.keepAliveMs = keepAliveMs;
+
+      resizePool(networkExecutor, maxConcurrentRequests);
+      resizePool(callbackExecutor, maxCallbackThreads);
+      if (timeoutExecutor != null)
+         timeoutExecutor.setKeepAliveTime(keepAliveMs, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Changes how many requests of a priority can run at once, the total is still capped by maxConcurrentRequests
+    */
+   synchronized void configureLane(@NonNull Priority priority, int maxConcurrent) {
+      if (maxConcurrent < 1)
+         throw new IllegalArgumentException("OSHttpDispatcher limits must be positive");
+
+      lanes[priority.ordinal()].maxConcurrent = maxConcurrent;
+      startQueuedRequests();
+   }
+
+   void executeRequest(@NonNull Priority priority, @NonNull Runnable request) {
+      synchronized (this) {
+         lanes[priority.ordinal()].queue.add(request);
+      }
+      startQueuedRequests();
+   }
+
+   /**
+    * Called before a request is made on the calling thread, outside of the lanes.
+    * Sync SESSION requests hold back TELEMETRY like queued ones do and a sync TELEMETRY request
+    *    waits here, up to MAX_TELEMETRY_DEFERRAL_MS, for SESSION requests to finish.
+    */
+   void beforeSyncRequest(@NonNull Priority priority) {
+      if (priority == Priority.SESSION) {
+         synchronized (this) {
+            syncSessionRequests++;
+         }
+      }
+      else if (priority == Priority.TELEMETRY)
+         awaitSessionRequests(MAX_TELEMETRY_DEFERRAL_MS);
+   }
+
+   void afterSyncRequest(@NonNull Priority priority) {
+      if (priority != Priority.SESSION)
+         return;
+
+      synchronized (this) {
+         // Already zeroed if shutdownNow ran while the request was in flight
+         if (syncSessionRequests > 0)
+            syncSessionRequests--;
+         notifyAll();
+      }
+      startQueuedRequests();
+   }
+
+   void executeCallback(@NonNull Runnable callback) {
+      execute(getCallbackExecutor(), callback);
+   }
+
+   /**
+    * Starts the watchdog for a request about to be made on the current thread.
+    * {@link RequestTimeout#finish()} must be called from the same thread once the request completes.
+    */
+   RequestTimeout startTimeout(long timeoutMs) {
+      RequestTimeout requestTimeout = new RequestTimeout(Thread.currentThread());
+      try {
+         requestTimeout.executor = getTimeoutExecutor();
+         requestTimeout.future = requestTimeout.executor.schedule(requestTimeout, timeoutMs, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+         // Dispatcher was shutdown, the request still runs, just without a fallback timeout
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSHttpDispatcher: Timeout watchdog unavailable, request will rely on socket timeouts");
+      }
+      return requestTimeout;
+   }
+
+   /**
+    * Stops all threads, dropping any queued requests and callbacks.
+    * Pools are created again on the next request.
+    */
+   synchronized void shutdownNow() {
+      for (Lane lane : lanes) {
+         lane.queue.clear();
+         lane.running = 0;
+      }
+      runningRequests = 0;
+      syncSessionRequests = 0;
+      generation++;
+      notifyAll();
+
+      if (networkExecutor != null)
+         networkExecutor.shutdownNow();
+      if (callbackExecutor != null)
+         callbackExecutor.shutdownNow();
+      if (timeoutExecutor != null)
+         timeoutExecutor.shutdownNow();
+
+      networkExecutor = null;
+      callbackExecutor = null;
+      timeoutExecutor = null;
+   }
+
+   /**
+    * Hands queued requests to the network pool while there are free slots, highest priority lane first.
+    * TELEMETRY is skipped while any SESSION request is queued or running.
+    */
+   private void startQueuedRequests() {
+      List<Runnable> toStart = new ArrayList<>();
+      synchronized (this) {
+         while (runningRequests < maxConcurrentRequests) {
+            Lane lane = nextLane();
+            if (lane == null)
+               break;
+
+            lane.running++;
+            runningRequests++;
+            toStart.add(new LaneRequest(lane, lane.queue.poll(), generation));
+         }
+      }
+
+      for (Runnable request : toStart)
+         execute(getNetworkExecutor(), request);
+   }
+
+   private Lane nextLane() {
+      for (Priority priority : Priority.values()) {
+         Lane lane = lanes[priority.ordinal()];
+         if (lane.queue.isEmpty() || lane.running >= lane.maxConcurrent)
+            continue;
+         if (priority == Priority.TELEMETRY && hasSessionRequests())
+            continue;
+         return lane;
+      }
+      return null;
+   }
+
+   private boolean hasSessionRequests() {
+      Lane sessionLane = lanes[Priority.SESSION.ordinal()];
+      return syncSessionRequests > 0 || sessionLane.running > 0 || !sessionLane.queue.isEmpty();
+   }
+
+   private synchronized void awaitSessionRequests(long maxWaitMs) {
+      long waitUntil = System.currentTimeMillis() + maxWaitMs;
+      while (hasSessionRequests()) {
+         long remainingMs = waitUntil - System.currentTimeMillis();
+         if (remainingMs <= 0)
+            return;
+
+         try {
+            wait(remainingMs);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+   }
+
+   private void onRequestFinished(Lane lane, int requestGeneration) {
+      synchronized (this) {
+         if (requestGeneration != generation)
+            return;
+
+         lane.running--;
+         runningRequests--;
+         notifyAll();
+      }
+      startQueuedRequests();
+   }
+
+   private void execute(ThreadPoolExecutor executor, Runnable runnable) {
+      try {
+         executor.execute(runnable);
+      } catch (RejectedExecutionException e) {
+         // Only possible if shutdownNow raced with this call, don't lose the work
+         OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "OSHttpDispatcher: Executor is shutdown, running task on a new thread");
+         new Thread(runnable, "OS_REST_FALLBACK").start();
+      }
+   }
+
+   private synchronized ThreadPoolExecutor getNetworkExecutor() {
+      if (networkExecutor == null)
+         networkExecutor = newPool(maxConcurrentRequests, NETWORK_THREAD_PREFIX);
+      return networkExecutor;
+   }
+
+   private synchronized ThreadPoolExecutor getCallbackExecutor() {
+      if (callbackExecutor == null)
+         callbackExecutor = newPool(maxCallbackThreads, CALLBACK_THREAD_PREFIX);
+      return callbackExecutor;
+   }
+
+   private synchronized ScheduledThreadPoolExecutor getTimeoutExecutor() {
+      if (timeoutExecutor == null) {
+         timeoutExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(TIMEOUT_THREAD_PREFIX));
+         timeoutExecutor.setKeepAliveTime(keepAliveMs, TimeUnit.MILLISECONDS);
+         timeoutExecutor.allowCoreThreadTimeOut(true);
+      }
+      return timeoutExecutor;
+   }
+
+   private ThreadPoolExecutor newPool(int size, String threadPrefix) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+         size,
+         size,
+         keepAliveMs,
+         TimeUnit.MILLISECONDS,
+         new LinkedBlockingQueue<Runnable>(),
+         new NamedThreadFactory(threadPrefix)
+      );
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   private void resizePool(ThreadPoolExecutor executor, int size) {
+      if (executor == null)
+         return;
+
+      // Order matters, core size can never be larger than the max size
+      if (size > executor.getMaximumPoolSize()) {
+         executor.setMaximumPoolSize(size);
+         executor.setCorePoolSize(size);
+      } else {
+         executor.setCorePoolSize(size);
+         executor.setMaximumPoolSize(size);
+      }
+      executor.setKeepAliveTime(keepAliveMs, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Interrupts the thread making a request and cancels its call if the request
+    *    is still running once the timeout fires.
+    * getResponseCode() can hang past its timeout setting, this is the fallback for that case.
+    */
+   static class RequestTimeout implements Runnable {
+      private final Thread requestThread;
+      private OSHttpTransport.Call call;
+      private ScheduledThreadPoolExecutor executor;
+      private ScheduledFuture<?> future;
+      private boolean finished;
+      private boolean timedOut;
+
+      private RequestTimeout(Thread requestThread) {
+         this.requestThread = requestThread;
+      }
+
+      synchronized void setCall(OSHttpTransport.Call call) {
+         this.call = call;
+      }
+
+      @Override
+      public void run() {
+         OSHttpTransport.Call call;
+         synchronized (this) {
+            if (finished)
+               return;
+            timedOut = true;
+            call = this.call;
+            requestThread.interrupt();
+         }
+
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSHttpDispatcher: Request timed out, interrupting thread: " + requestThread.getName());
+         if (call != null)
+            call.cancel();
+      }
+
+      /**
+       * @return true if the watchdog fired before the request finished
+       */
+      synchronized boolean finish() {
+         finished = true;
+         if (future != null) {
+            future.cancel(false);
+            // Cancelled timeouts are the common case, drop them right away so the watchdog thread can idle out.
+            // setRemoveOnCancelPolicy would do this but requires API 21
+            executor.purge();
+         }
+         // Don't leak the watchdog's interrupt into the next work done on this thread
+         if (timedOut)
+            Thread.interrupted();
+         return timedOut;
+      }
+   }
+
+   private static class Lane {
+      private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+      private int maxConcurrent;
+      private int running;
+
+      Lane(int maxConcurrent) {
+         this.maxConcurrent = maxConcurrent;
+      }
+   }
+
+   /**
+    * Frees its lane slot once the request finishes, letting the next queued request start
+    */
+   private class LaneRequest implements Runnable {
+      private final Lane lane;
+      private final Runnable request;
+      private final int generation;
+
+      LaneRequest(Lane lane, Runnable request, int generation) {
+         this.lane = lane;
+         this.request = request;
+         this.generation = generation;
+      }
+
+      @Override
+      public void run() {
+         try {
+            request.run();
+         } finally {
+            onRequestFinished(lane, generation);
+         }
+      }
+   }
+
+   private static class NamedThreadFactory implements ThreadFactory {
+      private final AtomicInteger threadCount = new AtomicInteger();
+      private final String prefix;
+
+      NamedThreadFactory(String prefix) {
+         this.prefix = prefix;
+      }
+
+      @Override
+      public Thread newThread(@NonNull Runnable runnable) {
+         return new Thread(runnable, prefix + threadCount.incrementAndGet());
+      }
+   }
+}
@@ -0,0 +1,154 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import org.json.JSONObject;
+
+/**
+ * Metrics of the requests the SDK made to one OneSignal API endpoint, see {@link OneSignal#getHttpMetrics()}
+ */
+public class OSHttpEndpointMetrics {
+
+   private final String endpoint;
+   private final long requestCount;
+   private final long requestBytes;
+   private final long responseBytes;
+   private final long totalLatencyMs;
+   private final long[] statusClassCounts;
+   private final long[] latencyBuckets;
+
+   OSHttpEndpointMetrics(String endpoint, long requestCount, long requestBytes, long responseBytes, long totalLatencyMs, long[] statusClassCounts, long[] latencyBuckets) {
+      this.endpoint = endpoint;
+      this.requestCount = requestCount;
+      this.requestBytes = requestBytes;
+      this.responseBytes = responseBytes;
+      this.totalLatencyMs = totalLatencyMs;
+      this.statusClassCounts = statusClassCounts;
+      this.latencyBuckets = latencyBuckets;
+   }
+
+   /**
+    * Get the endpoint, ids in the path are replaced with {id}
+    *
+    * @return endpoint template, ex. players/{id}/on_session
+    */
+   public String getEndpoint() {
+      return endpoint;
+   }
+
+   public long getRequestCount() {
+      return requestCount;
+   }
+
+   /**
+    * @return bytes of request bodies sent, after compression
+    */
+   public long getRequestBytes() {
+      return requestBytes;
+   }
+
+   /**
+    * @return bytes of response bodies received, before decompression
+    */
+   public long getResponseBytes() {
+      return responseBytes;
+   }
+
+   public long getAverageLatencyMs() {
+      return requestCount == 0 ? 0 : totalLatencyMs / requestCount;
+   }
+
+   /**
+    * Get the number of responses with a status code in a class
+    *
+    * @param statusClass 1-5 for 1xx-5xx, 0 for requests that failed without a response
+    * @return number of requests, 0 for an unknown class
+    */
+   public long getStatusClassCount(int statusClass) {
+      if (statusClass < 0 || statusClass >= statusClassCounts.length)
+         return 0;
+      return statusClassCounts[statusClass];
+   }
+
+   /**
+    * Get an approximate latency percentile
+    *
+    * @param percentile between 0 and 100, ex. 50 for the median or 99
+    * @return upper bound in ms of the latency bucket the percentile falls in,
+    *    Long.MAX_VALUE if it is past the slowest bucket, 0 if there are no requests
+    */
+   public long getLatencyPercentileMs(double percentile) {
+      if (requestCount == 0)
+         return 0;
+
+      long rank = (long) Math.ceil(requestCount * Math.min(Math.max(percentile, 0), 100) / 100);
+      long seen = 0;
+      for (int i = 0; i < latencyBuckets.length; i++) {
+         seen += latencyBuckets[i];
+         if (seen >= rank && seen > 0)
+            return i < OSHttpMetrics.LATENCY_BUCKET_BOUNDS_MS.length ? OSHttpMetrics.LATENCY_BUCKET_BOUNDS_MS[i] : Long.MAX_VALUE;
+      }
+      return Long.MAX_VALUE;
+   }
+
+   public JSONObject toJSONObject() {
+      JSONObject mainObj = new JSONObject();
+
+      try {
+         mainObj.put("endpoint", endpoint);
+         mainObj.put("requestCount", requestCount);
+         mainObj.put("requestBytes", requestBytes);
+         mainObj.put("responseBytes", responseBytes);
+         mainObj.put("averageLatencyMs", getAverageLatencyMs());
+         mainObj.put("p50LatencyMs", getLatencyPercentileMs(50));
+         mainObj.put("p90LatencyMs", getLatencyPercentileMs(90));
+         mainObj.put("p99LatencyMs", getLatencyPercentileMs(99));
+
+         JSONObject statusClasses = new JSONObject();
+         for (int i = 1; i < statusClassCounts.length; i++)
+            statusClasses.put(i + "xx", statusClassCounts[i]);
+         statusClasses.put("noResponse", statusClassCounts[0]);
+         mainObj.put("statusCodes", statusClasses);
+      } catch (Throwable t) {
+         t.printStackTrace();
+      }
+
+      return mainObj;
+   }
+
+   @Override
+   public String toString() {
+      return "OSHttpEndpointMetrics{" +
+              "endpoint='" + endpoint + '\'' +
+              ", requestCount=" + requestCount +
+              ", requestBytes=" + requestBytes +
+              ", responseBytes=" + responseBytes +
+              ", averageLatencyMs=" + getAverageLatencyMs() +
+              '}';
+   }
+}
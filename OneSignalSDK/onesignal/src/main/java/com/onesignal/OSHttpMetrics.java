@@ -0,0 +1,154 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records count, bytes, status codes and latency of {@link OneSignalRestClient} requests per endpoint template.
+ * Recording a request only updates atomic counters of its endpoint, nothing is allocated once the
+ *    endpoint has been seen, so it is always on. Latency is kept as a fixed bucket histogram so
+ *    percentiles are approximate, reported as the upper bound of the bucket they fall in.
+ */
+class OSHttpMetrics {
+
+   // Upper bounds in ms of the latency buckets, the last bucket holds everything slower
+   static final long[] LATENCY_BUCKET_BOUNDS_MS = {
+      10, 25, 50, 75, 100, 150, 200, 300, 500, 750, 1_000, 1_500, 2_000, 3_000, 5_000, 7_500, 10_000, 20_000, 30_000, 60_000, 120_000
+   };
+
+   // Status codes are counted by class, 1xx-5xx, index 0 is for requests that got no response
+   static final int STATUS_CLASS_COUNT = 6;
+
+   private final ConcurrentHashMap<String, EndpointRecorder> endpoints = new ConcurrentHashMap<>();
+   private volatile OneSignal.OSHttpMetricsListener listener;
+
+   void setListener(@Nullable OneSignal.OSHttpMetricsListener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    * @param statusCode HTTP status, -1 if the request failed without a response
+    * @param requestBytes bytes of the request body as sent, after any compression
+    * @param responseBytes bytes of the response body as received, before any decompression
+    */
+   void record(@NonNull String endpointTemplate, @Nullable String method, int statusCode, long latencyMs, long requestBytes, long responseBytes) {
+      EndpointRecorder recorder = endpoints.get(endpointTemplate);
+      if (recorder == null) {
+         EndpointRecorder newRecorder = new EndpointRecorder();
+         recorder = endpoints.putIfAbsent(endpointTemplate, newRecorder);
+         if (recorder == null)
+            recorder = newRecorder;
+      }
+      recorder.record(statusCode, latencyMs, requestBytes, responseBytes);
+
+      OneSignal.OSHttpMetricsListener listener = this.listener;
+      if (listener == null)
+         return;
+
+      try {
+         listener.onRequestCompleted(endpointTemplate, method == null ? "GET" : method, statusCode, latencyMs, requestBytes, responseBytes);
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OSHttpMetrics: Exception thrown by OSHttpMetricsListener", t);
+      }
+   }
+
+   /**
+    * @return copy of the metrics of every endpoint seen since the last reset
+    */
+   @NonNull Map<String, OSHttpEndpointMetrics> getSnapshot() {
+      Map<String, OSHttpEndpointMetrics> snapshot = new HashMap<>();
+      for (Map.Entry<String, EndpointRecorder> entry : endpoints.entrySet())
+         snapshot.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+      return snapshot;
+   }
+
+   void reset() {
+      endpoints.clear();
+   }
+
+   static int getStatusClass(int statusCode) {
+      if (statusCode < 100 || statusCode >= 600)
+         return 0;
+      return statusCode / 100;
+   }
+
+   static int getLatencyBucket(long latencyMs) {
+      // Few enough buckets that a scan is as quick as a binary search
+      for (int i = 0; i < LATENCY_BUCKET_BOUNDS_MS.length; i++) {
+         if (latencyMs <= LATENCY_BUCKET_BOUNDS_MS[i])
+            return i;
+      }
+      return LATENCY_BUCKET_BOUNDS_MS.length;
+   }
+
+   private static class EndpointRecorder {
+      private final AtomicLong requestCount = new AtomicLong();
+      private final AtomicLong requestBytes = new AtomicLong();
+      private final AtomicLong responseBytes = new AtomicLong();
+      private final AtomicLong totalLatencyMs = new AtomicLong();
+      private final AtomicLongArray statusClassCounts = new AtomicLongArray(STATUS_CLASS_COUNT);
+      private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKET_BOUNDS_MS.length + 1);
+
+      void record(int statusCode, long latencyMs, long requestBytes, long responseBytes) {
+         requestCount.incrementAndGet();
+         this.requestBytes.addAndGet(requestBytes);
+         this.responseBytes.addAndGet(responseBytes);
+         totalLatencyMs.addAndGet(latencyMs);
+         statusClassCounts.incrementAndGet(getStatusClass(statusCode));
+         latencyBuckets.incrementAndGet(getLatencyBucket(latencyMs));
+      }
+
+      OSHttpEndpointMetrics snapshot(String endpointTemplate) {
+         long[] statusClasses = new long[STATUS_CLASS_COUNT];
+         for (int i = 0; i < statusClasses.length; i++)
+            statusClasses[i] = statusClassCounts.get(i);
+
+         long[] buckets = new long[latencyBuckets.length()];
+         for (int i = 0; i < buckets.length; i++)
+            buckets[i] = latencyBuckets.get(i);
+
+         return new OSHttpEndpointMetrics(
+            endpointTemplate,
+            requestCount.get(),
+            requestBytes.get(),
+            responseBytes.get(),
+            totalLatencyMs.get(),
+            statusClasses,
+            buckets
+         );
+      }
+   }
+}
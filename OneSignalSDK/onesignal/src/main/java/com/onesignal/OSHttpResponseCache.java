@@ -0,0 +1,355 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache for ETag responses of {@link OneSignalRestClient} GET requests.
+ * Each cache key is stored as its own file under the app's cache directory, holding the ETag followed
+ *    by the raw response body. This keeps large payloads, such as the in-app message list, out of
+ *    SharedPreferences so they are not loaded into memory with every other pref.
+ * Total size is capped, least recently used entries are evicted first.
+ * Recency is kept in memory and mirrored to each file's last modified time so it survives restarts.
+ */
+class OSHttpResponseCache {
+
+   static final long DEFAULT_MAX_SIZE_BYTES = 1024 * 1024;
+
+   private static final String CACHE_DIR_NAME = "onesignal_http_cache";
+   private static final int READ_BUFFER_SIZE = 4096;
+   // Every key older SDK versions cached in SharedPreferences
+   private static final String[] PREFS_CACHE_KEYS = {
+      OneSignalRestClient.CACHE_KEY_GET_TAGS,
+      OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS,
+   };
+
+   private static class Entry {
+      private final File file;
+      private final long size;
+      // Read from the file the first time it is needed
+      private String eTag;
+
+      Entry(File file, long size, String eTag) {
+         this.file = file;
+         this.size = size;
+         this.eTag = eTag;
+      }
+   }
+
+   private long maxSizeBytes = DEFAULT_MAX_SIZE_BYTES;
+   private long totalSizeBytes;
+
+   // Bound to the directory it was loaded from, reloaded if that changes
+   private File directory;
+   // Access ordered, the first entry is the least recently used
+   private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+   synchronized void setMaxSizeBytes(long maxSizeBytes) {
+      if (maxSizeBytes < 1)
+         throw new IllegalArgumentException("OSHttpResponseCache max size must be positive");
+
+      this.maxSizeBytes = maxSizeBytes;
+      if (loadEntries())
+         trimToSize(null);
+   }
+
+   /**
+    * @return the ETag to send as if-none-match, null if there is no usable cached response for the key
+    */
+   synchronized @Nullable String getETag(@NonNull String cacheKey) {
+      if (!loadEntries())
+         return null;
+
+      String fileName = fileNameFor(cacheKey);
+      Entry entry = entries.get(fileName);
+      if (entry == null)
+         return null;
+
+      if (entry.eTag == null) {
+         DataInputStream inputStream = null;
+         try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(entry.file)));
+            entry.eTag = inputStream.readUTF();
+         } catch (IOException e) {
+            // Cleared by the system or partially written, either way the entry can't be used
+            OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSHttpResponseCache: Dropping unreadable entry for " + cacheKey + ": " + e.getMessage());
+            removeEntry(fileName);
+            return null;
+         } finally {
+            OSUtils.closeQuietly(inputStream);
+         }
+      }
+
+      return entry.eTag;
+   }
+
+   /**
+    * Opens the cached response body for the key, caller is responsible for closing the stream.
+    * Reads outside of the cache lock; a concurrent put replaces the file rather than rewriting it
+    *    so an open stream always sees a complete body.
+    */
+   @Nullable InputStream openBody(@NonNull String cacheKey) {
+      File file;
+      synchronized (this) {
+         if (!loadEntries())
+            return null;
+
+         Entry entry = entries.get(fileNameFor(cacheKey));
+         if (entry == null)
+            return null;
+
+         file = entry.file;
+         // Best effort, only used to restore the LRU order after a restart
+         file.setLastModified(System.currentTimeMillis());
+      }
+
+      DataInputStream inputStream = null;
+      try {
+         inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         // Skip over the ETag so the stream starts at the body
+         inputStream.readUTF();
+         return inputStream;
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSHttpResponseCache: Failed to open cached response for " + cacheKey + ": " + e.getMessage());
+         OSUtils.closeQuietly(inputStream);
+         return null;
+      }
+   }
+
+   @Nullable String getBody(@NonNull String cacheKey) {
+      InputStream inputStream = openBody(cacheKey);
+      if (inputStream == null)
+         return null;
+
+      try {
+         Reader reader = new InputStreamReader(inputStream, "UTF-8");
+         StringBuilder body = new StringBuilder();
+         char[] buffer = new char[READ_BUFFER_SIZE];
+         int read;
+         while ((read = reader.read(buffer)) != -1)
+            body.append(buffer, 0, read);
+         return body.toString();
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSHttpResponseCache: Failed to read cached response for " + cacheKey + ": " + e.getMessage());
+         return null;
+      } finally {
+         OSUtils.closeQuietly(inputStream);
+      }
+   }
+
+   synchronized void put(@NonNull String cacheKey, @NonNull String eTag, @NonNull String body) {
+      if (!loadEntries())
+         return;
+
+      String fileName = fileNameFor(cacheKey);
+      File file = new File(directory, fileName);
+      try {
+         byte[] bodyBytes = body.getBytes("UTF-8");
+         if (bodyBytes.length > maxSizeBytes) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSHttpResponseCache: Response for " + cacheKey + " is larger than the cache, not caching it");
+            removeEntry(fileName);
+            return;
+         }
+
+         ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(bodyBytes.length + eTag.length() + 2);
+         DataOutputStream output = new DataOutputStream(entryBytes);
+         output.writeUTF(eTag);
+         output.write(bodyBytes);
+
+         // Renamed over the old file so readers never see a partial write, not synced since a lost entry is refetched
+         OSUtils.writeFileAtomically(file, entryBytes.toByteArray(), false);
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSHttpResponseCache: Failed to cache response for " + cacheKey, e);
+         removeEntry(fileName);
+         return;
+      }
+
+      Entry previous = entries.remove(fileName);
+      if (previous != null)
+         totalSizeBytes -= previous.size;
+
+      Entry entry = new Entry(file, file.length(), eTag);
+      entries.put(fileName, entry);
+      totalSizeBytes += entry.size;
+
+      trimToSize(fileName);
+   }
+
+   synchronized void remove(@NonNull String cacheKey) {
+      if (loadEntries())
+         removeEntry(fileNameFor(cacheKey));
+   }
+
+   /**
+    * Drops the in-memory entries, the next use loads them from disk again as on a fresh start.
+    */
+   synchronized void close() {
+      directory = null;
+      entries.clear();
+      totalSizeBytes = 0;
+   }
+
+   /**
+    * Loads the existing entries from disk the first time the cache is used,
+    *    along with any responses still cached in SharedPreferences.
+    * @return false if there is no directory to cache into yet
+    */
+   private boolean loadEntries() {
+      if (OneSignal.appContext == null)
+         return false;
+
+      File cacheDirectory = new File(OneSignal.appContext.getCacheDir(), CACHE_DIR_NAME);
+      if (cacheDirectory.equals(directory))
+         return true;
+
+      if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSHttpResponseCache: Could not create cache directory " + cacheDirectory);
+         return false;
+      }
+
+      directory = cacheDirectory;
+      entries.clear();
+      totalSizeBytes = 0;
+
+      File[] files = directory.listFiles();
+      List<File> sortedFiles = files != null ? new ArrayList<>(Arrays.asList(files)) : new ArrayList<File>();
+      // Oldest first so the access ordered map ends up in LRU order
+      Collections.sort(sortedFiles, new Comparator<File>() {
+         @Override
+         public int compare(File lhs, File rhs) {
+            long lhsTime = lhs.lastModified(), rhsTime = rhs.lastModified();
+            return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+         }
+      });
+
+      for (File file : sortedFiles) {
+         // Left over from a put interrupted by the process being killed
+         if (file.getName().endsWith(OSUtils.TEMP_FILE_SUFFIX)) {
+            file.delete();
+            continue;
+         }
+
+         Entry entry = new Entry(file, file.length(), null);
+         entries.put(file.getName(), entry);
+         totalSizeBytes += entry.size;
+      }
+
+      trimToSize(null);
+
+      for (String cacheKey : PREFS_CACHE_KEYS)
+         migrateFromPrefs(cacheKey);
+      return true;
+   }
+
+   /**
+    * Evicts least recently used entries until the cache fits in maxSizeBytes
+    * @param keepFileName entry that was just written and must not be evicted
+    */
+   private void trimToSize(@Nullable String keepFileName) {
+      Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+      while (totalSizeBytes > maxSizeBytes && iterator.hasNext()) {
+         Map.Entry<String, Entry> eldest = iterator.next();
+         if (eldest.getKey().equals(keepFileName))
+            continue;
+
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSHttpResponseCache: Evicting " + eldest.getKey() + " to stay under " + maxSizeBytes + " bytes");
+         iterator.remove();
+         totalSizeBytes -= eldest.getValue().size;
+         eldest.getValue().file.delete();
+      }
+   }
+
+   private void removeEntry(String fileName) {
+      Entry entry = entries.remove(fileName);
+      if (entry == null)
+         return;
+
+      totalSizeBytes -= entry.size;
+      entry.file.delete();
+   }
+
+   /**
+    * Moves a response cached by older SDK versions in SharedPreferences into this cache.
+    */
+   private void migrateFromPrefs(String cacheKey) {
+      String prefsETagKey = OneSignalPrefs.PREFS_OS_ETAG_PREFIX + cacheKey;
+      String prefsCacheKey = OneSignalPrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey;
+
+      String eTag = OneSignalPrefs.getString(OneSignalPrefs.PREFS_ONESIGNAL, prefsETagKey, null);
+      if (eTag == null)
+         return;
+
+      String body = OneSignalPrefs.getString(OneSignalPrefs.PREFS_ONESIGNAL, prefsCacheKey, null);
+      if (body != null && !entries.containsKey(fileNameFor(cacheKey))) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSHttpResponseCache: Migrating cached response for " + cacheKey + " out of SharedPreferences");
+         put(cacheKey, eTag, body);
+      }
+
+      // Saving null removes the key
+      OneSignalPrefs.saveString(OneSignalPrefs.PREFS_ONESIGNAL, prefsETagKey, null);
+      OneSignalPrefs.saveString(OneSignalPrefs.PREFS_ONESIGNAL, prefsCacheKey, null);
+   }
+
+   /**
+    * Cache keys can contain any character so they are hashed into a safe file name
+    */
+   private static String fileNameFor(String cacheKey) {
+      try {
+         MessageDigest digest = MessageDigest.getInstance("MD5");
+         byte[] hash = digest.digest(cacheKey.getBytes("UTF-8"));
+         return String.format("%032x", new BigInteger(1, hash));
+      } catch (NoSuchAlgorithmException | IOException e) {
+         // MD5 and UTF-8 are always available on Android, hashCode is only a fallback
+         return Integer.toHexString(cacheKey.hashCode());
+      }
+   }
+}
@@ -0,0 +1,122 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Sends the SDK's requests to the OneSignal API. Set your own with {@link OneSignal#setHttpTransport(OSHttpTransport)}
+ *    to send them through your app's HTTP client, such as to share its connection pool or certificate pinning.
+ * The SDK has already set every header it needs and encoded the body, a transport only needs to send
+ *    the request as is and hand back the response without decoding it.
+ * Calls are made from SDK background threads, one call per thread at a time.
+ */
+public interface OSHttpTransport {
+
+   /**
+    * Prepares a request, it is sent once {@link Call#execute()} is called
+    */
+   @NonNull Call newCall(@NonNull Request request) throws IOException;
+
+   interface Call {
+      /**
+       * Sends the request and waits for the response status and headers
+       * @throws IOException if no response was received, such as when the device is offline
+       */
+      @NonNull Response execute() throws IOException;
+
+      /**
+       * Called from another thread when the request has run past its timeout, execute() should
+       *    then return or throw as soon as possible
+       */
+      void cancel();
+   }
+
+   interface Response extends Closeable {
+      int getStatusCode();
+
+      @Nullable String getHeader(@NonNull String name);
+
+      /**
+       * @return the response body, or the error body for a failed request, null if there is none
+       */
+      @Nullable InputStream getBody() throws IOException;
+   }
+
+   final class Request {
+      private final String url;
+      private final String method;
+      private final Map<String, String> headers;
+      private final byte[] body;
+      private final int timeoutMs;
+
+      Request(@NonNull String url, @NonNull String method, @NonNull Map<String, String> headers, @Nullable byte[] body, int timeoutMs) {
+         this.url = url;
+         this.method = method;
+         this.headers = Collections.unmodifiableMap(headers);
+         this.body = body;
+         this.timeoutMs = timeoutMs;
+      }
+
+      public @NonNull String getUrl() {
+         return url;
+      }
+
+      /**
+       * @return GET, PUT or POST
+       */
+      public @NonNull String getMethod() {
+         return method;
+      }
+
+      public @NonNull Map<String, String> getHeaders() {
+         return headers;
+      }
+
+      /**
+       * @return the body to send as is, null for a GET
+       */
+      public @Nullable byte[] getBody() {
+         return body;
+      }
+
+      /**
+       * @return timeout to use for both connecting and reading
+       */
+      public int getTimeoutMs() {
+         return timeoutMs;
+      }
+   }
+}
@@ -0,0 +1,130 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Default {@link OSHttpTransport}, sends requests with the platform's HttpURLConnection
+ */
+class OSHttpURLConnectionTransport implements OSHttpTransport {
+
+   @Override
+   public @NonNull Call newCall(@NonNull Request request) throws IOException {
+      return new HttpURLConnectionCall(openConnection(request.getUrl()), request);
+   }
+
+   HttpURLConnection openConnection(String url) throws IOException {
+      return (HttpURLConnection) new URL(url).openConnection();
+   }
+
+   private static class HttpURLConnectionCall implements Call, Response {
+      private final HttpURLConnection con;
+      private final Request request;
+      private int statusCode;
+
+      HttpURLConnectionCall(HttpURLConnection con, Request request) {
+         this.con = con;
+         this.request = request;
+      }
+
+      @Override
+      public @NonNull Response execute() throws IOException {
+         try {
+            statusCode = send();
+         } catch (IOException | RuntimeException e) {
+            con.disconnect();
+            throw e;
+         }
+         return this;
+      }
+
+      private int send() throws IOException {
+         con.setUseCaches(false);
+         con.setConnectTimeout(request.getTimeoutMs());
+         con.setReadTimeout(request.getTimeoutMs());
+         for (Map.Entry<String, String> header : request.getHeaders().entrySet())
+            con.setRequestProperty(header.getKey(), header.getValue());
+
+         byte[] body = request.getBody();
+         if (body != null)
+            con.setDoInput(true);
+
+         if (!"GET".equals(request.getMethod())) {
+            con.setRequestMethod(request.getMethod());
+            con.setDoOutput(true);
+         }
+
+         if (body != null) {
+            con.setFixedLengthStreamingMode(body.length);
+            OutputStream outputStream = con.getOutputStream();
+            outputStream.write(body);
+         }
+
+         // Network request is made from getResponseCode()
+         return con.getResponseCode();
+      }
+
+      @Override
+      public void cancel() {
+         con.disconnect();
+      }
+
+      @Override
+      public int getStatusCode() {
+         return statusCode;
+      }
+
+      @Override
+      public @Nullable String getHeader(@NonNull String name) {
+         return con.getHeaderField(name);
+      }
+
+      @Override
+      public @Nullable InputStream getBody() throws IOException {
+         if (statusCode >= 200 && statusCode < 300)
+            return con.getInputStream();
+
+         InputStream errorStream = con.getErrorStream();
+         return errorStream != null ? errorStream : con.getInputStream();
+      }
+
+      @Override
+      public void close() {
+         con.disconnect();
+      }
+   }
+}
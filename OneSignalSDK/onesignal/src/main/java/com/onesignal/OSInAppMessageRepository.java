@@ -23,7 +23,14 @@ class OSInAppMessageRepository {
     private final OSLogger logger;
     private final OSSharedPreferences sharedPreferences;
 
-    private int htmlNetworkRequestAttemptCount = 0;
+    // HTML fetch retries go through OSRetryScheduler so they get its jitter, Retry-After and endpoint budget
+    private static final long HTML_MIN_RETRY_DELAY_MS = 1_000;
+    private static final long HTML_MAX_RETRY_DELAY_MS = 10_000;
+    private final OSRetryScheduler.Backoff htmlBackoff = new OSRetryScheduler.Backoff(
+            HTML_MIN_RETRY_DELAY_MS,
+            HTML_MAX_RETRY_DELAY_MS,
+            OSUtils.MAX_NETWORK_REQUEST_ATTEMPT_COUNT
+    );
 
     OSInAppMessageRepository(OneSignalDbHelper dbHelper, OSLogger logger, OSSharedPreferences sharedPreferences) {
         this.dbHelper = dbHelper;
@@ -44,6 +51,7 @@ class OSInAppMessageRepository {
                     put("first_click", true);
             }};
 
+            String journalKey = "iam_click:" + messageId + ":" + clickId + ":" + userId;
             OneSignalRestClient.post("in_app_messages/" + messageId + "/click", json, new OneSignalRestClient.ResponseHandler() {
                 @Override
                 void onSuccess(String response) {
@@ -57,7 +65,7 @@ class OSInAppMessageRepository {
                     printHttpErrorForInAppMessageRequest("engagement", statusCode, response);
                     requestResponse.onFailure(response);
                 }
-            });
+            }, journalKey);
         } catch (JSONException e) {
             e.printStackTrace();
             logger.error("Unable to execute in-app message action HTTP request due to invalid JSON");
@@ -75,6 +83,7 @@ class OSInAppMessageRepository {
                 put("page_id", pageId);
             }};
 
+            String journalKey = "iam_page_impression:" + messageId + ":" + pageId + ":" + userId;
             OneSignalRestClient.post("in_app_messages/" + messageId + "/pageImpression", json, new OneSignalRestClient.ResponseHandler() {
                 @Override
                 void onSuccess(String response) {
@@ -87,7 +96,7 @@ class OSInAppMessageRepository {
                     printHttpErrorForInAppMessageRequest("page impression", statusCode, response);
                     requestResponse.onFailure(response);
                 }
-            });
+            }, journalKey);
         } catch (JSONException e) {
             e.printStackTrace();
             logger.error("Unable to execute in-app message impression HTTP request due to invalid JSON");
@@ -105,6 +114,7 @@ class OSInAppMessageRepository {
                 put("first_impression", true);
             }};
 
+            String journalKey = "iam_impression:" + messageId + ":" + userId;
             OneSignalRestClient.post("in_app_messages/" + messageId + "/impression", json, new OneSignalRestClient.ResponseHandler() {
                 @Override
                 void onSuccess(String response) {
@@ -117,7 +127,7 @@ class OSInAppMessageRepository {
                     printHttpErrorForInAppMessageRequest("impression", statusCode, response);
                     requestResponse.onFailure(response);
                 }
-            });
+            }, journalKey);
         } catch (JSONException e) {
             e.printStackTrace();
             logger.error("Unable to execute in-app message impression HTTP request due to invalid JSON");
@@ -141,43 +151,49 @@ class OSInAppMessageRepository {
     }
 
     void getIAMData(String appId, String messageId, String variantId, final OSInAppMessageRequestResponse requestResponse) {
-        String htmlPath = htmlPathForMessage(messageId, variantId, appId);
+        final String htmlPath = htmlPathForMessage(messageId, variantId, appId);
         OneSignalRestClient.get(htmlPath, new OneSignalRestClient.ResponseHandler() {
             @Override
             void onFailure(int statusCode, String response, Throwable throwable) {
                 printHttpErrorForInAppMessageRequest("html", statusCode, response);
-                JSONObject jsonObject = new JSONObject();
-
-                if (!OSUtils.shouldRetryNetworkRequest(statusCode) || htmlNetworkRequestAttemptCount >= OSUtils.MAX_NETWORK_REQUEST_ATTEMPT_COUNT) {
-                    // Failure limit reached, reset
-                    htmlNetworkRequestAttemptCount = 0;
-                    try {
-                        jsonObject.put(IAM_DATA_RESPONSE_RETRY_KEY, false);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    // Failure limit not reached, increment by 1
-                    htmlNetworkRequestAttemptCount++;
-                    try {
-                        jsonObject.put(IAM_DATA_RESPONSE_RETRY_KEY, true);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
+
+                // The retry is only reported once it is due, the controller then queues the message to be fetched again
+                if (htmlPath != null && OSUtils.shouldRetryNetworkRequest(statusCode)) {
+                    boolean scheduled = OneSignalRestClient.getRetryScheduler().schedule(htmlPath, htmlBackoff, new Runnable() {
+                        @Override
+                        public void run() {
+                            requestResponse.onFailure(htmlFailureResponse(true));
+                        }
+                    });
+                    if (scheduled)
+                        return;
                 }
-                requestResponse.onFailure(jsonObject.toString());
+
+                // Failure limit reached, reset
+                htmlBackoff.reset();
+                requestResponse.onFailure(htmlFailureResponse(false));
             }
 
             @Override
             void onSuccess(String response) {
-                // Successful request, reset count
-                htmlNetworkRequestAttemptCount = 0;
+                // Successful request, reset attempts
+                htmlBackoff.reset();
 
                 requestResponse.onSuccess(response);
             }
         }, null);
     }
 
+    private static String htmlFailureResponse(boolean retry) {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            jsonObject.put(IAM_DATA_RESPONSE_RETRY_KEY, retry);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject.toString();
+    }
+
     @WorkerThread
     synchronized void saveInAppMessage(OSInAppMessageInternal inAppMessage) {
         ContentValues values = new ContentValues();
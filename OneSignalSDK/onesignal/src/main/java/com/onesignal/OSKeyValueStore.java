@@ -0,0 +1,64 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+
+/**
+ * Storage backend behind one OneSignalPrefs name.
+ * OneSignalPrefs keeps its own write buffer, a store only sees batches of changes once they are flushed
+ *    from WritePrefHandlerThread and reads for keys that aren't buffered.
+ * Values are the types SharedPreferences supports, String, Boolean, Integer, Long, Float and Set<String>.
+ */
+interface OSKeyValueStore {
+
+   interface Factory {
+      /**
+       * @return the store for prefsName, null if it can't be opened
+       */
+      @Nullable OSKeyValueStore open(@NonNull Context context, @NonNull String prefsName);
+   }
+
+   /**
+    * @return the value saved for key, null if there isn't one
+    */
+   @Nullable Object get(@NonNull String key);
+
+   boolean contains(@NonNull String key);
+
+   /**
+    * Saves every entry in changes, a null value removes the key
+    */
+   void write(@NonNull Map<String, Object> changes);
+}
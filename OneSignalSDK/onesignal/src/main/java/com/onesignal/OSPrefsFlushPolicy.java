@@ -0,0 +1,110 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+
+/**
+ * How soon a buffered OneSignalPrefs write has to reach disk, by the durability class of its key.
+ * Losing a critical key to the process being killed costs a resend or a miscount, such as the unsent active
+ *    time, so those flush straight away. Lazy keys are caches that are fine to rebuild. Every other key is normal.
+ * A flush writes everything buffered, so a lazy write goes out with the next flush of any class.
+ * The delay after the last flush for each class can be set in the AndroidManifest with:
+ *    <meta-data android:name="com.onesignal.PrefsCriticalFlushDelayMs" android:value="0" />
+ *    <meta-data android:name="com.onesignal.PrefsNormalFlushDelayMs" android:value="200" />
+ *    <meta-data android:name="com.onesignal.PrefsLazyFlushDelayMs" android:value="5000" />
+ */
+class OSPrefsFlushPolicy {
+
+   enum Durability {
+      CRITICAL("com.onesignal.PrefsCriticalFlushDelayMs", 0),
+      NORMAL("com.onesignal.PrefsNormalFlushDelayMs", 200),
+      LAZY("com.onesignal.PrefsLazyFlushDelayMs", 5_000);
+
+      final String metaDataName;
+      final long defaultFlushDelayMs;
+
+      Durability(String metaDataName, long defaultFlushDelayMs) {
+         this.metaDataName = metaDataName;
+         this.defaultFlushDelayMs = defaultFlushDelayMs;
+      }
+   }
+
+   private static final HashMap<String, Durability> KEY_DURABILITY = new HashMap<>();
+   static {
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_GT_UNSENT_ACTIVE_TIME, Durability.CRITICAL);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_OS_UNSENT_ATTRIBUTED_ACTIVE_TIME, Durability.CRITICAL);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_GT_PLAYER_ID, Durability.CRITICAL);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_OS_EMAIL_ID, Durability.CRITICAL);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_OS_SMS_ID, Durability.CRITICAL);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_PURCHASE_TOKENS, Durability.CRITICAL);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_EXISTING_PURCHASES, Durability.CRITICAL);
+
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_OS_CACHED_IAMS, Durability.LAZY);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_OS_TAGS_FETCH_TIME, Durability.LAZY);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_OS_TAGS_FETCH_PLAYER_ID, Durability.LAZY);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_OS_LAST_LOCATION_TIME, Durability.LAZY);
+      KEY_DURABILITY.put(OneSignalPrefs.PREFS_GT_DO_NOT_SHOW_MISSING_GPS, Durability.LAZY);
+   }
+
+   static @NonNull Durability durabilityOf(@Nullable String key) {
+      Durability durability = KEY_DURABILITY.get(key);
+      return durability != null ? durability : Durability.NORMAL;
+   }
+
+   private final long[] flushDelaysMs = new long[Durability.values().length];
+
+   OSPrefsFlushPolicy(@Nullable Context context) {
+      Bundle bundle = context != null ? OSUtils.getManifestMetaBundle(context) : null;
+      for (Durability durability : Durability.values())
+         flushDelaysMs[durability.ordinal()] = readFlushDelayMs(bundle, durability);
+   }
+
+   private static long readFlushDelayMs(@Nullable Bundle bundle, Durability durability) {
+      if (bundle == null || !bundle.containsKey(durability.metaDataName))
+         return durability.defaultFlushDelayMs;
+
+      int delayMs = bundle.getInt(durability.metaDataName, -1);
+      if (delayMs < 0) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSPrefsFlushPolicy: Ignoring invalid " + durability.metaDataName + ", it must be a whole number of milliseconds");
+         return durability.defaultFlushDelayMs;
+      }
+      return delayMs;
+   }
+
+   long getFlushDelayMs(@NonNull Durability durability) {
+      return flushDelaysMs[durability.ordinal()];
+   }
+}
@@ -0,0 +1,178 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes to one OneSignalPrefs name waiting for WritePrefHandlerThread to flush them to its OSKeyValueStore.
+ * Keys are spread over stripes each with their own lock, so writers to different keys don't contend and a
+ *    writer only ever holds a lock for a map put.
+ * Ints, longs and booleans are kept unboxed in their slot, which is reused when the same key is written
+ *    again before the next flush.
+ * A flush swaps each stripe's pending map for an empty one and writes the old ones without holding a lock.
+ *    Until flushed() is called those values are still answered by get() so a read can't miss them in between.
+ */
+class OSPrefsWriteBuffer {
+
+   // Returned by get() when the key has no buffered write, as null is a buffered removal
+   static final Object NOT_BUFFERED = new Object();
+
+   private static final int STRIPE_COUNT = 8;
+
+   private static final byte TYPE_OBJECT = 0;
+   private static final byte TYPE_INT = 1;
+   private static final byte TYPE_LONG = 2;
+   private static final byte TYPE_BOOLEAN = 3;
+
+   private static class Slot {
+      byte type;
+      long primitive;
+      @Nullable Object object;
+
+      @Nullable Object getValue() {
+         switch (type) {
+            case TYPE_INT:
+               return (int)primitive;
+            case TYPE_LONG:
+               return primitive;
+            case TYPE_BOOLEAN:
+               return primitive != 0;
+            default:
+               return object;
+         }
+      }
+   }
+
+   private static class Stripe {
+      // Guarded by the stripe
+      HashMap<String, Slot> pending = new HashMap<>();
+      // Swapped out by the flush in progress, only replaced while holding the stripe
+      HashMap<String, Slot> flushing = new HashMap<>();
+   }
+
+   private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+   OSPrefsWriteBuffer() {
+      for (int i = 0; i < STRIPE_COUNT; i++)
+         stripes[i] = new Stripe();
+   }
+
+   void putInt(@NonNull String key, int value) {
+      put(key, TYPE_INT, value, null);
+   }
+
+   void putLong(@NonNull String key, long value) {
+      put(key, TYPE_LONG, value, null);
+   }
+
+   void putBoolean(@NonNull String key, boolean value) {
+      put(key, TYPE_BOOLEAN, value ? 1 : 0, null);
+   }
+
+   /**
+    * @param value String, Set<String> or a boxed value, null to remove the key
+    */
+   void putObject(@NonNull String key, @Nullable Object value) {
+      put(key, TYPE_OBJECT, 0, value);
+   }
+
+   private void put(String key, byte type, long primitive, @Nullable Object object) {
+      Stripe stripe = stripeFor(key);
+      synchronized (stripe) {
+         Slot slot = stripe.pending.get(key);
+         if (slot == null) {
+            slot = new Slot();
+            stripe.pending.put(key, slot);
+         }
+         slot.type = type;
+         slot.primitive = primitive;
+         slot.object = object;
+      }
+   }
+
+   /**
+    * @return the buffered value for key, null if its removal is buffered, NOT_BUFFERED if neither
+    */
+   @Nullable Object get(@NonNull String key) {
+      Stripe stripe = stripeFor(key);
+      synchronized (stripe) {
+         Slot slot = stripe.pending.get(key);
+         if (slot == null)
+            slot = stripe.flushing.get(key);
+         return slot != null ? slot.getValue() : NOT_BUFFERED;
+      }
+   }
+
+   /**
+    * Takes every pending write to hand to the store, call flushed() once they are written
+    * @return written values keyed by key, null values are removals
+    */
+   @NonNull Map<String, Object> swapForFlush() {
+      HashMap<String, Object> changes = new HashMap<>();
+      for (Stripe stripe : stripes) {
+         HashMap<String, Slot> swapped;
+         synchronized (stripe) {
+            if (stripe.pending.isEmpty())
+               continue;
+            swapped = stripe.pending;
+            stripe.pending = new HashMap<>();
+            stripe.flushing = swapped;
+         }
+
+         // Nothing writes to a swapped map, safe to read without the lock
+         for (Map.Entry<String, Slot> entry : swapped.entrySet())
+            changes.put(entry.getKey(), entry.getValue().getValue());
+      }
+      return changes;
+   }
+
+   /**
+    * The values from the last swapForFlush() are in the store, reads can go to it for them now
+    */
+   void flushed() {
+      for (Stripe stripe : stripes) {
+         synchronized (stripe) {
+            if (!stripe.flushing.isEmpty())
+               stripe.flushing = new HashMap<>();
+         }
+      }
+   }
+
+   private Stripe stripeFor(String key) {
+      // Spread the hash bits so keys sharing a prefix don't all land on one stripe
+      int hash = key.hashCode();
+      hash ^= (hash >>> 16);
+      return stripes[hash & (STRIPE_COUNT - 1)];
+   }
+}
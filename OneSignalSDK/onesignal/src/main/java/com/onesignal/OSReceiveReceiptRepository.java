@@ -49,7 +49,8 @@ class OSReceiveReceiptRepository {
                 jsonBody.put(DEVICE_TYPE, deviceType);
             }
 
-            OneSignalRestClient.put("notifications/" + notificationId + "/report_received", jsonBody, responseHandler);
+            String journalKey = "receive_receipt:" + notificationId + ":" + playerId;
+            OneSignalRestClient.put("notifications/" + notificationId + "/report_received", jsonBody, responseHandler, journalKey);
         } catch (JSONException e) {
             OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Generating direct receive receipt:JSON Failed.", e);
         }
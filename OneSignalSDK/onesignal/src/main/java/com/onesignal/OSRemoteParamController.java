@@ -40,6 +40,7 @@ class OSRemoteParamController {
         );
 
         saveReceiveReceiptEnabled(remoteParams.receiveReceiptEnabled);
+        OneSignalRestClient.getCompression().setRequestCompressionEndpoints(remoteParams.gzipRequestEndpoints);
 
         logger.debug("OneSignal saveInfluenceParams: " + remoteParams.influenceParams.toString());
         trackerFactory.saveInfluenceParams(remoteParams.influenceParams);
@@ -0,0 +1,266 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.onesignal.OneSignalRestClient.ResponseHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges identical GET requests made by {@link OneSignalRestClient} so only one reaches the network.
+ * Requests are identical if they have the same url and cache key.
+ * - A GET made while an identical one is in flight waits for it and gets the same response
+ * - A successful response is also reused for identical GETs made within the memoize window,
+ *     this absorbs bursts such as getTags being called from several places on start up
+ * Any PUT or POST clears the memoized responses as it may change what a GET would return,
+ *    and a GET that was still in flight at any point during a PUT or POST is not memoized.
+ * StreamingResponseHandlers are never merged since they need the response stream to themselves.
+ */
+class OSRequestCoalescer {
+
+   static final long DEFAULT_MEMOIZE_WINDOW_MS = 1_000;
+
+   private final OSHttpDispatcher dispatcher;
+   private final HashMap<String, InFlightRequest> inFlightRequests = new HashMap<>();
+   private final HashMap<String, Response> recentResponses = new HashMap<>();
+   private long memoizeWindowMs = DEFAULT_MEMOIZE_WINDOW_MS;
+   private int writesInFlight;
+   // Changes on every write start and finish, a GET seeing a different value when it completes overlapped one
+   private long writeGeneration;
+
+   OSRequestCoalescer(@NonNull OSHttpDispatcher dispatcher) {
+      this.dispatcher = dispatcher;
+   }
+
+   /**
+    * @param memoizeWindowMs how long a successful response is reused for, 0 turns memoizing off
+    */
+   synchronized void setMemoizeWindowMs(long memoizeWindowMs) {
+      this.memoizeWindowMs = memoizeWindowMs;
+      recentResponses.clear();
+   }
+
+   /**
+    * Called before a PUT or POST is made, must be paired with {@link #onWriteFinished()}
+    */
+   synchronized void onWriteStarted() {
+      writesInFlight++;
+      writeGeneration++;
+      recentResponses.clear();
+   }
+
+   synchronized void onWriteFinished() {
+      writesInFlight--;
+      writeGeneration++;
+      recentResponses.clear();
+   }
+
+   /**
+    * Forgets requests in flight, needed once the dispatcher has been shutdown since queued
+    *    requests are dropped and would never complete. Requests waiting on them are not notified.
+    */
+   synchronized void clearInFlightRequests() {
+      inFlightRequests.clear();
+   }
+
+   /**
+    * Joins a GET to an identical request in flight, or answers it with a recent response.
+    * If a sync request joins it waits here, up to waitTimeoutMs, and its handler is called on this thread.
+    * @return the handler to make the request with, null if the request was merged and
+    *    responseHandler will be called without making it
+    */
+   @Nullable ResponseHandler coalesce(@NonNull String url, @Nullable String cacheKey, @Nullable ResponseHandler responseHandler, boolean sync, long waitTimeoutMs) {
+      if (responseHandler instanceof OneSignalRestClient.StreamingResponseHandler)
+         return responseHandler;
+
+      String key = cacheKey == null ? url : url + "|" + cacheKey;
+      Response recentResponse = null;
+      InFlightRequest inFlightRequest;
+      synchronized (this) {
+         Response response = recentResponses.get(key);
+         if (response != null) {
+            if (OneSignal.getTime().getElapsedRealtime() - response.receivedAt < memoizeWindowMs)
+               recentResponse = response;
+            else
+               recentResponses.remove(key);
+         }
+
+         inFlightRequest = inFlightRequests.get(key);
+         if (recentResponse == null) {
+            if (inFlightRequest == null) {
+               inFlightRequest = new InFlightRequest(key, responseHandler, writeGeneration);
+               inFlightRequests.put(key, inFlightRequest);
+               return inFlightRequest;
+            }
+
+            if (!sync) {
+               inFlightRequest.asyncHandlers.add(responseHandler);
+               OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRequestCoalescer: Joined in flight request to: " + url);
+               return null;
+            }
+         }
+      }
+
+      if (recentResponse != null) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRequestCoalescer: Using recent response for: " + url);
+         deliver(recentResponse, responseHandler, sync);
+         return null;
+      }
+
+      // Sync request joining one in flight
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRequestCoalescer: Waiting on in flight request to: " + url);
+      Response response = inFlightRequest.await(waitTimeoutMs);
+      if (response == null) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRequestCoalescer: Timed out waiting on in flight request, making a new one to: " + url);
+         return responseHandler;
+      }
+
+      response.deliverTo(responseHandler);
+      return null;
+   }
+
+   private void complete(InFlightRequest request, Response response, boolean deliverToRequester) {
+      List<ResponseHandler> asyncHandlers;
+      synchronized (this) {
+         if (request.response != null)
+            return;
+
+         request.response = response;
+         if (inFlightRequests.get(request.key) == request)
+            inFlightRequests.remove(request.key);
+         // The response may be from before a write that overlapped it
+         boolean overlappedWrite = writesInFlight > 0 || request.writeGeneration != writeGeneration;
+         if (response.success && memoizeWindowMs > 0 && !overlappedWrite)
+            recentResponses.put(request.key, response);
+
+         // Nothing else can join once it is removed from inFlightRequests
+         asyncHandlers = request.asyncHandlers;
+      }
+      request.latch.countDown();
+
+      if (deliverToRequester)
+         response.deliverTo(request.responseHandler);
+      for (ResponseHandler handler : asyncHandlers)
+         deliver(response, handler, false);
+   }
+
+   private void deliver(final Response response, final ResponseHandler handler, boolean sync) {
+      if (handler == null)
+         return;
+
+      if (sync) {
+         response.deliverTo(handler);
+         return;
+      }
+
+      dispatcher.executeCallback(new Runnable() {
+         public void run() {
+            response.deliverTo(handler);
+         }
+      });
+   }
+
+   /**
+    * Handler the first of the identical requests is made with, fans the response out to the others
+    */
+   class InFlightRequest extends ResponseHandler {
+      private final String key;
+      private final ResponseHandler responseHandler;
+      private final long writeGeneration;
+      private final List<ResponseHandler> asyncHandlers = new ArrayList<>();
+      private final CountDownLatch latch = new CountDownLatch(1);
+      private Response response;
+
+      private InFlightRequest(String key, ResponseHandler responseHandler, long writeGeneration) {
+         this.key = key;
+         this.responseHandler = responseHandler;
+         this.writeGeneration = writeGeneration;
+      }
+
+      @Override
+      void onSuccess(String response) {
+         complete(this, new Response(true, 0, response, null), true);
+      }
+
+      @Override
+      void onFailure(int statusCode, String response, Throwable throwable) {
+         complete(this, new Response(false, statusCode, response, throwable), true);
+      }
+
+      /**
+       * Releases the requests waiting on this one if it was never made
+       */
+      void abort(@NonNull Throwable throwable) {
+         complete(this, new Response(false, -1, null, throwable), false);
+      }
+
+      private @Nullable Response await(long timeoutMs) {
+         try {
+            latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         synchronized (OSRequestCoalescer.this) {
+            return response;
+         }
+      }
+   }
+
+   private static class Response {
+      private final boolean success;
+      private final int statusCode;
+      private final String response;
+      private final Throwable throwable;
+      private final long receivedAt;
+
+      Response(boolean success, int statusCode, String response, Throwable throwable) {
+         this.success = success;
+         this.statusCode = statusCode;
+         this.response = response;
+         this.throwable = throwable;
+         this.receivedAt = OneSignal.getTime().getElapsedRealtime();
+      }
+
+      void deliverTo(@Nullable ResponseHandler handler) {
+         if (handler == null)
+            return;
+
+         if (success)
+            handler.onSuccess(response);
+         else
+            handler.onFailure(statusCode, response, throwable);
+      }
+   }
+}
@@ -0,0 +1,370 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.onesignal.OneSignalDbContract.OutboundRequestTable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SQLite backed journal of REST requests that failed because the device was offline.
+ * Only requests made with a journal key are journaled, the key marks the request as safe to replay
+ *    and dedupes it, a request whose key is already journaled is not added again.
+ * Requests are replayed oldest first in batches as soon as any request reaches the server again,
+ *    or from the next OSSyncService job.
+ */
+class OSRequestJournal {
+
+   enum ReplayResult {
+      SENT,
+      // No response from the server, stop draining and keep the request
+      OFFLINE,
+      // Server error worth retrying, the request is kept until MAX_REPLAY_ATTEMPTS
+      RETRY,
+      // Server refused the request, replaying it again will never work
+      REJECTED,
+   }
+
+   static final int MAX_JOURNAL_SIZE = 500;
+   static final int DRAIN_BATCH_SIZE = 10;
+   static final int MAX_REPLAY_ATTEMPTS = 5;
+   static final long MAX_REQUEST_AGE_MS = 7L * 24 * 60 * 60 * 1_000;
+
+   private static final String[] COLUMNS = {
+      OutboundRequestTable._ID,
+      OutboundRequestTable.COLUMN_NAME_URL,
+      OutboundRequestTable.COLUMN_NAME_METHOD,
+      OutboundRequestTable.COLUMN_NAME_JSON_BODY,
+      OutboundRequestTable.COLUMN_NAME_ATTEMPTS,
+   };
+
+   private final AtomicBoolean draining = new AtomicBoolean();
+   // null until the table was checked once this process
+   private volatile Boolean hasPendingRequests;
+
+   static class JournaledRequest {
+      final long id;
+      final String url;
+      final String method;
+      final JSONObject jsonBody;
+      final int attempts;
+
+      JournaledRequest(long id, String url, String method, JSONObject jsonBody, int attempts) {
+         this.id = id;
+         this.url = url;
+         this.method = method;
+         this.jsonBody = jsonBody;
+         this.attempts = attempts;
+      }
+   }
+
+   /**
+    * Wraps the caller's handler so an offline failure journals the request instead of reaching the caller.
+    * The caller is only told about real server responses, the journal owns delivery from then on.
+    */
+   OneSignalRestClient.ResponseHandler wrapHandler(final String url, final String method, final JSONObject jsonBody,
+                                                   final String journalKey, @Nullable final OneSignalRestClient.ResponseHandler handler) {
+      return new OneSignalRestClient.ResponseHandler() {
+         @Override
+         void onSuccess(String response) {
+            // Sent live, an older copy waiting in the journal must not be replayed as well
+            remove(journalKey);
+            if (handler != null)
+               handler.onSuccess(response);
+         }
+
+         @Override
+         void onFailure(int statusCode, String response, Throwable throwable) {
+            if (OneSignalRestClient.isOfflineError(throwable)) {
+               add(url, method, jsonBody, journalKey);
+               return;
+            }
+
+            if (handler != null)
+               handler.onFailure(statusCode, response, throwable);
+         }
+      };
+   }
+
+   @WorkerThread
+   synchronized void add(@NonNull String url, @NonNull String method, @Nullable JSONObject jsonBody, @NonNull String journalKey) {
+      OneSignalDbHelper dbHelper = getDbHelper();
+      if (dbHelper == null)
+         return;
+
+      if (contains(dbHelper, journalKey)) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRequestJournal: Request already journaled with key: " + journalKey);
+         return;
+      }
+
+      ContentValues values = new ContentValues();
+      values.put(OutboundRequestTable.COLUMN_NAME_URL, url);
+      values.put(OutboundRequestTable.COLUMN_NAME_METHOD, method);
+      values.put(OutboundRequestTable.COLUMN_NAME_JSON_BODY, jsonBody != null ? jsonBody.toString() : null);
+      values.put(OutboundRequestTable.COLUMN_NAME_DEDUPE_KEY, journalKey);
+      values.put(OutboundRequestTable.COLUMN_NAME_CREATED_TIME, OneSignal.getTime().getCurrentTimeMillis());
+      dbHelper.insert(OutboundRequestTable.TABLE_NAME, null, values);
+      hasPendingRequests = true;
+
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRequestJournal: Device offline, journaled " + method + " " + url);
+      trimToMaxSize(dbHelper);
+   }
+
+   @WorkerThread
+   synchronized void remove(@NonNull String journalKey) {
+      if (!hasPendingRequests())
+         return;
+
+      OneSignalDbHelper dbHelper = getDbHelper();
+      if (dbHelper == null)
+         return;
+
+      dbHelper.delete(OutboundRequestTable.TABLE_NAME, OutboundRequestTable.COLUMN_NAME_DEDUPE_KEY + " = ?", new String[] { journalKey });
+   }
+
+   @WorkerThread
+   boolean hasPendingRequests() {
+      Boolean pending = hasPendingRequests;
+      if (pending != null)
+         return pending;
+
+      OneSignalDbHelper dbHelper = getDbHelper();
+      if (dbHelper == null)
+         return false;
+
+      Cursor cursor = dbHelper.query(OutboundRequestTable.TABLE_NAME, new String[] { OutboundRequestTable._ID }, null, null, null, null, null, "1");
+      try {
+         pending = cursor.getCount() > 0;
+      } finally {
+         cursor.close();
+      }
+      hasPendingRequests = pending;
+      return pending;
+   }
+
+   /**
+    * Called whenever a request reaches the server, the network is back so start draining in the background.
+    * Each batch is its own runnable in the BACKGROUND lane, queued behind whatever is already waiting there,
+    *    so a long drain doesn't hold the lane from other BACKGROUND requests.
+    */
+   void onNetworkAvailable() {
+      if (Boolean.FALSE.equals(hasPendingRequests) || draining.get())
+         return;
+
+      OneSignalRestClient.getDispatcher().executeRequest(OSHttpDispatcher.Priority.BACKGROUND, new Runnable() {
+         @Override
+         public void run() {
+            if (replayNextBatch())
+               onNetworkAvailable();
+         }
+      });
+   }
+
+   /**
+    * Replays journaled requests in order on the calling thread until the journal is empty
+    *    or the device goes offline again.
+    */
+   @WorkerThread
+   void drain() {
+      while (replayNextBatch());
+   }
+
+   /**
+    * Replays the oldest batch of journaled requests on the calling thread
+    * @return true if the whole batch was replayed and more requests may be left
+    */
+   @WorkerThread
+   private boolean replayNextBatch() {
+      if (!hasPendingRequests() || !draining.compareAndSet(false, true))
+         return false;
+
+      try {
+         deleteExpired();
+
+         List<JournaledRequest> batch = loadBatch();
+         if (batch.isEmpty())
+            return false;
+
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRequestJournal: Replaying batch of " + batch.size() + " journaled requests");
+         for (JournaledRequest request : batch) {
+            ReplayResult result = OneSignalRestClient.replaySync(request.url, request.method, request.jsonBody);
+            switch (result) {
+               case SENT:
+               case REJECTED:
+                  delete(request.id);
+                  break;
+               case RETRY:
+                  onReplayFailed(request);
+                  return false;
+               case OFFLINE:
+                  return false;
+            }
+         }
+         return true;
+      } finally {
+         draining.set(false);
+      }
+   }
+
+   /**
+    * Loads the oldest journaled requests, once none are left the pending flag is cleared under the same lock
+    *    add() sets it under so a request journaled concurrently is never left behind.
+    */
+   private synchronized List<JournaledRequest> loadBatch() {
+      List<JournaledRequest> batch = new ArrayList<>();
+      OneSignalDbHelper dbHelper = getDbHelper();
+      if (dbHelper == null) {
+         hasPendingRequests = false;
+         return batch;
+      }
+
+      Cursor cursor = dbHelper.query(
+         OutboundRequestTable.TABLE_NAME,
+         COLUMNS,
+         null,
+         null,
+         null,
+         null,
+         OutboundRequestTable._ID + " ASC",
+         String.valueOf(DRAIN_BATCH_SIZE)
+      );
+
+      try {
+         if (cursor.getCount() == 0)
+            hasPendingRequests = false;
+
+         while (cursor.moveToNext()) {
+            long id = cursor.getLong(cursor.getColumnIndex(OutboundRequestTable._ID));
+            String body = cursor.getString(cursor.getColumnIndex(OutboundRequestTable.COLUMN_NAME_JSON_BODY));
+            JSONObject jsonBody = null;
+            try {
+               if (body != null)
+                  jsonBody = new JSONObject(body);
+            } catch (JSONException e) {
+               OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OSRequestJournal: Dropping journaled request with invalid JSON body", e);
+               delete(id);
+               continue;
+            }
+
+            batch.add(new JournaledRequest(
+               id,
+               cursor.getString(cursor.getColumnIndex(OutboundRequestTable.COLUMN_NAME_URL)),
+               cursor.getString(cursor.getColumnIndex(OutboundRequestTable.COLUMN_NAME_METHOD)),
+               jsonBody,
+               cursor.getInt(cursor.getColumnIndex(OutboundRequestTable.COLUMN_NAME_ATTEMPTS))
+            ));
+         }
+      } finally {
+         cursor.close();
+      }
+
+      return batch;
+   }
+
+   private synchronized void onReplayFailed(JournaledRequest request) {
+      int attempts = request.attempts + 1;
+      if (attempts >= MAX_REPLAY_ATTEMPTS) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSRequestJournal: Giving up on journaled " + request.method + " " + request.url + " after " + attempts + " attempts");
+         delete(request.id);
+         return;
+      }
+
+      OneSignalDbHelper dbHelper = getDbHelper();
+      if (dbHelper == null)
+         return;
+
+      ContentValues values = new ContentValues();
+      values.put(OutboundRequestTable.COLUMN_NAME_ATTEMPTS, attempts);
+      dbHelper.update(OutboundRequestTable.TABLE_NAME, values, OutboundRequestTable._ID + " = ?", new String[] { String.valueOf(request.id) });
+   }
+
+   private synchronized void delete(long id) {
+      OneSignalDbHelper dbHelper = getDbHelper();
+      if (dbHelper == null)
+         return;
+
+      dbHelper.delete(OutboundRequestTable.TABLE_NAME, OutboundRequestTable._ID + " = ?", new String[] { String.valueOf(id) });
+   }
+
+   private synchronized void deleteExpired() {
+      OneSignalDbHelper dbHelper = getDbHelper();
+      if (dbHelper == null)
+         return;
+
+      long cutoff = OneSignal.getTime().getCurrentTimeMillis() - MAX_REQUEST_AGE_MS;
+      dbHelper.delete(OutboundRequestTable.TABLE_NAME, OutboundRequestTable.COLUMN_NAME_CREATED_TIME + " < ?", new String[] { String.valueOf(cutoff) });
+   }
+
+   // Drop the oldest requests if the device stayed offline long enough to fill the journal
+   private void trimToMaxSize(OneSignalDbHelper dbHelper) {
+      dbHelper.delete(
+         OutboundRequestTable.TABLE_NAME,
+         OutboundRequestTable._ID + " NOT IN (" +
+            "SELECT " + OutboundRequestTable._ID + " FROM " + OutboundRequestTable.TABLE_NAME +
+            " ORDER BY " + OutboundRequestTable._ID + " DESC LIMIT " + MAX_JOURNAL_SIZE + ")",
+         null
+      );
+   }
+
+   private static boolean contains(OneSignalDbHelper dbHelper, String journalKey) {
+      Cursor cursor = dbHelper.query(
+         OutboundRequestTable.TABLE_NAME,
+         new String[] { OutboundRequestTable._ID },
+         OutboundRequestTable.COLUMN_NAME_DEDUPE_KEY + " = ?",
+         new String[] { journalKey },
+         null,
+         null,
+         null,
+         "1"
+      );
+      try {
+         return cursor.getCount() > 0;
+      } finally {
+         cursor.close();
+      }
+   }
+
+   @Nullable
+   private static OneSignalDbHelper getDbHelper() {
+      if (OneSignal.appContext == null)
+         return null;
+      return OneSignal.getDBHelperInstance();
+   }
+}
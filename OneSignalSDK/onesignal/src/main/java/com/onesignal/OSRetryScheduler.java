@@ -0,0 +1,251 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when, and if, a failed request is retried. All SDK retries go through here so they share one policy:
+ * - Exponential backoff with decorrelated jitter, each delay is random between the base delay and
+ *     3x the previous delay, capped. Spreads devices out after a shared failure instead of retrying in lockstep.
+ * - A Retry-After sent with a 429 or 503 holds back every retry to that endpoint until it has passed.
+ * - Each endpoint has a retry budget, retries past it are pushed back until the budget refills,
+ *     so a server incident doesn't turn every device into a source of retry traffic.
+ * Callers keep a {@link Backoff} per operation and either schedule the retry on their own thread
+ *    with {@link #nextDelayMs} or let {@link #schedule} run it.
+ */
+class OSRetryScheduler {
+
+   // Budget per endpoint template, up to RETRY_BUDGET retries within RETRY_BUDGET_WINDOW_MS
+   static final int RETRY_BUDGET = 20;
+   static final long RETRY_BUDGET_WINDOW_MS = 10 * 60 * 1_000;
+
+   // Longest Retry-After honored, a bad header shouldn't stop retries for the rest of the session
+   private static final long MAX_RETRY_AFTER_MS = 60 * 60 * 1_000;
+
+   static final int[] NO_RETRY_STATUS_CODES = {401, 402, 403, 404, 410};
+
+   /**
+    * Retry state of one operation, reset it once the operation succeeds
+    */
+   static class Backoff {
+      static final int UNLIMITED_ATTEMPTS = Integer.MAX_VALUE;
+
+      private final long baseDelayMs;
+      private final long maxDelayMs;
+      private final int maxAttempts;
+      private int attempt;
+      private long lastDelayMs;
+
+      Backoff(long baseDelayMs, long maxDelayMs, int maxAttempts) {
+         this.baseDelayMs = baseDelayMs;
+         this.maxDelayMs = maxDelayMs;
+         this.maxAttempts = maxAttempts;
+      }
+
+      synchronized int getAttempt() {
+         return attempt;
+      }
+
+      synchronized boolean hasAttemptsLeft() {
+         return attempt < maxAttempts;
+      }
+
+      synchronized void reset() {
+         attempt = 0;
+         lastDelayMs = 0;
+      }
+
+      private synchronized long nextJitteredDelay(Random random) {
+         long upperBound = Math.max(baseDelayMs, lastDelayMs * 3);
+         long delay = baseDelayMs + (long) (random.nextDouble() * (upperBound - baseDelayMs));
+         lastDelayMs = Math.min(maxDelayMs, delay);
+         attempt++;
+         return lastDelayMs;
+      }
+   }
+
+   private static class EndpointState {
+      // Retries are not sent before this elapsed realtime, set from Retry-After
+      long retryNotBefore;
+      // Theoretical arrival time of the budget (GCRA), how far ahead of now it is shows how much budget is used
+      long budgetTat;
+   }
+
+   private final HashMap<String, EndpointState> endpointStates = new HashMap<>();
+   private final Random random = new Random();
+   private ScheduledThreadPoolExecutor executor;
+
+   static boolean isRetryable(int statusCode) {
+      for (int code : NO_RETRY_STATUS_CODES) {
+         if (statusCode == code)
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Reserves the next retry of an operation on an endpoint.
+    * @param url url, or endpoint template, the retry will be sent to
+    * @return delay in ms before retrying, -1 if the operation is out of attempts
+    */
+   long nextDelayMs(@NonNull String url, @NonNull Backoff backoff) {
+      if (!backoff.hasAttemptsLeft())
+         return -1;
+
+      long delayMs = backoff.nextJitteredDelay(random);
+      String endpointTemplate = OneSignalRestClient.getEndpointTemplate(url);
+      long now = OneSignal.getTime().getElapsedRealtime();
+      long retryAt = now + delayMs;
+
+      synchronized (endpointStates) {
+         EndpointState state = getEndpointState(endpointTemplate);
+         retryAt = Math.max(retryAt, state.retryNotBefore);
+
+         // GCRA, each retry uses up one interval of budget, the window allows RETRY_BUDGET of them to be
+         //    used up front, after that retries are spread out one per interval
+         long interval = RETRY_BUDGET_WINDOW_MS / RETRY_BUDGET;
+         long tat = Math.max(state.budgetTat, retryAt) + interval;
+         retryAt = Math.max(retryAt, tat - RETRY_BUDGET_WINDOW_MS);
+         state.budgetTat = tat;
+      }
+
+      long totalDelayMs = retryAt - now;
+      if (totalDelayMs > delayMs)
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRetryScheduler: Retry to " + endpointTemplate + " held back " + (totalDelayMs - delayMs) + "ms by Retry-After or retry budget");
+      return totalDelayMs;
+   }
+
+   /**
+    * Schedules the next retry of an operation on the scheduler's thread.
+    * @return false if the operation is out of attempts, the runnable will not be run
+    */
+   boolean schedule(@NonNull String url, @NonNull Backoff backoff, @NonNull Runnable retry) {
+      long delayMs = nextDelayMs(url, backoff);
+      if (delayMs < 0)
+         return false;
+
+      OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "OSRetryScheduler: Retrying request to " + OneSignalRestClient.getEndpointTemplate(url) + " in " + delayMs + "ms, attempt " + backoff.getAttempt());
+      try {
+         getExecutor().schedule(retry, delayMs, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSRetryScheduler: Executor is shutdown, dropping retry to " + url);
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Called with the Retry-After header of a 429 or 503 response
+    */
+   void onRetryAfter(@NonNull String endpointTemplate, @Nullable String retryAfter) {
+      long retryAfterMs = parseRetryAfterMs(retryAfter);
+      if (retryAfterMs <= 0)
+         return;
+
+      retryAfterMs = Math.min(retryAfterMs, MAX_RETRY_AFTER_MS);
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRetryScheduler: Server asked to retry " + endpointTemplate + " after " + retryAfterMs + "ms");
+      synchronized (endpointStates) {
+         EndpointState state = getEndpointState(endpointTemplate);
+         state.retryNotBefore = Math.max(state.retryNotBefore, OneSignal.getTime().getElapsedRealtime() + retryAfterMs);
+      }
+   }
+
+   static boolean isRetryAfterStatus(int statusCode) {
+      return statusCode == 429 || statusCode == HttpURLConnection.HTTP_UNAVAILABLE;
+   }
+
+   synchronized void shutdownNow() {
+      if (executor != null)
+         executor.shutdownNow();
+      executor = null;
+
+      synchronized (endpointStates) {
+         endpointStates.clear();
+      }
+   }
+
+   private EndpointState getEndpointState(String endpointTemplate) {
+      EndpointState state = endpointStates.get(endpointTemplate);
+      if (state == null) {
+         state = new EndpointState();
+         endpointStates.put(endpointTemplate, state);
+      }
+      return state;
+   }
+
+   private synchronized ScheduledThreadPoolExecutor getExecutor() {
+      if (executor == null) {
+         executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+               return new Thread(runnable, "OSH_RetryScheduler");
+            }
+         });
+      }
+      return executor;
+   }
+
+   /**
+    * Retry-After is either a number of seconds or an HTTP date
+    * @return ms to wait, 0 if missing or invalid
+    */
+   static long parseRetryAfterMs(@Nullable String retryAfter) {
+      if (retryAfter == null)
+         return 0;
+
+      retryAfter = retryAfter.trim();
+      try {
+         return Long.parseLong(retryAfter) * 1_000;
+      } catch (NumberFormatException ignored) {
+         // Not seconds, try a date
+      }
+
+      SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+      httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+      try {
+         return httpDateFormat.parse(retryAfter).getTime() - OneSignal.getTime().getCurrentTimeMillis();
+      } catch (ParseException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OSRetryScheduler: Ignoring invalid Retry-After: " + retryAfter);
+         return 0;
+      }
+   }
+}
@@ -0,0 +1,94 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * OSKeyValueStore on top of the SharedPreferences XML file with the same name, how OneSignalPrefs was stored
+ *    before OSAppendLogKeyValueStore.
+ * Values saved with one backend aren't visible to the other, apart from the one time migration
+ *    OSAppendLogKeyValueStore does from these files.
+ */
+class OSSharedPreferencesKeyValueStore implements OSKeyValueStore {
+
+   static final Factory FACTORY = new Factory() {
+      @Override
+      public @Nullable OSKeyValueStore open(@NonNull Context context, @NonNull String prefsName) {
+         return new OSSharedPreferencesKeyValueStore(context.getSharedPreferences(prefsName, Context.MODE_PRIVATE));
+      }
+   };
+
+   private final SharedPreferences prefs;
+
+   OSSharedPreferencesKeyValueStore(@NonNull SharedPreferences prefs) {
+      this.prefs = prefs;
+   }
+
+   @Override
+   public @Nullable Object get(@NonNull String key) {
+      return prefs.getAll().get(key);
+   }
+
+   @Override
+   public boolean contains(@NonNull String key) {
+      return prefs.contains(key);
+   }
+
+   @Override
+   public void write(@NonNull Map<String, Object> changes) {
+      SharedPreferences.Editor editor = prefs.edit();
+      for (Map.Entry<String, Object> change : changes.entrySet()) {
+         String key = change.getKey();
+         Object value = change.getValue();
+         if (value instanceof String)
+            editor.putString(key, (String)value);
+         else if (value instanceof Boolean)
+            editor.putBoolean(key, (Boolean)value);
+         else if (value instanceof Integer)
+            editor.putInt(key, (Integer)value);
+         else if (value instanceof Long)
+            editor.putLong(key, (Long)value);
+         else if (value instanceof Float)
+            editor.putFloat(key, (Float)value);
+         else if (value instanceof Set)
+            editor.putStringSet(key, (Set<String>)value);
+         else if (value == null)
+            editor.remove(key);
+      }
+      editor.apply();
+   }
+}
@@ -46,6 +46,7 @@ import java.util.concurrent.BlockingQueue;
    - Location update
    - Player update
       - IF there are any pending field updates - pushToken, tags, etc
+   - Replay of requests journaled while the device was offline
 */
 class OSSyncService extends OSBackgroundSync {
 
@@ -182,6 +183,9 @@ class OSSyncService extends OSBackgroundSync {
          // Once the queue calls take the code will continue and move on to the syncUserState
          OneSignalStateSynchronizer.syncUserState(true);
          OneSignal.getFocusTimeController().doBlockingBackgroundSyncOfUnsentTime();
+         OneSignalRestClient.getRequestJournal().drain();
+         // The process can be stopped as soon as the job finishes, write what the sync saved first
+         OneSignalPrefs.flushBarrier();
          stopSync();
       }
 
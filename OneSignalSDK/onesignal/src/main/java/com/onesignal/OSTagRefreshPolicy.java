@@ -0,0 +1,120 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides when getTags needs the server.
+ * The push user state already holds the last tags loaded from the server merged with pending local changes,
+ *    and the SDK makes every tag change itself, so once tags have been loaded for a player getTags answers from
+ *    that state. The server is only asked again in the background once the tags are older than the staleness
+ *    bound, which can be set in the AndroidManifest with:
+ *    <meta-data android:name="com.onesignal.TagsMaxStalenessSeconds" android:value="3600" />
+ * The first getTags for a player still waits on the server, as tags may have been set through the REST API.
+ */
+class OSTagRefreshPolicy {
+
+   static final String MAX_STALENESS_META_DATA_NAME = "com.onesignal.TagsMaxStalenessSeconds";
+   static final long DEFAULT_MAX_STALENESS_MS = 60 * 60 * 1_000;
+
+   private final long maxStalenessMs;
+   private final AtomicBoolean refreshing = new AtomicBoolean();
+
+   // Loaded from prefs on first use
+   private boolean loaded;
+   private String fetchedPlayerId;
+   private long fetchedAtMs;
+
+   OSTagRefreshPolicy(@Nullable Context context) {
+      maxStalenessMs = readMaxStalenessMs(context);
+   }
+
+   private static long readMaxStalenessMs(@Nullable Context context) {
+      if (context == null)
+         return DEFAULT_MAX_STALENESS_MS;
+
+      Bundle bundle = OSUtils.getManifestMetaBundle(context);
+      if (bundle == null || !bundle.containsKey(MAX_STALENESS_META_DATA_NAME))
+         return DEFAULT_MAX_STALENESS_MS;
+
+      int seconds = bundle.getInt(MAX_STALENESS_META_DATA_NAME, -1);
+      if (seconds < 0) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSTagRefreshPolicy: Ignoring invalid " + MAX_STALENESS_META_DATA_NAME + ", it must be a whole number of seconds");
+         return DEFAULT_MAX_STALENESS_MS;
+      }
+      return seconds * 1_000L;
+   }
+
+   private void loadIfNeeded() {
+      if (loaded)
+         return;
+
+      fetchedPlayerId = OneSignalPrefs.getString(OneSignalPrefs.PREFS_ONESIGNAL, OneSignalPrefs.PREFS_OS_TAGS_FETCH_PLAYER_ID, null);
+      fetchedAtMs = OneSignalPrefs.getLong(OneSignalPrefs.PREFS_ONESIGNAL, OneSignalPrefs.PREFS_OS_TAGS_FETCH_TIME, 0);
+      loaded = true;
+   }
+
+   // True once tags were loaded from the server for this player, so the local tags can answer getTags
+   synchronized boolean hasFetched(@Nullable String playerId) {
+      loadIfNeeded();
+      return playerId != null && playerId.equals(fetchedPlayerId);
+   }
+
+   synchronized boolean isStale(@Nullable String playerId) {
+      if (!hasFetched(playerId))
+         return true;
+
+      long ageMs = OneSignal.getTime().getCurrentTimeMillis() - fetchedAtMs;
+      // A clock moved back is treated as stale too
+      return ageMs < 0 || ageMs >= maxStalenessMs;
+   }
+
+   synchronized void onFetched(String playerId) {
+      loaded = true;
+      fetchedPlayerId = playerId;
+      fetchedAtMs = OneSignal.getTime().getCurrentTimeMillis();
+
+      OneSignalPrefs.saveString(OneSignalPrefs.PREFS_ONESIGNAL, OneSignalPrefs.PREFS_OS_TAGS_FETCH_PLAYER_ID, fetchedPlayerId);
+      OneSignalPrefs.saveLong(OneSignalPrefs.PREFS_ONESIGNAL, OneSignalPrefs.PREFS_OS_TAGS_FETCH_TIME, fetchedAtMs);
+   }
+
+   // Returns false if a background refresh is already running
+   boolean startRefresh() {
+      return refreshing.compareAndSet(false, true);
+   }
+
+   void finishRefresh() {
+      refreshing.set(false);
+   }
+}
@@ -0,0 +1,166 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import androidx.annotation.Nullable;
+
+import com.onesignal.OneSignal.ChangeTagsUpdateHandler;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds tag writes from sendTags and deleteTags until the next sync cycle so a burst of calls is sent as
+ *    one tags payload instead of one diff per call.
+ * Writes to the same key are last writer wins, a delete is kept as an empty value. On flush a delete is only
+ *    dropped when the key was set in this buffer since the last flush and the user state doesn't have it, so a
+ *    set followed by a delete before the sync sends nothing. Any other delete is sent, the tag may exist on the
+ *    server without the device having it, such as one set through the REST API.
+ * Every handler passed in since the last flush is called once with the result of the flushed payload.
+ */
+class OSTagWriteBuffer {
+
+   static class Flush {
+      final JSONObject tags;
+      final List<ChangeTagsUpdateHandler> handlers;
+      // Writes replaced by a later write to the same key, or cancelled out entirely
+      final int coalescedWrites;
+
+      Flush(JSONObject tags, List<ChangeTagsUpdateHandler> handlers, int coalescedWrites) {
+         this.tags = tags;
+         this.handlers = handlers;
+         this.coalescedWrites = coalescedWrites;
+      }
+   }
+
+   // Guarded by this
+   private final LinkedHashMap<String, String> pendingTags = new LinkedHashMap<>();
+   // Keys set to a value since the last flush, only a delete of one of these can cancel out
+   private final HashSet<String> setSinceFlush = new HashSet<>();
+   private final List<ChangeTagsUpdateHandler> pendingHandlers = new ArrayList<>();
+   private int pendingCoalescedWrites;
+   private long totalCoalescedWrites;
+
+   synchronized void put(JSONObject tags, @Nullable ChangeTagsUpdateHandler handler) {
+      Iterator<String> keys = tags.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         String value = tags.optString(key);
+         if (!"".equals(value))
+            setSinceFlush.add(key);
+         if (pendingTags.put(key, value) != null)
+            pendingCoalescedWrites++;
+      }
+
+      if (handler != null)
+         pendingHandlers.add(handler);
+   }
+
+   synchronized boolean isEmpty() {
+      return pendingTags.isEmpty() && pendingHandlers.isEmpty();
+   }
+
+   /**
+    * Returns the tags with the buffered writes applied on top, so reads see tags set since the last sync.
+    * The passed in object is not modified.
+    */
+   synchronized @Nullable JSONObject applyTo(@Nullable JSONObject tags) {
+      if (pendingTags.isEmpty())
+         return tags;
+
+      JSONObject result = new JSONObject();
+      try {
+         if (tags != null) {
+            Iterator<String> keys = tags.keys();
+            while (keys.hasNext()) {
+               String key = keys.next();
+               result.put(key, tags.opt(key));
+            }
+         }
+
+         for (Map.Entry<String, String> entry : pendingTags.entrySet()) {
+            if ("".equals(entry.getValue()))
+               result.remove(entry.getKey());
+            else
+               result.put(entry.getKey(), entry.getValue());
+         }
+      } catch (JSONException e) {
+         e.printStackTrace();
+      }
+
+      return result;
+   }
+
+   /**
+    * Empties the buffer, returning what should be sent.
+    * @param currentTags tags already in the user state, used to drop deletes of keys set and deleted since the last flush
+    * @return null if nothing was buffered
+    */
+   synchronized @Nullable Flush drain(@Nullable JSONObject currentTags) {
+      if (isEmpty())
+         return null;
+
+      JSONObject tags = new JSONObject();
+      int coalescedWrites = pendingCoalescedWrites;
+      for (Map.Entry<String, String> entry : pendingTags.entrySet()) {
+         String key = entry.getKey();
+         String value = entry.getValue();
+         boolean cancelsBufferedSet = setSinceFlush.contains(key) && (currentTags == null || !currentTags.has(key));
+         if ("".equals(value) && cancelsBufferedSet) {
+            coalescedWrites++;
+            continue;
+         }
+
+         try {
+            tags.put(key, value);
+         } catch (JSONException e) {
+            e.printStackTrace();
+         }
+      }
+
+      Flush flush = new Flush(tags, new ArrayList<>(pendingHandlers), coalescedWrites);
+      totalCoalescedWrites += coalescedWrites;
+      pendingTags.clear();
+      setSinceFlush.clear();
+      pendingHandlers.clear();
+      pendingCoalescedWrites = 0;
+      return flush;
+   }
+
+   // Total writes that never reached a request because of coalescing, since the app started
+   synchronized long getTotalCoalescedWrites() {
+      return totalCoalescedWrites;
+   }
+}
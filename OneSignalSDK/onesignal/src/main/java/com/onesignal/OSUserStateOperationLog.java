@@ -0,0 +1,180 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collection;
+
+/**
+ * Append only log of the changes made to one UserState, replacing a rewrite of both of its JSON blobs
+ *    into SharedPreferences on every persist.
+ * The file starts with a snapshot of both values, followed by one line per top level key set or removed
+ *    since then. Loading replays the lines over the snapshot, and once enough lines build up the file is
+ *    compacted back down to a single snapshot.
+ * Lines are JSON, encoded and decoded by {@link OSUserStateOperationLogFormat}:
+ *    {"snapshot":{"sync":{...},"depend":{...}}}
+ *    {"sync":"key","value":...}   set, or removed when there is no value
+ *    {"depend":"key","value":...}
+ * A line cut short by the process dying mid write stops the replay, everything before it is kept and the
+ *    log is compacted on the next persist.
+ */
+class OSUserStateOperationLog {
+
+   static final int MAX_OPERATIONS_BEFORE_COMPACT = 64;
+
+   static final String FILE_NAME_PREFIX = "onesignal_user_state_";
+
+   private final String persistKey;
+   // Lines after the snapshot, counts towards the next compaction. Written under this log's lock, read without
+   //    it by needsCompaction so UserState can check it under its own lock without waiting on a write
+   private volatile int operationCount;
+
+   OSUserStateOperationLog(@NonNull String persistKey) {
+      this.persistKey = persistKey;
+   }
+
+   /**
+    * @return the snapshot with every logged change applied, null if nothing was logged yet
+    */
+   synchronized @Nullable OSUserStateOperationLogFormat.Snapshot read() {
+      File file = getFile();
+      if (file == null)
+         return null;
+
+      BufferedReader reader = null;
+      try {
+         reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+         String line = reader.readLine();
+         OSUserStateOperationLogFormat.Snapshot snapshot = line == null ? null : OSUserStateOperationLogFormat.decodeSnapshot(line);
+         if (snapshot == null)
+            return null;
+
+         operationCount = 0;
+         while ((line = reader.readLine()) != null) {
+            if (!OSUserStateOperationLogFormat.applyOperation(snapshot, line)) {
+               // A torn line, the next append would land on it and make every later line unreadable,
+               //    compact on the next persist to drop it
+               operationCount = MAX_OPERATIONS_BEFORE_COMPACT;
+               break;
+            }
+            operationCount++;
+         }
+
+         return snapshot;
+      } catch (FileNotFoundException e) {
+         return null;
+      } catch (IOException | JSONException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSUserStateOperationLog: Failed to read " + file.getName(), e);
+         return null;
+      } finally {
+         OSUtils.closeQuietly(reader);
+      }
+   }
+
+   /**
+    * Appends the current value of each changed key, or its removal if the key is no longer set
+    * @return false if the log couldn't be written, the caller should keep the keys to log again later
+    */
+   synchronized boolean append(@NonNull ImmutableJSONObject syncValues, @NonNull Collection<String> syncKeys,
+                               @NonNull ImmutableJSONObject dependValues, @NonNull Collection<String> dependKeys) {
+      if (syncKeys.isEmpty() && dependKeys.isEmpty())
+         return true;
+
+      File file = getFile();
+      if (file == null || !file.exists())
+         return false;
+
+      String lines;
+      try {
+         lines = OSUserStateOperationLogFormat.encodeOperations(syncValues, syncKeys, dependValues, dependKeys);
+      } catch (JSONException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OSUserStateOperationLog: Failed to write operation", e);
+         return false;
+      }
+
+      FileOutputStream outputStream = null;
+      try {
+         outputStream = new FileOutputStream(file, true);
+         outputStream.write(lines.getBytes("UTF-8"));
+         outputStream.close();
+         outputStream = null;
+      } catch (IOException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSUserStateOperationLog: Failed to append to " + file.getName(), e);
+         OSUtils.closeQuietly(outputStream);
+         return false;
+      }
+
+      operationCount += syncKeys.size() + dependKeys.size();
+      return true;
+   }
+
+   boolean needsCompaction() {
+      return operationCount >= MAX_OPERATIONS_BEFORE_COMPACT;
+   }
+
+   /**
+    * Replaces the log with a snapshot of both values
+    */
+   synchronized boolean compact(@NonNull ImmutableJSONObject syncValues, @NonNull ImmutableJSONObject dependValues) {
+      File file = getFile();
+      if (file == null)
+         return false;
+
+      try {
+         String line = OSUserStateOperationLogFormat.encodeSnapshot(syncValues, dependValues);
+
+         // Renamed over the old log so a reader never sees a partial snapshot
+         OSUtils.writeFileAtomically(file, line.getBytes("UTF-8"), true);
+      } catch (IOException | JSONException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OSUserStateOperationLog: Failed to compact " + file.getName(), e);
+         return false;
+      }
+
+      operationCount = 0;
+      return true;
+   }
+
+   private @Nullable File getFile() {
+      if (OneSignal.appContext == null)
+         return null;
+      return new File(OneSignal.appContext.getFilesDir(), FILE_NAME_PREFIX + persistKey);
+   }
+}
@@ -0,0 +1,126 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+
+/**
+ * Encodes and decodes the lines of an {@link OSUserStateOperationLog}.
+ * Kept apart from the log's file handling so it only needs org.json, which lets the benchmark module
+ *    measure the exact format the SDK writes.
+ */
+class OSUserStateOperationLogFormat {
+
+   private static final String SNAPSHOT = "snapshot";
+   private static final String SYNC = "sync";
+   private static final String DEPEND = "depend";
+   private static final String VALUE = "value";
+
+   static class Snapshot {
+      final JSONObject syncValues;
+      final JSONObject dependValues;
+
+      Snapshot(JSONObject syncValues, JSONObject dependValues) {
+         this.syncValues = syncValues;
+         this.dependValues = dependValues;
+      }
+   }
+
+   /**
+    * @return a snapshot line of both values, including its trailing newline
+    */
+   static @NonNull String encodeSnapshot(@NonNull ImmutableJSONObject syncValues, @NonNull ImmutableJSONObject dependValues) throws JSONException {
+      JSONObject snapshot = new JSONObject()
+         .put(SYNC, syncValues.toJSONObject())
+         .put(DEPEND, dependValues.toJSONObject());
+      return new JSONObject().put(SNAPSHOT, snapshot) + "\n";
+   }
+
+   /**
+    * @return one line per changed key with its current value, or its removal if the key is no longer set
+    */
+   static @NonNull String encodeOperations(@NonNull ImmutableJSONObject syncValues, @NonNull Collection<String> syncKeys,
+                                           @NonNull ImmutableJSONObject dependValues, @NonNull Collection<String> dependKeys) throws JSONException {
+      StringBuilder lines = new StringBuilder();
+      for (String key : syncKeys)
+         lines.append(new JSONObject().put(SYNC, key).putOpt(VALUE, syncValues.opt(key))).append('\n');
+      for (String key : dependKeys)
+         lines.append(new JSONObject().put(DEPEND, key).putOpt(VALUE, dependValues.opt(key))).append('\n');
+      return lines.toString();
+   }
+
+   /**
+    * @return the values of a snapshot line, null if the line isn't a readable snapshot
+    */
+   static @Nullable Snapshot decodeSnapshot(@NonNull String line) throws JSONException {
+      JSONObject snapshot = parseLine(line);
+      if (snapshot == null || !snapshot.has(SNAPSHOT))
+         return null;
+
+      snapshot = snapshot.getJSONObject(SNAPSHOT);
+      return new Snapshot(snapshot.getJSONObject(SYNC), snapshot.getJSONObject(DEPEND));
+   }
+
+   /**
+    * Applies an operation line to the values of snapshot
+    * @return false if the line couldn't be parsed, such as one torn by the process dying mid write
+    */
+   static boolean applyOperation(@NonNull Snapshot snapshot, @NonNull String line) throws JSONException {
+      JSONObject operation = parseLine(line);
+      if (operation == null)
+         return false;
+
+      if (operation.has(SYNC))
+         apply(snapshot.syncValues, operation.getString(SYNC), operation.opt(VALUE));
+      else if (operation.has(DEPEND))
+         apply(snapshot.dependValues, operation.getString(DEPEND), operation.opt(VALUE));
+      return true;
+   }
+
+   private static @Nullable JSONObject parseLine(String line) {
+      try {
+         return new JSONObject(line);
+      } catch (JSONException e) {
+         return null;
+      }
+   }
+
+   private static void apply(JSONObject values, String key, @Nullable Object value) throws JSONException {
+      if (value == null)
+         values.remove(key);
+      else
+         values.put(key, value);
+   }
+}
@@ -57,6 +57,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -74,7 +78,9 @@ class OSUtils {
    public static final int UNINITIALIZABLE_STATUS = -999;
 
    public static int MAX_NETWORK_REQUEST_ATTEMPT_COUNT = 3;
-   static final int[] NO_RETRY_NETWROK_REQUEST_STATUS_CODES = {401, 402, 403, 404, 410};
+
+   // Suffix of the temp file writeFileAtomically writes to before renaming it over the real one
+   static final String TEMP_FILE_SUFFIX = ".tmp";
 
    public enum SchemaType {
       DATA("data"),
@@ -99,11 +105,7 @@ class OSUtils {
    }
 
    public static boolean shouldRetryNetworkRequest(int statusCode) {
-      for (int code : NO_RETRY_NETWROK_REQUEST_STATUS_CODES)
-         if (statusCode == code)
-            return false;
-
-      return true;
+      return OSRetryScheduler.isRetryable(statusCode);
    }
 
    int initializationChecker(Context context, String oneSignalAppId) {
@@ -639,6 +641,41 @@ class OSUtils {
       }
    }
 
+   /**
+    * Replaces file with bytes by writing a temp file and renaming it over file, a reader never sees a
+    *    partial write and a failed write leaves the old file as it was.
+    * @param sync fsync the temp file before the rename so the new content survives a power loss,
+    *    not needed for files that can be rebuilt
+    */
+   static void writeFileAtomically(@NonNull File file, @NonNull byte[] bytes, boolean sync) throws IOException {
+      File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+      FileOutputStream outputStream = null;
+      try {
+         outputStream = new FileOutputStream(tempFile);
+         outputStream.write(bytes);
+         if (sync)
+            outputStream.getFD().sync();
+         outputStream.close();
+         outputStream = null;
+
+         if (!tempFile.renameTo(file))
+            throw new IOException("Could not rename " + tempFile.getName());
+      } catch (IOException e) {
+         closeQuietly(outputStream);
+         tempFile.delete();
+         throw e;
+      }
+   }
+
+   static void closeQuietly(@Nullable Closeable closeable) {
+      if (closeable == null)
+         return;
+      try {
+         closeable.close();
+      } catch (IOException ignored) {
+      }
+   }
+
    static boolean shouldLogMissingAppIdError(@Nullable String appId) {
       if (appId != null)
          return false;
@@ -328,6 +328,24 @@ public class OneSignal {
       void onFailure(JSONObject response);
    }
 
+   /**
+    * Fires after every request the SDK makes to the OneSignal API, such as for an APM.
+    * <br/><br/>
+    * <b>Note:</b> this callback runs on the thread that made the request, keep it quick and do
+    * not make network calls from it.
+    */
+   public interface OSHttpMetricsListener {
+      /**
+       * @param endpoint the endpoint called with ids replaced by {id}, ex. players/{id}/on_session
+       * @param method GET, PUT or POST
+       * @param statusCode HTTP status code, -1 if the request failed without a response
+       * @param latencyMs time from opening the connection to the response being read
+       * @param requestBytes bytes of the request body sent, after compression
+       * @param responseBytes bytes of the response body received, before decompression
+       */
+      void onRequestCompleted(String endpoint, String method, int statusCode, long latencyMs, long requestBytes, long responseBytes);
+   }
+
    interface EntryStateListener {
       // Fire with the last appEntryState that just ended.
       void onEntryStateChange(AppEntryAction appEntryState);
@@ -450,13 +468,16 @@ public class OneSignal {
 
    @NonNull private static OSUtils osUtils = new OSUtils();
 
-   private static boolean registerForPushFired, locationFired, getTagsCall, waitingToPostStateSync, androidParamsRequestStarted;
+   private static boolean registerForPushFired, locationFired, waitingToPostStateSync, androidParamsRequestStarted;
 
    private static LocationController.LocationPoint lastLocationPoint;
 
    private static Collection<JSONArray> unprocessedOpenedNotifs = new ArrayList<>();
    private static HashSet<String> postedOpenedNotifIds = new HashSet<>();
    private static final ArrayList<OSGetTagsHandler> pendingGetTagsHandlers = new ArrayList<>();
+   // Created on first use from any of the getTags threads, guarded by TAG_REFRESH_POLICY_LOCK
+   private static volatile OSTagRefreshPolicy tagRefreshPolicy;
+   private static final Object TAG_REFRESH_POLICY_LOCK = new Object();
 
    private static DelayedConsentInitializationParameters delayedInitParams;
    static DelayedConsentInitializationParameters getDelayedInitParams() {
@@ -767,6 +788,38 @@ public class OneSignal {
       inAppMessageClickHandler = callback;
    }
 
+   /**
+    * Send the SDK's requests through your own HTTP client, such as to share its connection pool
+    *
+    * @param transport transport to use, null to go back to the default HttpURLConnection one
+    */
+   public static void setHttpTransport(@Nullable OSHttpTransport transport) {
+      OneSignalRestClient.setTransport(transport);
+   }
+
+   public static void setHttpMetricsListener(@Nullable OSHttpMetricsListener listener) {
+      OneSignalRestClient.getMetrics().setListener(listener);
+   }
+
+   /**
+    * Get metrics of the requests the SDK has made to the OneSignal API since the app started
+    *
+    * @return metrics keyed by endpoint, ids in the endpoint are replaced by {id}
+    */
+   public static Map<String, OSHttpEndpointMetrics> getHttpMetrics() {
+      return OneSignalRestClient.getMetrics().getSnapshot();
+   }
+
+   /**
+    * Get how long after initWithContext the SDK's first read of its saved preferences was answered,
+    *    which includes loading them from disk
+    *
+    * @return milliseconds, -1 if there hasn't been a read yet
+    */
+   public static long getPrefsTimeToFirstReadMs() {
+      return OneSignalPrefs.getTimeToFirstReadMs();
+   }
+
    /**
     * Called after setAppId and initWithContext, depending on which one is called last (order does not matter)
     */
@@ -853,6 +906,9 @@ public class OneSignal {
 
       // Do work here that should only happen once or at the start of a new lifecycle
       if (wasAppContextNull) {
+         // Load prefs off the calling thread, the reads below and in init wait only for the store they need
+         OneSignalPrefs.preload();
+
          // Set Language Context to null
          languageContext = new LanguageContext(preferences);
 
@@ -1320,6 +1376,8 @@ public class OneSignal {
                }
             });
          }
+         // Last session time can't wait for the normal prefs cadence, the app may be killed in the background
+         OneSignalPrefs.requestFlush();
          return;
       }
 
@@ -1336,18 +1394,23 @@ public class OneSignal {
       getFocusTimeController().appBackgrounded();
 
       scheduleSyncService();
+
+      // Unsent active time and anything else saved above has to survive the app being killed in the background
+      OneSignalPrefs.requestFlush();
    }
 
    // Schedules location update or a player update if there are any unsynced changes
    private static boolean scheduleSyncService() {
       boolean unsyncedChanges = OneSignalStateSynchronizer.persist();
       logger.debug("OneSignal scheduleSyncService unsyncedChanges: " + unsyncedChanges);
-      if (unsyncedChanges)
+      boolean journaledRequests = OneSignalRestClient.getRequestJournal().hasPendingRequests();
+      logger.debug("OneSignal scheduleSyncService journaledRequests: " + journaledRequests);
+      if (unsyncedChanges || journaledRequests)
          OSSyncService.getInstance().scheduleSyncTask(appContext);
 
       boolean locationScheduled = LocationController.scheduleUpdate(appContext);
       logger.debug("OneSignal scheduleSyncService locationScheduled: " + locationScheduled);
-      return locationScheduled || unsyncedChanges;
+      return locationScheduled || unsyncedChanges || journaledRequests;
    }
 
    static void onAppFocus() {
@@ -2057,20 +2120,33 @@ public class OneSignal {
          return;
       }
 
-      new Thread(new Runnable() {
-         @Override
-         public void run() {
-            synchronized (pendingGetTagsHandlers) {
-               pendingGetTagsHandlers.add(getTagsHandler);
-
-               // If there is an existing in-flight request, we should return
-               // since there's no point in making a duplicate runnable
-               if (pendingGetTagsHandlers.size() > 1) return;
+      // Once tags were loaded from the server for this user the local tags are answered from directly,
+      //    refreshing them in the background when they get too old
+      String userId = getUserId();
+      OSTagRefreshPolicy refreshPolicy = getTagRefreshPolicy();
+      if (refreshPolicy.hasFetched(userId)) {
+         final JSONObject tags = tagsForHandler(OneSignalStateSynchronizer.getTags(false));
+         // Still delivered off the calling thread, usually the main thread, as OSGetTagsHandler promises
+         OneSignalRestClient.getDispatcher().executeCallback(new Runnable() {
+            @Override
+            public void run() {
+               getTagsHandler.tagsAvailable(tags);
             }
+         });
+         if (refreshPolicy.isStale(userId))
+            refreshTagsInBackground();
+         return;
+      }
 
-            runGetTags();
-         }
-      }, "OS_GETTAGS").start();
+      synchronized (pendingGetTagsHandlers) {
+         pendingGetTagsHandlers.add(getTagsHandler);
+
+         // If there is an existing in-flight request, we should return
+         // since there's no point in making a duplicate runnable
+         if (pendingGetTagsHandlers.size() > 1) return;
+      }
+
+      runGetTags();
    }
 
    private static void runGetTags() {
@@ -2087,21 +2163,61 @@ public class OneSignal {
          if (pendingGetTagsHandlers.size() == 0) return;
       }
 
-      new Thread(new Runnable() {
+      // Runs in a network lane since it may make the GET on its thread, a handler is waiting on it
+      final OSHttpDispatcher dispatcher = OneSignalRestClient.getDispatcher();
+      dispatcher.executeRequest(OSHttpDispatcher.Priority.INTERACTIVE, new Runnable() {
          @Override
          public void run() {
-            final UserStateSynchronizer.GetTagsResult tags = OneSignalStateSynchronizer.getTags(!getTagsCall);
-            if (tags.serverSuccess) getTagsCall = true;
+            final JSONObject tags = tagsForHandler(OneSignalStateSynchronizer.getTags(!getTagRefreshPolicy().hasFetched(getUserId())));
 
+            final List<OSGetTagsHandler> handlers;
             synchronized (pendingGetTagsHandlers) {
-               for (OSGetTagsHandler handler : pendingGetTagsHandlers) {
-                  handler.tagsAvailable(tags.result == null || tags.toString().equals("{}") ? null : tags.result);
+               handlers = new ArrayList<>(pendingGetTagsHandlers);
+               pendingGetTagsHandlers.clear();
+            }
+
+            // Handlers run on the callback pool so a slow one can't hold the network slot
+            dispatcher.executeCallback(new Runnable() {
+               @Override
+               public void run() {
+                  for (OSGetTagsHandler handler : handlers) {
+                     handler.tagsAvailable(tags);
+                  }
                }
+            });
+         }
+      });
+   }
 
-               pendingGetTagsHandlers.clear();
+   private static void refreshTagsInBackground() {
+      final OSTagRefreshPolicy refreshPolicy = getTagRefreshPolicy();
+      if (!refreshPolicy.startRefresh())
+         return;
+
+      OneSignalRestClient.getDispatcher().executeRequest(OSHttpDispatcher.Priority.BACKGROUND, new Runnable() {
+         @Override
+         public void run() {
+            try {
+               OneSignalStateSynchronizer.getTags(true);
+            } finally {
+               refreshPolicy.finishRefresh();
             }
          }
-      }, "OS_GETTAGS_CALLBACK").start();
+      });
+   }
+
+   private static JSONObject tagsForHandler(UserStateSynchronizer.GetTagsResult tags) {
+      return tags.result == null || tags.toString().equals("{}") ? null : tags.result;
+   }
+
+   static OSTagRefreshPolicy getTagRefreshPolicy() {
+      if (tagRefreshPolicy == null) {
+         synchronized (TAG_REFRESH_POLICY_LOCK) {
+            if (tagRefreshPolicy == null)
+               tagRefreshPolicy = new OSTagRefreshPolicy(appContext);
+         }
+      }
+      return tagRefreshPolicy;
    }
 
    /**
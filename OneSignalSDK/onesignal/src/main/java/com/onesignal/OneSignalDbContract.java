@@ -68,4 +68,16 @@ class OneSignalDbContract {
       public static final String COLUMN_CLICK_IDS = "click_ids";
       public static final String COLUMN_DISPLAYED_IN_SESSION = "displayed_in_session";
    }
+
+   static abstract class OutboundRequestTable implements BaseColumns {
+      public static final String TABLE_NAME = "outbound_request";
+      public static final String COLUMN_NAME_URL = "url"; // Relative to OneSignalRestClient.BASE_URL
+      public static final String COLUMN_NAME_METHOD = "method";
+      public static final String COLUMN_NAME_JSON_BODY = "json_body";
+      public static final String COLUMN_NAME_DEDUPE_KEY = "dedupe_key";
+      public static final String COLUMN_NAME_CREATED_TIME = "created_time";
+      public static final String COLUMN_NAME_ATTEMPTS = "attempts";
+
+      public static final String INDEX_CREATE_DEDUPE_KEY = "CREATE UNIQUE INDEX outbound_request_dedupe_key_idx ON outbound_request(dedupe_key); ";
+   }
 }
@@ -43,6 +43,7 @@ import androidx.annotation.Nullable;
 
 import com.onesignal.OneSignalDbContract.InAppMessageTable;
 import com.onesignal.OneSignalDbContract.NotificationTable;
+import com.onesignal.OneSignalDbContract.OutboundRequestTable;
 import com.onesignal.outcomes.data.OSOutcomeTableProvider;
 
 import java.util.ArrayList;
@@ -55,7 +56,8 @@ import static com.onesignal.outcomes.data.OutcomesDbContract.SQL_CREATE_UNIQUE_O
 
 class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
 
-   static final int DATABASE_VERSION = 8;
+   static final int DATABASE_VERSION = 9;
+   // Guards sInstance and keeps a single writer, reads don't take it, see query
    private static final Object LOCK = new Object();
    private static final String DATABASE_NAME = "OneSignal.db";
 
@@ -96,6 +98,17 @@ class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
                    InAppMessageTable.COLUMN_CLICK_IDS + TEXT_TYPE +
                    ");";
 
+   private static final String SQL_CREATE_OUTBOUND_REQUEST_ENTRIES =
+           "CREATE TABLE " + OutboundRequestTable.TABLE_NAME + " (" +
+                   OutboundRequestTable._ID + INTEGER_PRIMARY_KEY_TYPE + COMMA_SEP +
+                   OutboundRequestTable.COLUMN_NAME_URL + TEXT_TYPE + COMMA_SEP +
+                   OutboundRequestTable.COLUMN_NAME_METHOD + TEXT_TYPE + COMMA_SEP +
+                   OutboundRequestTable.COLUMN_NAME_JSON_BODY + TEXT_TYPE + COMMA_SEP +
+                   OutboundRequestTable.COLUMN_NAME_DEDUPE_KEY + TEXT_TYPE + COMMA_SEP +
+                   OutboundRequestTable.COLUMN_NAME_CREATED_TIME + INT_TYPE + COMMA_SEP +
+                   OutboundRequestTable.COLUMN_NAME_ATTEMPTS + INT_TYPE + " DEFAULT 0" +
+                   ");";
+
    protected static final String[] SQL_INDEX_ENTRIES = {
       NotificationTable.INDEX_CREATE_NOTIFICATION_ID,
       NotificationTable.INDEX_CREATE_ANDROID_NOTIFICATION_ID,
@@ -123,6 +136,9 @@ class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
    OneSignalDbHelper(Context context) {
       super(context, DATABASE_NAME, null, getDbVersion());
 
+      // Write-ahead logging lets SQLiteDatabase hand reads their own connections from its pool,
+      //    so they run alongside the one connection writes go through instead of waiting behind them
+      setWriteAheadLoggingEnabled(true);
    }
 
    public static OneSignalDbHelper getInstance(Context context) {
@@ -145,18 +161,17 @@ class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
     * @see <a href="https://stackoverflow.com/questions/2493331/what-are-the-best-practices-for-sqlite-on-android/3689883#3689883">StackOverflow | What are best practices for SQLite on Android</a>
     */
    private SQLiteDatabase getSQLiteDatabase() {
-      synchronized (LOCK) {
-         try {
-            return getWritableDatabase();
-         } catch (SQLiteCantOpenDatabaseException | SQLiteDatabaseLockedException e) {
-            // SQLiteCantOpenDatabaseException
-            // Retry in-case of rare device issues with opening database.
-            // https://github.com/OneSignal/OneSignal-Android-SDK/issues/136
-            // SQLiteDatabaseLockedException
-            // Retry in-case of rare device issues with locked database.
-            // https://github.com/OneSignal/OneSignal-Android-SDK/issues/988
-            throw e;
-         }
+      // getWritableDatabase is synchronized on the helper, so this doesn't need LOCK to be safe for readers
+      try {
+         return getWritableDatabase();
+      } catch (SQLiteCantOpenDatabaseException | SQLiteDatabaseLockedException e) {
+         // SQLiteCantOpenDatabaseException
+         // Retry in-case of rare device issues with opening database.
+         // https://github.com/OneSignal/OneSignal-Android-SDK/issues/136
+         // SQLiteDatabaseLockedException
+         // Retry in-case of rare device issues with locked database.
+         // https://github.com/OneSignal/OneSignal-Android-SDK/issues/988
+         throw e;
       }
    }
 
@@ -167,36 +182,34 @@ class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
     * @see OneSignalDbHelper#getSQLiteDatabase()
     */
    private SQLiteDatabase getSQLiteDatabaseWithRetries() {
-      synchronized (LOCK) {
-         int count = 0;
-         while (true) {
-            try {
-               return getSQLiteDatabase();
-            } catch (SQLiteCantOpenDatabaseException | SQLiteDatabaseLockedException e) {
-               if (++count >= DB_OPEN_RETRY_MAX)
-                  throw e;
-               SystemClock.sleep(count * DB_OPEN_RETRY_BACKOFF);
-            }
+      int count = 0;
+      while (true) {
+         try {
+            return getSQLiteDatabase();
+         } catch (SQLiteCantOpenDatabaseException | SQLiteDatabaseLockedException e) {
+            if (++count >= DB_OPEN_RETRY_MAX)
+               throw e;
+            SystemClock.sleep(count * DB_OPEN_RETRY_BACKOFF);
          }
       }
    }
 
+   /**
+    * Reads don't take LOCK, with write-ahead logging they get a connection of their own and see the
+    *    database as of the last finished write, even while another write is in progress
+    */
    @Override
    public Cursor query(@NonNull String table, @Nullable String[] columns, @Nullable String selection,
                        String[] selectionArgs, @Nullable String groupBy, @Nullable String having,
                        @Nullable String orderBy) {
-      synchronized (LOCK) {
-         return getSQLiteDatabaseWithRetries().query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
-      }
+      return getSQLiteDatabaseWithRetries().query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
    }
 
    @Override
    public Cursor query(@NonNull String table, @Nullable String[] columns, @Nullable String selection,
                        @Nullable String[] selectionArgs, @Nullable String groupBy, @Nullable String having,
                        @Nullable String orderBy, @Nullable String limit) {
-      synchronized (LOCK) {
-         return getSQLiteDatabaseWithRetries().query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
-      }
+      return getSQLiteDatabaseWithRetries().query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
    }
 
    @Override
@@ -315,9 +328,11 @@ class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
       db.execSQL(SQL_CREATE_OUTCOME_ENTRIES_V3);
       db.execSQL(SQL_CREATE_UNIQUE_OUTCOME_ENTRIES_V2);
       db.execSQL(SQL_CREATE_IN_APP_MESSAGE_ENTRIES);
+      db.execSQL(SQL_CREATE_OUTBOUND_REQUEST_ENTRIES);
       for (String ind : SQL_INDEX_ENTRIES) {
          db.execSQL(ind);
       }
+      db.execSQL(OutboundRequestTable.INDEX_CREATE_DEDUPE_KEY);
    }
 
    @Override
@@ -354,6 +369,9 @@ class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
 
       if (oldVersion < 8)
          upgradeToV8(db);
+
+      if (oldVersion < 9)
+         upgradeToV9(db);
    }
 
    // Add collapse_id field and index
@@ -409,6 +427,11 @@ class OneSignalDbHelper extends SQLiteOpenHelper implements OneSignalDb {
       outcomeTableProvider.upgradeCacheOutcomeTableRevision1To2(db);
    }
 
+   private static void upgradeToV9(SQLiteDatabase db) {
+      safeExecSQL(db, SQL_CREATE_OUTBOUND_REQUEST_ENTRIES);
+      safeExecSQL(db, OutboundRequestTable.INDEX_CREATE_DEDUPE_KEY);
+   }
+
    private static void safeExecSQL(SQLiteDatabase db, String sql) {
       try {
          db.execSQL(sql);
@@ -29,14 +29,17 @@
 package com.onesignal;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.HandlerThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 class OneSignalPrefs {
 
@@ -65,6 +68,9 @@ class OneSignalPrefs {
     public static final String PREFS_OS_LAST_LOCATION_TIME = "OS_LAST_LOCATION_TIME";
     public static final String PREFS_GT_SOUND_ENABLED = "GT_SOUND_ENABLED";
     public static final String PREFS_OS_LAST_SESSION_TIME = "OS_LAST_SESSION_TIME";
+    // When tags were last loaded from the server, and for which player, see OSTagRefreshPolicy
+    public static final String PREFS_OS_TAGS_FETCH_TIME = "PREFS_OS_TAGS_FETCH_TIME";
+    public static final String PREFS_OS_TAGS_FETCH_PLAYER_ID = "PREFS_OS_TAGS_FETCH_PLAYER_ID";
     public static final String PREFS_GT_VIBRATE_ENABLED = "GT_VIBRATE_ENABLED";
     public static final String PREFS_OS_FILTER_OTHER_GCM_RECEIVERS = "OS_FILTER_OTHER_GCM_RECEIVERS";
     public static final String PREFS_GT_APP_ID = "GT_APP_ID";
@@ -83,6 +89,7 @@ class OneSignalPrefs {
     public static final String PREFS_ONESIGNAL_SYNCED_SUBSCRIPTION = "ONESIGNAL_SYNCED_SUBSCRIPTION";
     public static final String PREFS_GT_REGISTRATION_ID = "GT_REGISTRATION_ID";
     public static final String PREFS_ONESIGNAL_USER_PROVIDED_CONSENT = "ONESIGNAL_USER_PROVIDED_CONSENT";
+    // Legacy HTTP cache, responses are now kept in OSHttpResponseCache and these are only read to migrate
     public static final String PREFS_OS_ETAG_PREFIX = "PREFS_OS_ETAG_PREFIX_";
     public static final String PREFS_OS_HTTP_CACHE_PREFIX = "PREFS_OS_HTTP_CACHE_PREFIX_";
     // Remote params
@@ -118,8 +125,21 @@ class OneSignalPrefs {
     static final String PREFS_PURCHASE_TOKENS = "purchaseTokens";
     static final String PREFS_EXISTING_PURCHASES = "ExistingPurchases";
 
+    // Backend each prefs name is stored in, see OSKeyValueStore
+    static OSKeyValueStore.Factory storeFactory = OSAppendLogKeyValueStore.FACTORY;
+    // Store for each prefs name, opened once either by preload() or by the first reader to need it
+    static HashMap<String, FutureTask<OSKeyValueStore>> stores;
+
+    // Order preload() opens stores in, the one read during init first
+    private static final String[] PRELOAD_ORDER = { PREFS_ONESIGNAL, PREFS_TRIGGERS, PREFS_PLAYER_PURCHASES };
+    private static final String PRELOAD_THREAD_NAME = "OS_PREFS_PRELOAD";
+    // Elapsed realtime preload() started at, 0 if it hasn't
+    private static long preloadStartTime;
+    // Time from preload() starting to the first read answered from a store, -1 until then
+    private static long timeToFirstReadMs = -1;
+
     // Buffered writes to apply on WritePrefHandlerThread with a short delay
-    static HashMap<String, HashMap<String, Object>> prefsToApply;
+    static HashMap<String, OSPrefsWriteBuffer> prefsToApply;
     public static WritePrefHandlerThread prefsHandler;
 
     static {
@@ -129,8 +149,13 @@ class OneSignalPrefs {
     public static class WritePrefHandlerThread extends HandlerThread {
         private @Nullable Handler mHandler;
 
-        private static final int WRITE_CALL_DELAY_TO_BUFFER_MS = 200;
         private long lastSyncTime = 0L;
+        // When the posted flush will run, 0 if none is posted
+        private long scheduledFlushTime = 0L;
+        // Created once a Context is available to read the manifest
+        private @Nullable OSPrefsFlushPolicy flushPolicy;
+        // Flushes can come from this thread and from flushBarrier() callers
+        private final Object flushLock = new Object();
 
         WritePrefHandlerThread(String name) {
             super(name);
@@ -140,25 +165,30 @@ class OneSignalPrefs {
         protected void onLooperPrepared() {
             super.onLooperPrepared();
 
-            // Getting handler here as onLooperPrepared guarantees getLooper() will be non-null
-            mHandler = new Handler(getLooper());
+            synchronized (this) {
+                // Getting handler here as onLooperPrepared guarantees getLooper() will be non-null
+                mHandler = new Handler(getLooper());
 
-            // Kicks off our first flush, startDelayedWrite will schedule all flushes after that
-            scheduleFlushToDisk();
+                // Kicks off our first flush, startDelayedWrite will schedule all flushes after that
+                scheduleFlushToDisk(OSPrefsFlushPolicy.Durability.NORMAL);
+            }
         }
 
-        private synchronized void startDelayedWrite() {
+        private synchronized void startDelayedWrite(@NonNull OSPrefsFlushPolicy.Durability durability) {
             // A Context is required to write,
             //   if not available now later OneSignal.setContext will call this again.
             if (OneSignal.appContext == null)
                 return;
 
             startThread();
-            scheduleFlushToDisk();
+            scheduleFlushToDisk(durability);
         }
 
         private boolean threadStartCalled;
         private void startThread() {
+            if (flushPolicy == null)
+                flushPolicy = new OSPrefsFlushPolicy(OneSignal.appContext);
+
             if (threadStartCalled)
                 return;
 
@@ -166,99 +196,182 @@ class OneSignalPrefs {
             threadStartCalled = true;
         }
 
-        private synchronized void scheduleFlushToDisk() {
+        private synchronized void scheduleFlushToDisk(@NonNull OSPrefsFlushPolicy.Durability durability) {
             // Could be null if looper thread just started
-            if (mHandler == null)
+            if (mHandler == null || flushPolicy == null)
                 return;
 
-            mHandler.removeCallbacksAndMessages(null);
-
             if (lastSyncTime == 0)
                 lastSyncTime = OneSignal.getTime().getCurrentTimeMillis();
-            long delay = lastSyncTime - OneSignal.getTime().getCurrentTimeMillis() + WRITE_CALL_DELAY_TO_BUFFER_MS;
+            scheduleFlushAt(lastSyncTime + flushPolicy.getFlushDelayMs(durability));
+        }
+
+        private synchronized void requestImmediateFlush() {
+            if (OneSignal.appContext == null)
+                return;
+
+            startThread();
+            if (mHandler != null)
+                scheduleFlushAt(OneSignal.getTime().getCurrentTimeMillis());
+        }
+
+        private synchronized void scheduleFlushAt(long flushTime) {
+            // A flush already due sooner will write this too
+            if (scheduledFlushTime != 0 && scheduledFlushTime <= flushTime)
+                return;
+
+            mHandler.removeCallbacksAndMessages(null);
+            scheduledFlushTime = flushTime;
 
             Runnable runnable = new Runnable() {
                 @Override
                 public void run() {
+                    synchronized (WritePrefHandlerThread.this) {
+                        scheduledFlushTime = 0;
+                    }
                     flushBufferToDisk();
                 }
             };
-            mHandler.postDelayed(runnable, delay);
+            mHandler.postDelayed(runnable, flushTime - OneSignal.getTime().getCurrentTimeMillis());
         }
 
         private void flushBufferToDisk() {
-            for (String pref : prefsToApply.keySet()) {
-                SharedPreferences prefsToWrite = getSharedPrefsByName(pref);
-                SharedPreferences.Editor editor = prefsToWrite.edit();
-                HashMap<String, Object> prefHash = prefsToApply.get(pref);
-                synchronized (prefHash) {
-                    for (String key : prefHash.keySet()) {
-                        Object value = prefHash.get(key);
-                        if (value instanceof String)
-                            editor.putString(key, (String)value);
-                        else if (value instanceof Boolean)
-                            editor.putBoolean(key, (Boolean)value);
-                        else if (value instanceof Integer)
-                            editor.putInt(key, (Integer)value);
-                        else if (value instanceof Long)
-                            editor.putLong(key, (Long)value);
-                        else if (value instanceof Set)
-                            editor.putStringSet(key, (Set<String>)value);
-                        else if (value == null)
-                            editor.remove(key);
+            synchronized (flushLock) {
+                for (String pref : prefsToApply.keySet()) {
+                    OSKeyValueStore store = getStore(pref);
+                    if (store == null)
+                        continue;
+
+                    // Writers carry on into a fresh buffer while this one is written, no lock is held during I/O
+                    OSPrefsWriteBuffer buffer = prefsToApply.get(pref);
+                    Map<String, Object> changes = buffer.swapForFlush();
+                    if (changes.isEmpty())
+                        continue;
+
+                    try {
+                        store.write(changes);
+                    } finally {
+                        buffer.flushed();
                     }
-                    prefHash.clear();
                 }
-                editor.apply();
             }
 
-            lastSyncTime = OneSignal.getTime().getCurrentTimeMillis();
+            synchronized (this) {
+                lastSyncTime = OneSignal.getTime().getCurrentTimeMillis();
+            }
         }
     }
 
     public static void initializePool() {
         prefsToApply = new HashMap<>();
-        prefsToApply.put(PREFS_ONESIGNAL, new HashMap<String, Object>());
-        prefsToApply.put(PREFS_PLAYER_PURCHASES, new HashMap<String, Object>());
-        prefsToApply.put(PREFS_TRIGGERS, new HashMap<String, Object>());
+        prefsToApply.put(PREFS_ONESIGNAL, new OSPrefsWriteBuffer());
+        prefsToApply.put(PREFS_PLAYER_PURCHASES, new OSPrefsWriteBuffer());
+        prefsToApply.put(PREFS_TRIGGERS, new OSPrefsWriteBuffer());
+
+        stores = new HashMap<>();
+        preloadStartTime = 0;
+        timeToFirstReadMs = -1;
 
         prefsHandler = new WritePrefHandlerThread("OSH_WritePrefs");
     }
 
+    /**
+     * Opens every prefs store on a background thread so the reads made during init don't load them on
+     *    the calling thread. A read for a store that is still loading waits for only that store, and a read
+     *    for one the preload hasn't started yet opens it on the reader's thread.
+     */
+    static void preload() {
+        if (OneSignal.appContext == null)
+            return;
+
+        synchronized (OneSignalPrefs.class) {
+            if (preloadStartTime != 0)
+                return;
+            preloadStartTime = OneSignal.getTime().getElapsedRealtime();
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (String prefsName : PRELOAD_ORDER)
+                    getStore(prefsName);
+            }
+        }, PRELOAD_THREAD_NAME).start();
+    }
+
+    /**
+     * @return milliseconds from preload() starting to the first read answered from a store, -1 if there
+     *    hasn't been one yet
+     */
+    static synchronized long getTimeToFirstReadMs() {
+        return timeToFirstReadMs;
+    }
+
+    private static synchronized void onStoreRead() {
+        if (timeToFirstReadMs >= 0 || preloadStartTime == 0)
+            return;
+
+        timeToFirstReadMs = OneSignal.getTime().getElapsedRealtime() - preloadStartTime;
+        OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalPrefs: First read answered " + timeToFirstReadMs + "ms after preload started");
+    }
+
     public static void startDelayedWrite() {
-       prefsHandler.startDelayedWrite();
+       prefsHandler.startDelayedWrite(OSPrefsFlushPolicy.Durability.NORMAL);
+    }
+
+    private static void startDelayedWrite(String key) {
+        prefsHandler.startDelayedWrite(OSPrefsFlushPolicy.durabilityOf(key));
+    }
+
+    /**
+     * Asks for everything buffered to be written now instead of at the cadence of its durability class.
+     * Doesn't wait for the write, safe to call from the main thread.
+     */
+    static void requestFlush() {
+        prefsHandler.requestImmediateFlush();
+    }
+
+    /**
+     * Writes everything saved before this call to disk on the calling thread, for when the process
+     *    may be gone before the next scheduled flush
+     * @return false if there is no Context to write with yet
+     */
+    static boolean flushBarrier() {
+        if (OneSignal.appContext == null)
+            return false;
+
+        prefsHandler.flushBufferToDisk();
+        return true;
     }
 
     public static void saveString(final String prefsName, final String key, final String value) {
-        save(prefsName, key, value);
+        prefsToApply.get(prefsName).putObject(key, value);
+        startDelayedWrite(key);
     }
 
     public static void saveStringSet(@NonNull final String prefsName, @NonNull final String key, @NonNull final Set<String> value) {
-        save(prefsName, key, value);
+        prefsToApply.get(prefsName).putObject(key, value);
+        startDelayedWrite(key);
     }
 
     public static void saveBool(String prefsName, String key, boolean value) {
-        save(prefsName, key, value);
+        prefsToApply.get(prefsName).putBoolean(key, value);
+        startDelayedWrite(key);
     }
 
     public static void saveInt(String prefsName, String key, int value) {
-        save(prefsName, key, value);
+        prefsToApply.get(prefsName).putInt(key, value);
+        startDelayedWrite(key);
     }
 
     public static void saveLong(String prefsName, String key, long value) {
-        save(prefsName, key, value);
+        prefsToApply.get(prefsName).putLong(key, value);
+        startDelayedWrite(key);
     }
 
     public static void saveObject(String prefsName, String key, Object value) {
-        save(prefsName, key, value);
-    }
-
-    static private void save(String prefsName, String key, Object value) {
-        HashMap<String, Object> pref = prefsToApply.get(prefsName);
-        synchronized (pref) {
-            pref.put(key, value);
-        }
-        startDelayedWrite();
+        prefsToApply.get(prefsName).putObject(key, value);
+        startDelayedWrite(key);
     }
 
     static String getString(String prefsName, String key, String defValue) {
@@ -287,46 +400,81 @@ class OneSignalPrefs {
 
     // If type == Object then this is a contains check
     private static @Nullable Object get(String prefsName, String key, Class type, Object defValue) {
-        HashMap<String, Object> pref = prefsToApply.get(prefsName);
-
-        synchronized (pref) {
-            if (type.equals(Object.class) && pref.containsKey(key))
+        Object bufferedValue = prefsToApply.get(prefsName).get(key);
+        if (bufferedValue != OSPrefsWriteBuffer.NOT_BUFFERED) {
+            if (type.equals(Object.class))
                 return true;
-
-            Object cachedValue = pref.get(key);
-            if (cachedValue != null || pref.containsKey(key))
-                return cachedValue;
+            return bufferedValue;
         }
 
-        SharedPreferences prefs = getSharedPrefsByName(prefsName);
-        if (prefs != null) {
-            if (type.equals(String.class))
-               return prefs.getString(key, (String)defValue);
-            else if (type.equals(Boolean.class))
-                return prefs.getBoolean(key, (Boolean)defValue);
-            else if (type.equals(Integer.class))
-                return prefs.getInt(key, (Integer)defValue);
-            else if (type.equals(Long.class))
-                return prefs.getLong(key, (Long)defValue);
-            else if (type.equals(Set.class))
-                return prefs.getStringSet(key, (Set<String>)defValue);
-            else if (type.equals(Object.class))
-                return prefs.contains(key);
+        OSKeyValueStore store = getStore(prefsName);
+        if (store == null)
+            return defValue;
 
-            return null;
+        if (timeToFirstReadMs < 0)
+            onStoreRead();
+
+        if (type.equals(Object.class))
+            return store.contains(key);
+
+        Object value = store.get(key);
+        return value != null ? value : defValue;
+    }
+
+    static @Nullable OSKeyValueStore getStore(final String prefsName) {
+        FutureTask<OSKeyValueStore> task;
+        synchronized (OneSignalPrefs.class) {
+            task = stores.get(prefsName);
+            if (task == null) {
+                if (OneSignal.appContext == null) {
+                    String msg = "OneSignal.appContext null, could not read " + prefsName + " from the prefs store.";
+                    OneSignal.Log(OneSignal.LOG_LEVEL.WARN, msg, new Throwable());
+                    return null;
+                }
+
+                final Context context = OneSignal.appContext;
+                task = new FutureTask<>(new Callable<OSKeyValueStore>() {
+                    @Override
+                    public OSKeyValueStore call() {
+                        return storeFactory.open(context, prefsName);
+                    }
+                });
+                stores.put(prefsName, task);
+            }
         }
 
-        return defValue;
+        // No-op if the preload thread or another reader already opened it or is opening it
+        task.run();
+
+        OSKeyValueStore store = awaitStore(prefsName, task);
+        if (store == null) {
+            // Let the next read try to open it again
+            synchronized (OneSignalPrefs.class) {
+                if (stores.get(prefsName) == task)
+                    stores.remove(prefsName);
+            }
+        }
+        return store;
     }
 
-    static synchronized SharedPreferences getSharedPrefsByName(String prefsName) {
-        if (OneSignal.appContext == null) {
-            String msg = "OneSignal.appContext null, could not read " + prefsName + " from getSharedPreferences.";
-            OneSignal.Log(OneSignal.LOG_LEVEL.WARN, msg, new Throwable());
+    private static @Nullable OSKeyValueStore awaitStore(String prefsName, FutureTask<OSKeyValueStore> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // Keep waiting, a read can't be answered without the store
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OneSignalPrefs: Failed to open " + prefsName, e.getCause());
             return null;
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
-
-        return OneSignal.appContext.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
     }
 
 }
@@ -89,14 +89,13 @@ public class OneSignalRemoteParams {
       Boolean requiresUserPrivacyConsent;
       InfluenceParams influenceParams;
       FCMParams fcmParams;
+      JSONArray gzipRequestEndpoints;
    }
 
    interface Callback {
       void complete(Params params);
    }
 
-   private static int androidParamsRetries = 0;
-
    private static final String OUTCOME_PARAM = "outcomes";
    private static final String OUTCOMES_V2_SERVICE_PARAM = "v2_enabled";
    private static final String ENABLED_PARAM = "enabled";
@@ -110,20 +109,31 @@ public class OneSignalRemoteParams {
    private static final String DISABLE_GMS_MISSING_PROMPT = "disable_gms_missing_prompt";
    private static final String LOCATION_SHARED = "location_shared";
    private static final String REQUIRES_USER_PRIVACY_CONSENT = "requires_user_privacy_consent";
+   private static final String GZIP_REQUEST_ENDPOINTS = "gzip_request_endpoints";
 
    private static final String FCM_PARENT_PARAM = "fcm";
    private static final String FCM_PROJECT_ID = "project_id";
    private static final String FCM_APP_ID = "app_id";
    private static final String FCM_API_KEY = "api_key";
 
-   private static final int INCREASE_BETWEEN_RETRIES = 10_000;
    private static final int MIN_WAIT_BETWEEN_RETRIES = 30_000;
    private static final int MAX_WAIT_BETWEEN_RETRIES = 90_000;
 
+   private static final OSRetryScheduler.Backoff androidParamsBackoff = new OSRetryScheduler.Backoff(
+      MIN_WAIT_BETWEEN_RETRIES,
+      MAX_WAIT_BETWEEN_RETRIES,
+      OSRetryScheduler.Backoff.UNLIMITED_ATTEMPTS
+   );
+
    public static final int DEFAULT_INDIRECT_ATTRIBUTION_WINDOW = 24 * 60;
    public static final int DEFAULT_NOTIFICATION_LIMIT = 10;
 
    static void makeAndroidParamsRequest(final String appId, final String userId, final @NonNull Callback callback) {
+      String params_url = "apps/" + appId + "/android_params.js";
+      if (userId != null)
+         params_url += "?player_id=" + userId;
+      final String paramsUrl = params_url;
+
       OneSignalRestClient.ResponseHandler responseHandler = new OneSignalRestClient.ResponseHandler() {
          @Override
          void onFailure(int statusCode, String response, Throwable throwable) {
@@ -132,32 +142,23 @@ public class OneSignalRemoteParams {
                return;
             }
 
-            new Thread(new Runnable() {
+            OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "Failed to get Android parameters, trying again.");
+            OneSignalRestClient.getRetryScheduler().schedule(paramsUrl, androidParamsBackoff, new Runnable() {
                public void run() {
-                  int sleepTime = MIN_WAIT_BETWEEN_RETRIES + androidParamsRetries * INCREASE_BETWEEN_RETRIES;
-                  if (sleepTime > MAX_WAIT_BETWEEN_RETRIES)
-                     sleepTime = MAX_WAIT_BETWEEN_RETRIES;
-
-                  OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "Failed to get Android parameters, trying again in " + (sleepTime / 1_000) +  " seconds.");
-                  OSUtils.sleep(sleepTime);
-                  androidParamsRetries++;
                   makeAndroidParamsRequest(appId, userId, callback);
                }
-            }, "OS_PARAMS_REQUEST").start();
+            });
          }
 
          @Override
          void onSuccess(String response) {
+            androidParamsBackoff.reset();
             processJson(response, callback);
          }
       };
 
-      String params_url = "apps/" + appId + "/android_params.js";
-      if (userId != null)
-         params_url += "?player_id=" + userId;
-
       OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Starting request to get Android parameters.");
-      OneSignalRestClient.get(params_url, responseHandler, OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS);
+      OneSignalRestClient.get(paramsUrl, responseHandler, OneSignalRestClient.CACHE_KEY_REMOTE_PARAMS);
    }
 
    static private void processJson(String json, final @NonNull Callback callBack) {
@@ -181,6 +182,7 @@ public class OneSignalRemoteParams {
          googleProjectNumber = responseJson.optString("android_sender_id", null);
          clearGroupOnSummaryClick = responseJson.optBoolean("clear_group_on_summary_click", true);
          receiveReceiptEnabled = responseJson.optBoolean("receive_receipts_enable", false);
+         gzipRequestEndpoints = responseJson.optJSONArray(GZIP_REQUEST_ENDPOINTS);
 
          // Null assignation to avoid remote param override user configuration until backend is done
          // TODO remove the has check when backend has new remote params and sets inside OneSignal.java are removed
@@ -29,17 +29,27 @@ package com.onesignal;
 
 import android.net.TrafficStats;
 import android.os.Build;
+import android.util.JsonReader;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 class OneSignalRestClient {
    static abstract class ResponseHandler {
@@ -47,6 +57,54 @@ class OneSignalRestClient {
       void onFailure(int statusCode, String response, Throwable throwable) {}
    }
 
+   /**
+    * Opt-in handler for large responses, the body is parsed as it is downloaded so the raw
+    *    response is never held in memory as a String.
+    * parseResponse runs on the thread making the request, before the connection is closed,
+    *    onParsed then gets its result on the same thread onSuccess would have.
+    * A body that can't be read or parsed is reported through onUnparsableResponse, not onFailure,
+    *    as the server already accepted the request.
+    */
+   static abstract class StreamingResponseHandler<T> extends ResponseHandler {
+      /**
+       * Read only the values needed from the reader and skipValue the rest.
+       */
+      abstract T parseResponse(@NonNull JsonReader reader) throws IOException, JSONException;
+
+      void onParsed(T result) {}
+
+      /**
+       * The request succeeded but its body couldn't be read or parsed.
+       * Treat the request as sent, retrying it could apply it twice, such as creating a second player.
+       */
+      void onUnparsableResponse(int statusCode, Throwable throwable) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "OneSignalRestClient: Failed to parse response with status " + statusCode, throwable);
+      }
+
+      // Used when the response was already read into a String, such as from the shadows in tests
+      //    or by a handler wrapping this one
+      @Override
+      void onSuccess(String response) {
+         T result;
+         try {
+            result = parse(new StringReader(response == null ? "" : response));
+         } catch (IOException | JSONException | IllegalStateException e) {
+            onUnparsableResponse(HttpURLConnection.HTTP_OK, e);
+            return;
+         }
+         onParsed(result);
+      }
+
+      private T parse(Reader reader) throws IOException, JSONException {
+         JsonReader jsonReader = new JsonReader(reader);
+         try {
+            return parseResponse(jsonReader);
+         } finally {
+            jsonReader.close();
+         }
+      }
+   }
+
    static final String CACHE_KEY_GET_TAGS = "CACHE_KEY_GET_TAGS";
    static final String CACHE_KEY_REMOTE_PARAMS = "CACHE_KEY_REMOTE_PARAMS";
 
@@ -58,47 +116,215 @@ class OneSignalRestClient {
    private static final int TIMEOUT = 120_000;
    private static final int GET_TIMEOUT = 60_000;
    
+   private static OSHttpDispatcher dispatcher = new OSHttpDispatcher();
+   private static OSRequestJournal requestJournal = new OSRequestJournal();
+   private static OSHttpResponseCache responseCache = new OSHttpResponseCache();
+   private static OSHttpCompression compression = new OSHttpCompression();
+   private static OSRequestCoalescer coalescer = new OSRequestCoalescer(dispatcher);
+   private static OSRetryScheduler retryScheduler = new OSRetryScheduler();
+   private static OSHttpMetrics metrics = new OSHttpMetrics();
+   private static final OSHttpTransport defaultTransport = new OSHttpURLConnectionTransport();
+   private static volatile OSHttpTransport transport = defaultTransport;
+
+   // Path segments following one of these are ids, see getEndpointTemplate
+   private static final Set<String> ENDPOINT_ID_PARENTS = new HashSet<>(Arrays.asList(
+      "apps", "players", "notifications", "in_app_messages", "variants"
+   ));
+
+   // Dispatcher lane of each endpoint template, anything not listed is BACKGROUND
+   private static final Map<String, OSHttpDispatcher.Priority> ENDPOINT_PRIORITIES = new HashMap<>();
+   static {
+      ENDPOINT_PRIORITIES.put("in_app_messages/{id}/variants/{id}/html", OSHttpDispatcher.Priority.INTERACTIVE);
+      ENDPOINT_PRIORITIES.put("in_app_messages/device_preview", OSHttpDispatcher.Priority.INTERACTIVE);
+      ENDPOINT_PRIORITIES.put("in_app_messages/{id}/click", OSHttpDispatcher.Priority.INTERACTIVE);
+      ENDPOINT_PRIORITIES.put("notifications", OSHttpDispatcher.Priority.INTERACTIVE);
+
+      ENDPOINT_PRIORITIES.put("players", OSHttpDispatcher.Priority.SESSION);
+      ENDPOINT_PRIORITIES.put("players/{id}/on_session", OSHttpDispatcher.Priority.SESSION);
+      ENDPOINT_PRIORITIES.put("apps/{id}/android_params.js", OSHttpDispatcher.Priority.SESSION);
+
+      ENDPOINT_PRIORITIES.put("in_app_messages/{id}/impression", OSHttpDispatcher.Priority.TELEMETRY);
+      ENDPOINT_PRIORITIES.put("in_app_messages/{id}/pageImpression", OSHttpDispatcher.Priority.TELEMETRY);
+      ENDPOINT_PRIORITIES.put("notifications/{id}", OSHttpDispatcher.Priority.TELEMETRY);
+      ENDPOINT_PRIORITIES.put("notifications/{id}/report_received", OSHttpDispatcher.Priority.TELEMETRY);
+      ENDPOINT_PRIORITIES.put("outcomes/measure", OSHttpDispatcher.Priority.TELEMETRY);
+      ENDPOINT_PRIORITIES.put("outcomes/measure_sources", OSHttpDispatcher.Priority.TELEMETRY);
+      ENDPOINT_PRIORITIES.put("players/{id}/on_focus", OSHttpDispatcher.Priority.TELEMETRY);
+   }
+
+   static OSHttpDispatcher getDispatcher() {
+      return dispatcher;
+   }
+
+   static OSRequestJournal getRequestJournal() {
+      return requestJournal;
+   }
+
+   static OSHttpResponseCache getResponseCache() {
+      return responseCache;
+   }
+
+   static OSHttpCompression getCompression() {
+      return compression;
+   }
+
+   static OSRequestCoalescer getCoalescer() {
+      return coalescer;
+   }
+
+   static OSRetryScheduler getRetryScheduler() {
+      return retryScheduler;
+   }
+
+   static OSHttpMetrics getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * @param transport transport to send requests with, null for the default HttpURLConnection one
+    */
+   static void setTransport(@Nullable OSHttpTransport transport) {
+      OneSignalRestClient.transport = transport != null ? transport : defaultTransport;
+   }
+
+   /**
+    * Reduces a request url to the endpoint it calls so settings and stats can be kept per endpoint.
+    * The query is dropped and ids are replaced with {id}.
+    * ex. "players/a1b2-c3/on_session?app_id=x" -> "players/{id}/on_session"
+    */
+   static String getEndpointTemplate(String url) {
+      int queryStart = url.indexOf('?');
+      String path = queryStart == -1 ? url : url.substring(0, queryStart);
+      String[] segments = path.split("/");
+
+      StringBuilder template = new StringBuilder(path.length());
+      for (int i = 0; i < segments.length; i++) {
+         if (i > 0)
+            template.append('/');
+
+         String segment = segments[i];
+         // Ids are UUIDs, checking for a digit keeps named actions such as in_app_messages/device_preview
+         if (i > 0 && ENDPOINT_ID_PARENTS.contains(segments[i - 1]) && containsDigit(segment))
+            template.append("{id}");
+         else
+            template.append(segment);
+      }
+      return template.toString();
+   }
+
+   static OSHttpDispatcher.Priority getPriority(String url) {
+      OSHttpDispatcher.Priority priority = ENDPOINT_PRIORITIES.get(getEndpointTemplate(url));
+      return priority != null ? priority : OSHttpDispatcher.Priority.BACKGROUND;
+   }
+
+   private static boolean containsDigit(String value) {
+      for (int i = 0; i < value.length(); i++) {
+         if (Character.isDigit(value.charAt(i)))
+            return true;
+      }
+      return false;
+   }
+
    private static int getThreadTimeout(int timeout) {
       return timeout + 5_000;
    }
 
    public static void put(final String url, final JSONObject jsonBody, final ResponseHandler responseHandler) {
-      new Thread(new Runnable() {
+      dispatcher.executeRequest(getPriority(url), new Runnable() {
          public void run() {
-            makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null);
+            makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null, false);
          }
-      }, "OS_REST_ASYNC_PUT").start();
+      });
    }
 
    public static void post(final String url, final JSONObject jsonBody, final ResponseHandler responseHandler) {
-      new Thread(new Runnable() {
+      dispatcher.executeRequest(getPriority(url), new Runnable() {
          public void run() {
-            makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null);
+            makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null, false);
          }
-      }, "OS_REST_ASYNC_POST").start();
+      });
+   }
+
+   // Journaled variants, if the device is offline the request is saved and replayed later instead of failing.
+   // The journalKey must be unique to the event being reported since it is used to dedupe replays.
+
+   public static void put(String url, JSONObject jsonBody, ResponseHandler responseHandler, @NonNull String journalKey) {
+      put(url, jsonBody, requestJournal.wrapHandler(url, "PUT", jsonBody, journalKey, responseHandler));
+   }
+
+   public static void post(String url, JSONObject jsonBody, ResponseHandler responseHandler, @NonNull String journalKey) {
+      post(url, jsonBody, requestJournal.wrapHandler(url, "POST", jsonBody, journalKey, responseHandler));
    }
 
-   public static void get(final String url, final ResponseHandler responseHandler, @NonNull final String cacheKey) {
-      new Thread(new Runnable() {
+   public static void get(final String url, ResponseHandler responseHandler, @NonNull final String cacheKey) {
+      // Identical GETs already in flight or just answered are merged instead of making another request
+      final ResponseHandler requestHandler = coalescer.coalesce(url, cacheKey, responseHandler, false, getThreadTimeout(GET_TIMEOUT));
+      if (requestHandler == null)
+         return;
+
+      dispatcher.executeRequest(getPriority(url), new Runnable() {
          public void run() {
-            makeRequest(url, null, null, responseHandler, GET_TIMEOUT, cacheKey);
+            makeRequest(url, null, null, requestHandler, GET_TIMEOUT, cacheKey, false);
          }
-      }, "OS_REST_ASYNC_GET").start();
+      });
    }
 
-   public static void getSync(final String url, final ResponseHandler responseHandler, @NonNull String cacheKey) {
-      makeRequest(url, null, null, responseHandler, GET_TIMEOUT, cacheKey);
+   // Sync variants make the request and fire the ResponseHandler on the calling thread.
+   // Used by background jobs such as OSSyncService that need to know the request is done before finishing.
+
+   public static void getSync(final String url, ResponseHandler responseHandler, @NonNull String cacheKey) {
+      ResponseHandler requestHandler = coalescer.coalesce(url, cacheKey, responseHandler, true, getThreadTimeout(GET_TIMEOUT));
+      if (requestHandler == null)
+         return;
+
+      try {
+         makeRequest(url, null, null, requestHandler, GET_TIMEOUT, cacheKey, true);
+      } catch (RuntimeException e) {
+         // Don't leave requests that joined this one waiting, such as when called from the main thread
+         if (requestHandler instanceof OSRequestCoalescer.InFlightRequest)
+            ((OSRequestCoalescer.InFlightRequest) requestHandler).abort(e);
+         throw e;
+      }
    }
 
    public static void putSync(String url, JSONObject jsonBody, ResponseHandler responseHandler) {
-      makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null);
+      makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT, null, true);
    }
 
    public static void postSync(String url, JSONObject jsonBody, ResponseHandler responseHandler) {
-      makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null);
+      makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT, null, true);
    }
    
-   private static void makeRequest(final String url, final String method, final JSONObject jsonBody, final ResponseHandler responseHandler, final int timeout, final String cacheKey) {
+   /**
+    * Makes a request from the {@link OSRequestJournal} on the calling thread.
+    */
+   static OSRequestJournal.ReplayResult replaySync(String url, String method, JSONObject jsonBody) {
+      // Stays OFFLINE if the request is never made, such as missing privacy consent
+      final OSRequestJournal.ReplayResult[] result = { OSRequestJournal.ReplayResult.OFFLINE };
+      makeRequest(url, method, jsonBody, new ResponseHandler() {
+         @Override
+         void onSuccess(String response) {
+            result[0] = OSRequestJournal.ReplayResult.SENT;
+         }
+
+         @Override
+         void onFailure(int statusCode, String response, Throwable throwable) {
+            if (isOfflineError(throwable))
+               result[0] = OSRequestJournal.ReplayResult.OFFLINE;
+            else if (throwable != null || statusCode >= 500 || statusCode == 429)
+               result[0] = OSRequestJournal.ReplayResult.RETRY;
+            else
+               result[0] = OSRequestJournal.ReplayResult.REJECTED;
+         }
+      }, TIMEOUT, null, true);
+      return result[0];
+   }
+
+   static boolean isOfflineError(@Nullable Throwable throwable) {
+      return throwable instanceof java.net.ConnectException || throwable instanceof java.net.UnknownHostException;
+   }
+
+   private static void makeRequest(final String url, final String method, final JSONObject jsonBody, final ResponseHandler responseHandler, final int timeout, final String cacheKey, boolean sync) {
       if (OSUtils.isRunningOnMainThread())
          throw new OSThrowable.OSMainThreadException("Method: " + method + " was called from the Main Thread!");
 
@@ -106,32 +332,46 @@ class OneSignalRestClient {
       if (method != null && OneSignal.shouldLogUserPrivacyConsentErrorMessageForMethodName(null))
          return;
 
-      final Thread[] callbackThread = new Thread[1];
-      Thread connectionThread = new Thread(new Runnable() {
-         public void run() {
-            callbackThread[0] = startHTTPConnection(url, method, jsonBody, responseHandler, timeout, cacheKey);
-         }
-      }, "OS_HTTPConnection");
-      
-      connectionThread.start();
-      
-      // getResponseCode() can hang past it's timeout setting so join it's thread to ensure it is timing out.
+      // Async requests were already ordered by their dispatcher lane, sync ones are tracked so SESSION requests still hold back TELEMETRY
+      OSHttpDispatcher.Priority priority = getPriority(url);
+      if (sync)
+         dispatcher.beforeSyncRequest(priority);
+
+      // getResponseCode() can hang past it's timeout setting so a watchdog interrupts the request if it does.
+      OSHttpDispatcher.RequestTimeout requestTimeout = dispatcher.startTimeout(getThreadTimeout(timeout));
+
+      // A PUT or POST may change what a GET returns so GET responses from before it finishes can't be reused
+      if (method != null)
+         coalescer.onWriteStarted();
+
+      Runnable callback;
       try {
-         // Sequentially wait for connectionThread to execute
-         connectionThread.join(getThreadTimeout(timeout));
-         if (connectionThread.getState() != Thread.State.TERMINATED)
-            connectionThread.interrupt();
-         if (callbackThread[0] != null)
-            callbackThread[0].join();
-      } catch (InterruptedException e) {
-         e.printStackTrace();
+         callback = startHTTPConnection(url, method, jsonBody, responseHandler, timeout, cacheKey, requestTimeout);
+      } finally {
+         requestTimeout.finish();
+         if (sync)
+            dispatcher.afterSyncRequest(priority);
+         if (method != null)
+            coalescer.onWriteFinished();
       }
+
+      if (callback == null)
+         return;
+
+      if (sync)
+         callback.run();
+      else
+         dispatcher.executeCallback(callback);
    }
    
-   private static Thread startHTTPConnection(String url, String method, JSONObject jsonBody, ResponseHandler responseHandler, int timeout, @Nullable String cacheKey) {
+   private static Runnable startHTTPConnection(String url, String method, JSONObject jsonBody, ResponseHandler responseHandler, int timeout, @Nullable String cacheKey, OSHttpDispatcher.RequestTimeout requestTimeout) {
       int httpResponse = -1;
-      HttpURLConnection con = null;
-      Thread callbackThread;
+      OSHttpTransport.Response response = null;
+      Runnable callback;
+      String endpointTemplate = getEndpointTemplate(url);
+      long startTime = OneSignal.getTime().getElapsedRealtime();
+      int requestWireBytes = 0;
+      AtomicLong responseWireBytes = new AtomicLong();
 
       if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
          TrafficStats.setThreadStatsTag(THREAD_ID);
@@ -139,98 +379,105 @@ class OneSignalRestClient {
 
       try {
          OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: Making request to: " + BASE_URL + url);
-         con = newHttpURLConnection(url);
-
-         con.setUseCaches(false);
-         con.setConnectTimeout(timeout);
-         con.setReadTimeout(timeout);
-         con.setRequestProperty("SDK-Version", "onesignal/android/" + OneSignal.getSdkVersionRaw());
-         con.setRequestProperty("Accept", OS_ACCEPT_HEADER);
+         Map<String, String> headers = new HashMap<>();
+         headers.put("SDK-Version", "onesignal/android/" + OneSignal.getSdkVersionRaw());
+         headers.put("Accept", OS_ACCEPT_HEADER);
+         headers.put("Accept-Encoding", compression.getAcceptEncoding(endpointTemplate));
 
-         if (jsonBody != null)
-            con.setDoInput(true);
-
-         if (method != null) {
-            con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-            con.setRequestMethod(method);
-            con.setDoOutput(true);
-         }
+         if (method != null)
+            headers.put("Content-Type", "application/json; charset=UTF-8");
 
+         byte[] sendBytes = null;
          if (jsonBody != null) {
             String strJsonBody = jsonBody.toString();
             OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + method + " SEND JSON: " + strJsonBody);
 
-            byte[] sendBytes = strJsonBody.getBytes("UTF-8");
-            con.setFixedLengthStreamingMode(sendBytes.length);
+            byte[] bodyBytes = strJsonBody.getBytes("UTF-8");
+            sendBytes = compression.compressRequest(endpointTemplate, bodyBytes);
+            if (sendBytes != null) {
+               headers.put("Content-Encoding", OSHttpCompression.GZIP_ENCODING);
+               OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + method + " gzipped body from " + bodyBytes.length + " to " + sendBytes.length + " bytes");
+            }
+            else
+               sendBytes = bodyBytes;
 
-            OutputStream outputStream = con.getOutputStream();
-            outputStream.write(sendBytes);
+            compression.countRequest(bodyBytes.length, sendBytes.length);
+            requestWireBytes = sendBytes.length;
          }
 
          if (cacheKey != null) {
-            String eTag = OneSignalPrefs.getString(
-               OneSignalPrefs.PREFS_ONESIGNAL,
-               OneSignalPrefs.PREFS_OS_ETAG_PREFIX + cacheKey,
-               null
-            );
+            String eTag = responseCache.getETag(cacheKey);
             if (eTag != null) {
-               con.setRequestProperty("if-none-match", eTag);
+               headers.put("if-none-match", eTag);
                OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: Adding header if-none-match: " + eTag);
             }
          }
 
-         // Network request is made from getResponseCode()
-         httpResponse = con.getResponseCode();
+         OSHttpTransport.Request request = new OSHttpTransport.Request(BASE_URL + url, method == null ? "GET" : method, headers, sendBytes, timeout);
+         OSHttpTransport.Call call = transport.newCall(request);
+         requestTimeout.setCall(call);
+         response = call.execute();
+         httpResponse = response.getStatusCode();
+         // Any response means the device is online again
+         requestJournal.onNetworkAvailable();
 
          OneSignal.Log(OneSignal.LOG_LEVEL.VERBOSE, "OneSignalRestClient: After con.getResponseCode to: " + BASE_URL + url);
 
          switch (httpResponse) {
            case HttpURLConnection.HTTP_NOT_MODIFIED: // 304
-               String cachedResponse = OneSignalPrefs.getString(
-                  OneSignalPrefs.PREFS_ONESIGNAL,
-                  OneSignalPrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey,
-                  null
-               );
+               if (responseHandler instanceof StreamingResponseHandler) {
+                  InputStream cachedStream = responseCache.openBody(cacheKey);
+                  if (cachedStream != null) {
+                     OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + (method == null ? "GET" : method) + " - Streaming cached response due to 304");
+                     callback = parseStreamingResponse((StreamingResponseHandler<?>) responseHandler, httpResponse, cachedStream);
+                     break;
+                  }
+               }
+               String cachedResponse = responseCache.getBody(cacheKey);
                OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + (method == null ? "GET" : method) + " - Using Cached response due to 304: " + cachedResponse);
-               callbackThread = callResponseHandlerOnSuccess(responseHandler, cachedResponse);
+               callback = callResponseHandlerOnSuccess(responseHandler, cachedResponse);
             break;
             case HttpURLConnection.HTTP_ACCEPTED:
             case HttpURLConnection.HTTP_OK: // 200
                OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: Successfully finished request to: " + BASE_URL + url);
 
-               InputStream inputStream = con.getInputStream();
+               InputStream inputStream = response.getBody();
+               if (inputStream == null)
+                  inputStream = new ByteArrayInputStream(new byte[0]);
+               inputStream = compression.decodeResponse(inputStream, response.getHeader("Content-Encoding"), responseWireBytes);
+
+               // Responses that get cached are read in full to save them, the handler then parses the String
+               if (responseHandler instanceof StreamingResponseHandler && cacheKey == null) {
+                  OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + (method == null ? "GET" : method) + " - Streaming response to handler");
+                  callback = parseStreamingResponse((StreamingResponseHandler<?>) responseHandler, httpResponse, inputStream);
+                  break;
+               }
+
                Scanner scanner = new Scanner(inputStream, "UTF-8");
                String json = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
                scanner.close();
                OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: " + (method == null ? "GET" : method) + " RECEIVED JSON: " + json);
 
                if (cacheKey != null) {
-                  String eTag = con.getHeaderField("etag");
+                  String eTag = response.getHeader("etag");
                   if (eTag != null) {
                      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: Response has etag of " + eTag + " so caching the response.");
-                     OneSignalPrefs.saveString(
-                        OneSignalPrefs.PREFS_ONESIGNAL,
-                        OneSignalPrefs.PREFS_OS_ETAG_PREFIX + cacheKey,
-                        eTag
-                     );
-                     OneSignalPrefs.saveString(
-                        OneSignalPrefs.PREFS_ONESIGNAL,
-                        OneSignalPrefs.PREFS_OS_HTTP_CACHE_PREFIX + cacheKey,
-                        json
-                     );
+                     responseCache.put(cacheKey, eTag, json);
                   }
                }
 
-               callbackThread = callResponseHandlerOnSuccess(responseHandler, json);
+               callback = callResponseHandlerOnSuccess(responseHandler, json);
                break;
             default: // Request failed
                OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: Failed request to: " + BASE_URL + url);
-               inputStream = con.getErrorStream();
-               if (inputStream == null)
-                  inputStream = con.getInputStream();
+               if (OSRetryScheduler.isRetryAfterStatus(httpResponse))
+                  retryScheduler.onRetryAfter(endpointTemplate, response.getHeader("Retry-After"));
+
+               inputStream = response.getBody();
 
                String jsonResponse = null;
                if (inputStream != null) {
+                  inputStream = compression.decodeResponse(inputStream, response.getHeader("Content-Encoding"), responseWireBytes);
                   scanner = new Scanner(inputStream, "UTF-8");
                   jsonResponse = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
                   scanner.close();
@@ -239,56 +486,75 @@ class OneSignalRestClient {
                else
                   OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OneSignalRestClient: " + method + " HTTP Code: " + httpResponse + " No response body!");
 
-               callbackThread = callResponseHandlerOnFailure(responseHandler, httpResponse, jsonResponse, null);
+               callback = callResponseHandlerOnFailure(responseHandler, httpResponse, jsonResponse, null);
          }
       } catch (Throwable t) {
-         if (t instanceof java.net.ConnectException || t instanceof java.net.UnknownHostException)
+         if (isOfflineError(t))
             OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "OneSignalRestClient: Could not send last request, device is offline. Throwable: " + t.getClass().getName());
          else
             OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OneSignalRestClient: " + method + " Error thrown from network stack. ", t);
    
-         callbackThread = callResponseHandlerOnFailure(responseHandler, httpResponse, null, t);
+         callback = callResponseHandlerOnFailure(responseHandler, httpResponse, null, t);
       }
       finally {
-         if (con != null)
-            con.disconnect();
+         if (response != null) {
+            try {
+               response.close();
+            } catch (IOException e) {
+               OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalRestClient: Error closing response", e);
+            }
+         }
+
+         long latency = OneSignal.getTime().getElapsedRealtime() - startTime;
+         metrics.record(endpointTemplate, method, httpResponse, latency, requestWireBytes, responseWireBytes.get());
       }
       
-      return callbackThread;
+      return callback;
    }
    
    
-   // These helper methods run the callback a new thread so they don't count towards the fallback thread join timer.
+   // These helper methods only wrap the callback, makeRequest decides which thread runs it
+   //    so callbacks don't count towards the request timeout.
    
-   private static Thread callResponseHandlerOnSuccess(final ResponseHandler handler, final String response) {
+   private static Runnable callResponseHandlerOnSuccess(final ResponseHandler handler, final String response) {
       if (handler == null)
          return null;
       
-      Thread thread = new Thread(new Runnable() {
+      return new Runnable() {
          public void run() {
             handler.onSuccess(response);
          }
-      }, "OS_REST_SUCCESS_CALLBACK");
-      thread.start();
-      
-      return thread;
+      };
    }
    
-   private static Thread callResponseHandlerOnFailure(final ResponseHandler handler, final int statusCode, final String response, final Throwable throwable) {
+   // Parses on the current thread, only delivering the result is left to the callback
+   private static <T> Runnable parseStreamingResponse(final StreamingResponseHandler<T> handler, final int statusCode, InputStream inputStream) {
+      final T result;
+      try {
+         result = handler.parse(new InputStreamReader(inputStream, "UTF-8"));
+      } catch (final IOException | JSONException | IllegalStateException e) {
+         return new Runnable() {
+            public void run() {
+               handler.onUnparsableResponse(statusCode, e);
+            }
+         };
+      }
+
+      return new Runnable() {
+         public void run() {
+            handler.onParsed(result);
+         }
+      };
+   }
+
+   private static Runnable callResponseHandlerOnFailure(final ResponseHandler handler, final int statusCode, final String response, final Throwable throwable) {
       if (handler == null)
          return null;
    
-      Thread thread = new Thread(new Runnable() {
+      return new Runnable() {
          public void run() {
             handler.onFailure(statusCode, response, throwable);
          }
-      }, "OS_REST_FAILURE_CALLBACK");
-      thread.start();
-      
-      return thread;
-   }
-
-   private static HttpURLConnection newHttpURLConnection(String url) throws IOException {
-      return (HttpURLConnection)new URL(BASE_URL + url).openConnection();
+      };
    }
-}
\ No newline at end of file
+}
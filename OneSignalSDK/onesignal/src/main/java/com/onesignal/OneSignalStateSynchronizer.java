@@ -105,6 +105,45 @@ class OneSignalStateSynchronizer {
       return (UserStateSMSSynchronizer) userStateSynchronizers.get(UserStateSynchronizerType.SMS);
    }
 
+   static UserStateSynchronizer getUserStateSynchronizer(UserStateSynchronizerType channel) {
+      switch (channel) {
+         case EMAIL:
+            return getEmailStateSynchronizer();
+         case SMS:
+            return getSMSStateSynchronizer();
+         default:
+            return getPushStateSynchronizer();
+      }
+   }
+
+   // One worker syncs every channel, see UserStateSyncCoordinator
+   static UserStateSyncCoordinator syncCoordinator;
+
+   static UserStateSyncCoordinator getSyncCoordinator() {
+      if (syncCoordinator == null) {
+         synchronized (LOCK) {
+            if (syncCoordinator == null)
+               syncCoordinator = new UserStateSyncCoordinator();
+         }
+      }
+
+      return syncCoordinator;
+   }
+
+   // Tags from sendTags and deleteTags wait here for the next sync cycle, see OSTagWriteBuffer
+   static OSTagWriteBuffer tagWriteBuffer;
+
+   static OSTagWriteBuffer getTagWriteBuffer() {
+      if (tagWriteBuffer == null) {
+         synchronized (LOCK) {
+            if (tagWriteBuffer == null)
+               tagWriteBuffer = new OSTagWriteBuffer();
+         }
+      }
+
+      return tagWriteBuffer;
+   }
+
    static List<UserStateSynchronizer> getUserStateSynchronizers() {
       List<UserStateSynchronizer> userStateSynchronizers = new ArrayList<>();
 
@@ -122,6 +161,7 @@ class OneSignalStateSynchronizer {
    }
    
    static boolean persist() {
+      flushTagWrites();
       boolean pushPersisted = getPushStateSynchronizer().persist();
       boolean emailPersisted = getEmailStateSynchronizer().persist();
       boolean smsPersisted =  getSMSStateSynchronizer().persist();
@@ -148,19 +188,45 @@ class OneSignalStateSynchronizer {
    }
 
    static void syncUserState(boolean fromSyncService) {
+      flushTagWrites();
       getPushStateSynchronizer().syncUserState(fromSyncService);
       getEmailStateSynchronizer().syncUserState(fromSyncService);
       getSMSStateSynchronizer().syncUserState(fromSyncService);
    }
 
    static void sendTags(JSONObject newTags, @Nullable ChangeTagsUpdateHandler handler) {
+      getTagWriteBuffer().put(newTags, handler);
+      getPushStateSynchronizer().scheduleSyncToServer();
+   }
+
+   // Moves the buffered tag writes into each channel's user state as one tags payload, called at the start of
+   //    each sync cycle and before the user state is persisted
+   static void flushTagWrites() {
+      if (tagWriteBuffer == null)
+         return;
+
+      OSTagWriteBuffer.Flush flush = tagWriteBuffer.drain(getPushStateSynchronizer().getTags(false).result);
+      if (flush == null)
+         return;
+
+      if (flush.coalescedWrites > 0)
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "OneSignalStateSynchronizer: Coalesced " + flush.coalescedWrites + " tag writes, sending " + flush.tags.length() + " tags");
+
+      // Everything buffered cancelled out, the tags are already what the handlers asked for
+      if (flush.tags.length() == 0) {
+         JSONObject tags = getTags(false).result;
+         for (ChangeTagsUpdateHandler handler : flush.handlers)
+            handler.onSuccess(tags);
+         return;
+      }
+
       try {
-         JSONObject jsonField = new JSONObject().put("tags", newTags);
-         getPushStateSynchronizer().sendTags(jsonField, handler);
-         getEmailStateSynchronizer().sendTags(jsonField, handler);
-         getSMSStateSynchronizer().sendTags(jsonField, handler);
+         JSONObject jsonField = new JSONObject().put("tags", flush.tags);
+         getPushStateSynchronizer().sendTags(jsonField, flush.handlers);
+         getEmailStateSynchronizer().sendTags(jsonField, flush.handlers);
+         getSMSStateSynchronizer().sendTags(jsonField, flush.handlers);
       } catch (JSONException e) {
-         if (handler != null)
+         for (ChangeTagsUpdateHandler handler : flush.handlers)
             handler.onFailure(new OneSignal.SendTagsError(-1, "Encountered an error attempting to serialize your tags into JSON: " + e.getMessage() + "\n" + e.getStackTrace()));
          e.printStackTrace();
       }
@@ -202,8 +268,12 @@ class OneSignalStateSynchronizer {
       return getPushStateSynchronizer().getRegistrationId();
    }
 
+   // Includes tag writes still waiting in the buffer
    static UserStateSynchronizer.GetTagsResult getTags(boolean fromServer) {
-      return getPushStateSynchronizer().getTags(fromServer);
+      UserStateSynchronizer.GetTagsResult tags = getPushStateSynchronizer().getTags(fromServer);
+      if (tagWriteBuffer != null)
+         tags = new UserStateSynchronizer.GetTagsResult(tags.serverSuccess, tagWriteBuffer.applyTo(tags.result));
+      return tags;
    }
 
    static void resetCurrentState() {
@@ -6,11 +6,11 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static com.onesignal.UserStateSynchronizer.APP_ID;
@@ -21,7 +21,8 @@ import static com.onesignal.UserStateSynchronizer.SMS_AUTH_HASH_KEY;
 
 abstract class UserState {
 
-    // Object to synchronize on to prevent concurrent modifications on syncValues and dependValues
+    // Object to synchronize on to prevent concurrent modifications on syncValues and dependValues.
+    // Readers don't need it, they take the current Values which writers replace under this lock.
     private static final Object LOCK = new Object();
 
     public static final String TAGS = "tags";
@@ -57,57 +58,95 @@ abstract class UserState {
 
     private String persistKey;
 
-    private JSONObject dependValues, syncValues;
+    /**
+     * One published version of both values. Readers take the current one without locking, so the sync and
+     *    depend values they see always belong together, and writers publish the next version under LOCK.
+     */
+    static final class Values {
+        final ImmutableJSONObject syncValues, dependValues;
+        // Counts up with every published change to this UserState
+        final long version;
+        // Counts up only when syncValues change, the values that are sent to the server
+        final long syncVersion;
+
+        Values(ImmutableJSONObject syncValues, ImmutableJSONObject dependValues, long version, long syncVersion) {
+            this.syncValues = syncValues;
+            this.dependValues = dependValues;
+            this.version = version;
+            this.syncVersion = syncVersion;
+        }
 
-    public ImmutableJSONObject getDependValues() {
-        try {
-            return new ImmutableJSONObject(getDependValuesCopy());
-        } catch (JSONException e) {
-            e.printStackTrace();
+        Values withSyncValues(ImmutableJSONObject syncValues) {
+            return new Values(syncValues, dependValues, version + 1, syncVersion + 1);
+        }
+
+        Values withDependValues(ImmutableJSONObject dependValues) {
+            return new Values(syncValues, dependValues, version + 1, syncVersion);
         }
-        return new ImmutableJSONObject();
+    }
+
+    private volatile Values values = new Values(new ImmutableJSONObject(), new ImmutableJSONObject(), 0, 0);
+
+    // Top level syncValues keys changed since they last matched the state this one is diffed against.
+    // null when not known, such as after loading from disk, every key is then compared.
+    private Set<String> changedSyncKeys;
+
+    private final OSUserStateOperationLog operationLog;
+    // Held while writing to operationLog so persists are written in order, without holding up writers on LOCK
+    private final Object persistLock = new Object();
+    private long persistedVersion = -1;
+    // Keys changed since the last persistState, only these are appended to the operation log.
+    // When unpersistedSnapshot is set the log is instead compacted to a snapshot of all values.
+    private final Set<String> unpersistedSyncKeys = new HashSet<>(), unpersistedDependKeys = new HashSet<>();
+    private boolean unpersistedSnapshot;
+
+    Values getValues() {
+        return values;
+    }
+
+    long getSyncVersion() {
+        return values.syncVersion;
+    }
+
+    public ImmutableJSONObject getDependValues() {
+        return values.dependValues;
     }
 
     public void setDependValues(JSONObject dependValues) {
         synchronized (LOCK) {
-            this.dependValues = dependValues;
+            values = values.withDependValues(new ImmutableJSONObject(dependValues));
+            unpersistedSnapshot = true;
         }
     }
 
     JSONObject getDependValuesCopy() throws JSONException {
-        synchronized (LOCK) {
-            return new JSONObject(dependValues.toString());
-        }
+        return getDependValues().toJSONObject();
     }
 
     public ImmutableJSONObject getSyncValues() {
-        try {
-            return new ImmutableJSONObject(getSyncValuesCopy());
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return new ImmutableJSONObject();
+        return values.syncValues;
     }
 
     public JSONObject getSyncValuesCopy() throws JSONException {
-        synchronized (LOCK) {
-            return new JSONObject(syncValues.toString());
-        }
+        return getSyncValues().toJSONObject();
     }
 
     public void setSyncValues(@NonNull JSONObject syncValues) {
         synchronized (LOCK) {
-            this.syncValues = syncValues;
+            values = values.withSyncValues(new ImmutableJSONObject(syncValues));
+            changedSyncKeys = null;
+            unpersistedSnapshot = true;
         }
     }
 
     UserState(String inPersistKey, boolean load) {
         persistKey = inPersistKey;
+        operationLog = new OSUserStateOperationLog(inPersistKey);
         if (load) {
             loadState();
         } else {
-            dependValues = new JSONObject();
-            syncValues = new JSONObject();
+            changedSyncKeys = new HashSet<>();
+            unpersistedSnapshot = true;
         }
     }
 
@@ -116,11 +155,11 @@ abstract class UserState {
     UserState deepClone(String persistKey) {
         UserState clonedUserState = newInstance(persistKey);
 
-        try {
-            clonedUserState.dependValues = getDependValuesCopy();
-            clonedUserState.syncValues = getSyncValuesCopy();
-        } catch (JSONException e) {
-            e.printStackTrace();
+        // Snapshots are never modified so the clone can share them
+        synchronized (LOCK) {
+            clonedUserState.values = values;
+            clonedUserState.changedSyncKeys = new HashSet<>();
+            clonedUserState.unpersistedSnapshot = true;
         }
 
         return clonedUserState;
@@ -132,14 +171,15 @@ abstract class UserState {
 
     private Set<String> getGroupChangeFields(UserState changedTo) {
         try {
-            if (dependValues.optLong("loc_time_stamp") != changedTo.dependValues.getLong("loc_time_stamp")) {
+            ImmutableJSONObject changedToDependValues = changedTo.getDependValues();
+            if (getDependValues().optLong("loc_time_stamp") != changedToDependValues.getLong("loc_time_stamp")) {
 
                 HashMap<String, Object> syncValuesToPut = new HashMap<>();
 
-                syncValuesToPut.put("loc_bg", changedTo.dependValues.opt("loc_bg"));
-                syncValuesToPut.put("loc_time_stamp", changedTo.dependValues.opt("loc_time_stamp"));
+                syncValuesToPut.put("loc_bg", changedToDependValues.opt("loc_bg"));
+                syncValuesToPut.put("loc_time_stamp", changedToDependValues.opt("loc_time_stamp"));
 
-                putValues(changedTo.syncValues, syncValuesToPut);
+                changedTo.putOnSyncValues(syncValuesToPut);
 
                 return LOCATION_FIELDS_SET;
             }
@@ -150,100 +190,200 @@ abstract class UserState {
 
     void putOnSyncValues(String key, Object value) throws JSONException {
         synchronized (LOCK) {
-            syncValues.put(key, value);
+            ImmutableJSONObject syncValues = values.syncValues.with(key, value);
+            // Unchanged, keep the current version
+            if (syncValues == values.syncValues)
+                return;
+
+            values = values.withSyncValues(syncValues);
+            markSyncValueChanged(key);
         }
     }
 
 
     void putOnDependValues(String key, Object value) throws JSONException {
         synchronized (LOCK) {
-            dependValues.put(key, value);
+            ImmutableJSONObject dependValues = values.dependValues.with(key, value);
+            if (dependValues == values.dependValues)
+                return;
+
+            values = values.withDependValues(dependValues);
+            unpersistedDependKeys.add(key);
         }
     }
 
-    private void putValues(JSONObject jsonObject, HashMap<String, Object> values) throws JSONException {
+    private void putOnSyncValues(HashMap<String, Object> values) {
         synchronized (LOCK) {
-            for (Map.Entry<String, Object> entry : values.entrySet()) {
-                jsonObject.put(entry.getKey(), entry.getValue());
-            }
+            ImmutableJSONObject syncValues = this.values.syncValues.withAll(values);
+            if (syncValues == this.values.syncValues)
+                return;
+
+            this.values = this.values.withSyncValues(syncValues);
+            markSyncValuesChanged(values.keySet());
+        }
+    }
+
+    private void putOnDependValues(HashMap<String, Object> values) {
+        synchronized (LOCK) {
+            ImmutableJSONObject dependValues = this.values.dependValues.withAll(values);
+            if (dependValues == this.values.dependValues)
+                return;
+
+            this.values = this.values.withDependValues(dependValues);
+            unpersistedDependKeys.addAll(values.keySet());
         }
     }
 
     void removeFromSyncValues(String key) {
         synchronized (LOCK) {
-            syncValues.remove(key);
+            values = values.withSyncValues(values.syncValues.without(key));
+            markSyncValueChanged(key);
         }
     }
 
     void removeFromSyncValues(List<String> keys) {
         synchronized (LOCK) {
+            values = values.withSyncValues(values.syncValues.withoutAll(keys));
+            markSyncValuesChanged(keys);
+        }
+    }
+
+    private void markSyncValueChanged(String key) {
+        unpersistedSyncKeys.add(key);
+        if (changedSyncKeys != null)
+            changedSyncKeys.add(key);
+    }
+
+    private void markSyncValuesChanged(Collection<String> keys) {
+        unpersistedSyncKeys.addAll(keys);
+        if (changedSyncKeys != null)
+            changedSyncKeys.addAll(keys);
+    }
+
+    /**
+     * @return keys changed on either state, null if every key needs to be compared
+     */
+    private Set<String> getChangedSyncKeys(UserState other) {
+        synchronized (LOCK) {
+            if (changedSyncKeys == null || other.changedSyncKeys == null)
+                return null;
+
+            Set<String> keys = new HashSet<>(changedSyncKeys);
+            keys.addAll(other.changedSyncKeys);
+            return keys;
+        }
+    }
+
+    /**
+     * Called after a sync, keys that now have the same value on both states no longer need to be diffed
+     */
+    void clearSyncedChanges(UserState other) {
+        synchronized (LOCK) {
+            ImmutableJSONObject syncValues = getSyncValues(), otherSyncValues = other.getSyncValues();
+            Set<String> keys = getChangedSyncKeys(other);
+            if (keys == null) {
+                keys = new HashSet<>(syncValues.keySet());
+                keys.addAll(otherSyncValues.keySet());
+            }
+
+            Set<String> stillChanged = new HashSet<>();
             for (String key : keys) {
-                syncValues.remove(key);
+                if (!syncValues.valueEquals(otherSyncValues, key))
+                    stillChanged.add(key);
             }
+
+            changedSyncKeys = stillChanged;
+            other.changedSyncKeys = new HashSet<>(stillChanged);
         }
     }
 
     void removeFromDependValues(String key) {
         synchronized (LOCK) {
-            dependValues.remove(key);
+            values = values.withDependValues(values.dependValues.without(key));
+            unpersistedDependKeys.add(key);
         }
     }
 
     void removeFromDependValues(List<String> keys) {
         synchronized (LOCK) {
-            for (String key : keys) {
-                dependValues.remove(key);
-            }
+            values = values.withDependValues(values.dependValues.withoutAll(keys));
+            unpersistedDependKeys.addAll(keys);
         }
     }
 
     void setLocation(LocationController.LocationPoint point) {
-        try {
-            HashMap<String, Object> syncValuesToPut = new HashMap<>();
-            syncValuesToPut.put("lat", point.lat);
-            syncValuesToPut.put("long",point.log);
-            syncValuesToPut.put("loc_acc", point.accuracy);
-            syncValuesToPut.put("loc_type", point.type);
-            putValues(syncValues, syncValuesToPut);
-
-            HashMap<String, Object> dependValuesToPut = new HashMap<>();
-            dependValuesToPut.put("loc_bg", point.bg);
-            dependValuesToPut.put("loc_time_stamp", point.timeStamp);
-            putValues(dependValues, dependValuesToPut);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
+        HashMap<String, Object> syncValuesToPut = new HashMap<>();
+        syncValuesToPut.put("lat", point.lat);
+        syncValuesToPut.put("long",point.log);
+        syncValuesToPut.put("loc_acc", point.accuracy);
+        syncValuesToPut.put("loc_type", point.type);
+        putOnSyncValues(syncValuesToPut);
+
+        HashMap<String, Object> dependValuesToPut = new HashMap<>();
+        dependValuesToPut.put("loc_bg", point.bg);
+        dependValuesToPut.put("loc_time_stamp", point.timeStamp);
+        putOnDependValues(dependValuesToPut);
     }
 
     void clearLocation() {
-        try {
-            HashMap<String, Object> syncValuesToPut = new HashMap<>();
-            syncValuesToPut.put("lat", null);
-            syncValuesToPut.put("long", null);
-            syncValuesToPut.put("loc_acc", null);
-            syncValuesToPut.put("loc_type", null);
-            syncValuesToPut.put("loc_bg", null);
-            syncValuesToPut.put("loc_time_stamp", null);
-            putValues(syncValues, syncValuesToPut);
-
-            HashMap<String, Object> dependValuesToPut = new HashMap<>();
-            dependValuesToPut.put("loc_bg", null);
-            dependValuesToPut.put("loc_time_stamp", null);
-            putValues(dependValues, dependValuesToPut);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
+        HashMap<String, Object> syncValuesToPut = new HashMap<>();
+        syncValuesToPut.put("lat", null);
+        syncValuesToPut.put("long", null);
+        syncValuesToPut.put("loc_acc", null);
+        syncValuesToPut.put("loc_type", null);
+        syncValuesToPut.put("loc_bg", null);
+        syncValuesToPut.put("loc_time_stamp", null);
+        putOnSyncValues(syncValuesToPut);
+
+        HashMap<String, Object> dependValuesToPut = new HashMap<>();
+        dependValuesToPut.put("loc_bg", null);
+        dependValuesToPut.put("loc_time_stamp", null);
+        putOnDependValues(dependValuesToPut);
     }
 
     JSONObject generateJsonDiff(UserState newState, boolean isSessionCall) {
         addDependFields();
         newState.addDependFields();
         Set<String> includeFields = getGroupChangeFields(newState);
-        JSONObject sendJson = generateJsonDiff(syncValues, newState.syncValues, null, includeFields);
+        ImmutableJSONObject syncValues = getSyncValues(), newSyncValues = newState.getSyncValues();
+        Set<String> changedKeys = getChangedSyncKeys(newState);
+        JSONObject sendJson;
+        if (changedKeys == null)
+            sendJson = JSONUtils.generateJsonDiff(syncValues.toJSONObject(), newSyncValues.toJSONObject(), null, includeFields);
+        else {
+            // Only fields changed since the last sync can differ, the rest are skipped without being compared
+            if (includeFields != null)
+                changedKeys.addAll(includeFields);
+            sendJson = JSONUtils.generateJsonDiff(syncValues.toJSONObject(changedKeys), newSyncValues.toJSONObject(changedKeys), null, includeFields);
+        }
 
         if (!isSessionCall && sendJson.toString().equals("{}"))
             return null;
 
+        addRequiredFields(sendJson, syncValues);
+        return sendJson;
+    }
+
+    /**
+     * The body of a session call when nothing changed since the server last acknowledged a sync, only the
+     *    fields every request needs
+     */
+    JSONObject generateUnchangedSessionBody() {
+        JSONObject sendJson = new JSONObject();
+        addRequiredFields(sendJson, getSyncValues());
+        return sendJson;
+    }
+
+    /**
+     * Same check generateJsonDiff makes to resend the location fields, true if changedTo has a newer location
+     */
+    boolean hasLocationChange(UserState changedTo) {
+        ImmutableJSONObject changedToDependValues = changedTo.getDependValues();
+        return changedToDependValues.has("loc_time_stamp") &&
+                getDependValues().optLong("loc_time_stamp") != changedToDependValues.optLong("loc_time_stamp");
+    }
+
+    private static void addRequiredFields(JSONObject sendJson, ImmutableJSONObject syncValues) {
         try {
             // app_id required for all REST API calls
             if (!sendJson.has(APP_ID))
@@ -258,38 +398,44 @@ abstract class UserState {
         } catch (JSONException e) {
             e.printStackTrace();
         }
-
-        return sendJson;
     }
 
     private void loadState() {
+        OSUserStateOperationLogFormat.Snapshot snapshot = operationLog.read();
+        if (snapshot != null) {
+            synchronized (LOCK) {
+                values = new Values(new ImmutableJSONObject(snapshot.syncValues), new ImmutableJSONObject(snapshot.dependValues), 0, 0);
+                persistedVersion = 0;
+            }
+            return;
+        }
+
+        // Nothing logged yet, migrate from the values saved as a whole into prefs by older SDK versions.
         // null if first run of a 2.0+ version.
         String dependValuesStr = OneSignalPrefs.getString(OneSignalPrefs.PREFS_ONESIGNAL,
                 OneSignalPrefs.PREFS_ONESIGNAL_USERSTATE_DEPENDVALYES_ + persistKey,null);
 
         if (dependValuesStr == null) {
             setDependValues(new JSONObject());
-            try {
-                int subscribableStatus;
-                boolean userSubscribePref = true;
-                // Convert 1.X SDK settings to 2.0+.
-                if (persistKey.equals("CURRENT_STATE"))
-                    subscribableStatus = OneSignalPrefs.getInt(OneSignalPrefs.PREFS_ONESIGNAL,
-                            OneSignalPrefs.PREFS_ONESIGNAL_SUBSCRIPTION,1);
-                else
-                    subscribableStatus = OneSignalPrefs.getInt(OneSignalPrefs.PREFS_ONESIGNAL,
-                            OneSignalPrefs.PREFS_ONESIGNAL_SYNCED_SUBSCRIPTION,1);
-
-                if (subscribableStatus == PUSH_STATUS_UNSUBSCRIBE) {
-                    subscribableStatus = 1;
-                    userSubscribePref = false;
-                }
+            int subscribableStatus;
+            boolean userSubscribePref = true;
+            // Convert 1.X SDK settings to 2.0+.
+            if (persistKey.equals("CURRENT_STATE"))
+                subscribableStatus = OneSignalPrefs.getInt(OneSignalPrefs.PREFS_ONESIGNAL,
+                        OneSignalPrefs.PREFS_ONESIGNAL_SUBSCRIPTION,1);
+            else
+                subscribableStatus = OneSignalPrefs.getInt(OneSignalPrefs.PREFS_ONESIGNAL,
+                        OneSignalPrefs.PREFS_ONESIGNAL_SYNCED_SUBSCRIPTION,1);
+
+            if (subscribableStatus == PUSH_STATUS_UNSUBSCRIBE) {
+                subscribableStatus = 1;
+                userSubscribePref = false;
+            }
 
-                HashMap<String, Object> dependValuesToPut = new HashMap<>();
-                dependValuesToPut.put("subscribableStatus", subscribableStatus);
-                dependValuesToPut.put("userSubscribePref", userSubscribePref);
-                putValues(dependValues, dependValuesToPut);
-            } catch (JSONException e) {}
+            HashMap<String, Object> dependValuesToPut = new HashMap<>();
+            dependValuesToPut.put("subscribableStatus", subscribableStatus);
+            dependValuesToPut.put("userSubscribePref", userSubscribePref);
+            putOnDependValues(dependValuesToPut);
         } else {
             try {
                 JSONObject dependValues = new JSONObject(dependValuesStr);
@@ -318,32 +464,66 @@ abstract class UserState {
     }
 
     void persistState() {
-        synchronized(LOCK) {
-            // pop the EXTERNAL_USER_ID_AUTH_HASH if in process of removing external user ID
-            // external_user_id is either "" or not present
-            try {
+        synchronized (persistLock) {
+            Values persisting;
+            boolean snapshot;
+            Set<String> syncKeys, dependKeys;
+            synchronized (LOCK) {
+                // pop the EXTERNAL_USER_ID_AUTH_HASH if in process of removing external user ID
+                // external_user_id is either "" or not present
+                ImmutableJSONObject syncValues = values.syncValues;
                 if (syncValues.has(EXTERNAL_USER_ID_AUTH_HASH) &&
-                        ((syncValues.has(EXTERNAL_USER_ID) && syncValues.get(EXTERNAL_USER_ID).toString() == "") || !syncValues.has(EXTERNAL_USER_ID))) {
-                    syncValues.remove(EXTERNAL_USER_ID_AUTH_HASH);
+                        ((syncValues.has(EXTERNAL_USER_ID) && syncValues.opt(EXTERNAL_USER_ID).toString() == "") || !syncValues.has(EXTERNAL_USER_ID))) {
+                    values = values.withSyncValues(syncValues.without(EXTERNAL_USER_ID_AUTH_HASH));
+                    markSyncValueChanged(EXTERNAL_USER_ID_AUTH_HASH);
                     // the auth_hash is popped above but external user id may still remain as ""
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+
+                persisting = values;
+                if (persisting.version == persistedVersion && !unpersistedSnapshot)
+                    return;
+
+                // Only the changed keys are written, unless the log needs to start over from a snapshot
+                snapshot = unpersistedSnapshot || operationLog.needsCompaction();
+                syncKeys = new HashSet<>(unpersistedSyncKeys);
+                dependKeys = new HashSet<>(unpersistedDependKeys);
+                unpersistedSyncKeys.clear();
+                unpersistedDependKeys.clear();
+                unpersistedSnapshot = false;
+            }
+
+            // Written outside of LOCK so a slow disk doesn't block changes to the values
+            boolean written;
+            if (snapshot)
+                written = operationLog.compact(persisting.syncValues, persisting.dependValues);
+            else
+                written = operationLog.append(persisting.syncValues, syncKeys, persisting.dependValues, dependKeys);
+
+            if (!written) {
+                // The log may be gone, write everything on the next persist
+                synchronized (LOCK) {
+                    unpersistedSnapshot = true;
+                }
+                return;
             }
 
-            OneSignalPrefs.saveString(OneSignalPrefs.PREFS_ONESIGNAL,
-                    OneSignalPrefs.PREFS_ONESIGNAL_USERSTATE_SYNCVALYES_ + persistKey, syncValues.toString());
-            OneSignalPrefs.saveString(OneSignalPrefs.PREFS_ONESIGNAL,
-                    OneSignalPrefs.PREFS_ONESIGNAL_USERSTATE_DEPENDVALYES_ + persistKey, dependValues.toString());
+            if (snapshot) {
+                // Values from older SDK versions are now in the log
+                OneSignalPrefs.saveString(OneSignalPrefs.PREFS_ONESIGNAL,
+                        OneSignalPrefs.PREFS_ONESIGNAL_USERSTATE_SYNCVALYES_ + persistKey, null);
+                OneSignalPrefs.saveString(OneSignalPrefs.PREFS_ONESIGNAL,
+                        OneSignalPrefs.PREFS_ONESIGNAL_USERSTATE_DEPENDVALYES_ + persistKey, null);
+            }
+            persistedVersion = persisting.version;
         }
     }
 
     void persistStateAfterSync(JSONObject inDependValues, JSONObject inSyncValues) {
         if (inDependValues != null)
-            generateJsonDiff(dependValues, inDependValues, dependValues, null);
+            generateJsonDiffFromIntoDependValues(inDependValues, null);
 
         if (inSyncValues != null) {
-            generateJsonDiff(syncValues, inSyncValues, syncValues, null);
+            generateJsonDiffFromIntoSyncValued(inSyncValues, null);
             mergeTags(inSyncValues, null);
         }
 
@@ -356,34 +536,28 @@ abstract class UserState {
             return;
 
         try {
-            JSONObject syncValues = getSyncValuesCopy();
-            JSONObject newTags;
-            if (syncValues.has(TAGS)) {
-                try {
-                    newTags = new JSONObject(syncValues.optString(TAGS));
-                } catch (JSONException e) {
+            synchronized (LOCK) {
+                // Read under LOCK too so a tag change made meanwhile isn't lost
+                JSONObject newTags = values.syncValues.optJSONObject(TAGS);
+                if (newTags == null)
                     newTags = new JSONObject();
+                JSONObject curTags = inSyncValues.optJSONObject(TAGS);
+                Iterator<String> keys = curTags.keys();
+                String key;
+
+                while (keys.hasNext()) {
+                    key = keys.next();
+                    if ("".equals(curTags.optString(key)))
+                        newTags.remove(key);
+                    else if (omitKeys == null || !omitKeys.has(key))
+                        newTags.put(key, curTags.optString(key));
                 }
-            } else {
-                newTags = new JSONObject();
-            }
-            JSONObject curTags = inSyncValues.optJSONObject(TAGS);
-            Iterator<String> keys = curTags.keys();
-            String key;
-
-            while (keys.hasNext()) {
-                key = keys.next();
-                if ("".equals(curTags.optString(key)))
-                    newTags.remove(key);
-                else if (omitKeys == null || !omitKeys.has(key))
-                    newTags.put(key, curTags.optString(key));
-            }
 
-            synchronized (LOCK) {
                 if (newTags.toString().equals("{}"))
-                    this.syncValues.remove(TAGS);
+                    values = values.withSyncValues(values.syncValues.without(TAGS));
                 else
-                    this.syncValues.put(TAGS, newTags);
+                    values = values.withSyncValues(values.syncValues.with(TAGS, newTags));
+                markSyncValueChanged(TAGS);
             }
         } catch (JSONException e) {
             e.printStackTrace();
@@ -392,40 +566,58 @@ abstract class UserState {
 
     JSONObject generateJsonDiffFromIntoSyncValued(JSONObject changedTo, Set<String> includeFields) {
         synchronized (LOCK) {
-            return JSONUtils.generateJsonDiff(syncValues, changedTo, syncValues, includeFields);
+            JSONObject output = generateJsonDiffInto(values.syncValues, changedTo, includeFields);
+            ImmutableJSONObject syncValues = new ImmutableJSONObject(output);
+            // Unchanged, keep the current version
+            if (syncValues.equals(values.syncValues))
+                return output;
+
+            values = values.withSyncValues(syncValues);
+            Iterator<String> keys = changedTo.keys();
+            while (keys.hasNext())
+                markSyncValueChanged(keys.next());
+            return output;
         }
     }
 
     JSONObject generateJsonDiffFromSyncValued(UserState changedTo, Set<String> includeFields) {
-        synchronized (LOCK) {
-            return JSONUtils.generateJsonDiff(syncValues, changedTo.syncValues, null, includeFields);
-        }
+        return JSONUtils.generateJsonDiff(getSyncValues().toJSONObject(), changedTo.getSyncValues().toJSONObject(), null, includeFields);
     }
 
     JSONObject generateJsonDiffFromIntoDependValues(JSONObject changedTo, Set<String> includeFields) {
         synchronized (LOCK) {
-            return JSONUtils.generateJsonDiff(dependValues, changedTo, dependValues, includeFields);
+            JSONObject output = generateJsonDiffInto(values.dependValues, changedTo, includeFields);
+            ImmutableJSONObject dependValues = new ImmutableJSONObject(output);
+            if (dependValues.equals(values.dependValues))
+                return output;
+
+            values = values.withDependValues(dependValues);
+            Iterator<String> keys = changedTo.keys();
+            while (keys.hasNext())
+                unpersistedDependKeys.add(keys.next());
+            return output;
         }
     }
 
     JSONObject generateJsonDiffFromDependValues(UserState changedTo, Set<String> includeFields) {
-        synchronized (LOCK) {
-            return JSONUtils.generateJsonDiff(dependValues, changedTo.dependValues, null, includeFields);
-        }
+        return JSONUtils.generateJsonDiff(getDependValues().toJSONObject(), changedTo.getDependValues().toJSONObject(), null, includeFields);
     }
 
-    private static JSONObject generateJsonDiff(JSONObject cur, JSONObject changedTo, JSONObject baseOutput, Set<String> includeFields) {
-        synchronized (LOCK) {
-            return JSONUtils.generateJsonDiff(cur, changedTo, baseOutput, includeFields);
-        }
+    /**
+     * Applies changedTo on top of a JSONObject of cur, the caller stores the result as the new snapshot
+     */
+    private static JSONObject generateJsonDiffInto(ImmutableJSONObject cur, JSONObject changedTo, Set<String> includeFields) {
+        JSONObject curJson = cur.toJSONObject();
+        return JSONUtils.generateJsonDiff(curJson, changedTo, curJson, includeFields);
     }
 
     @Override
     public String toString() {
+        Values values = this.values;
         return "UserState{" +
                 "persistKey='" + persistKey + '\'' +
-                ", dependValues=" + dependValues +
-                ", syncValues=" + syncValues +
+                ", dependValues=" + values.dependValues +
+                ", syncValues=" + values.syncValues +
                 '}';
     }
 }
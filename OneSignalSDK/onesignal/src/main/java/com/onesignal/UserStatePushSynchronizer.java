@@ -69,6 +69,7 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
                                 getToSyncUserState().persistState();
                             }
                         }
+                        OneSignal.getTagRefreshPolicy().onFetched(userId);
                     } catch (JSONException e) {
                         e.printStackTrace();
                     }
@@ -76,21 +77,17 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
             }, OneSignalRestClient.CACHE_KEY_GET_TAGS);
         }
 
-        synchronized(LOCK) {
-            return new GetTagsResult(serverSuccess, JSONUtils.getJSONObjectWithoutBlankValues(getToSyncUserState().getSyncValues(), TAGS));
-        }
+        return new GetTagsResult(serverSuccess, JSONUtils.getJSONObjectWithoutBlankValues(getToSyncUserState().getSyncValues(), TAGS));
     }
 
     @Override
     @Nullable String getExternalId(boolean fromServer) {
-        synchronized(LOCK) {
-            return getToSyncUserState().getSyncValues().optString(EXTERNAL_USER_ID, null);
-        }
+        return getToSyncUserState().getSyncValues().optString(EXTERNAL_USER_ID, null);
     }
 
     @Override
     protected void scheduleSyncToServer() {
-        getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).runNewJobDelayed();
+        scheduleSyncCycle();
     }
 
     @Override
@@ -147,7 +144,11 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
     @Override
     void setSubscription(boolean enable) {
         try {
+            boolean changed = getToSyncUserState().getDependValues().optBoolean(USER_SUBSCRIBE_PREF, true) != enable;
             getUserStateForModification().putOnDependValues(USER_SUBSCRIBE_PREF, enable);
+            // Don't hold notifications being turned on or off back behind the sync buffer
+            if (changed)
+                scheduleSyncCycleNow();
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -161,7 +162,10 @@ class UserStatePushSynchronizer extends UserStateSynchronizer {
     @Override
     public void setPermission(boolean enable) {
         try {
+            boolean changed = getToSyncUserState().getDependValues().optBoolean(ANDROID_PERMISSION, true) != enable;
             getUserStateForModification().putOnDependValues(ANDROID_PERMISSION, enable);
+            if (changed)
+                scheduleSyncCycleNow();
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -86,7 +86,7 @@ abstract class UserStateSecondaryChannelSynchronizer extends UserStateSynchroniz
         if (userNotRegistered || OneSignal.getUserId() == null)
             return;
 
-        getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).runNewJobDelayed();
+        scheduleSyncCycle();
     }
 
     @Override
@@ -0,0 +1,181 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.onesignal.OneSignalStateSynchronizer.UserStateSynchronizerType;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Syncs the user state of every channel from one worker thread.
+ * A change on any channel schedules a sync cycle after a short delay, each further change on any channel
+ *    doubles it so bursts of changes are sent together, up to a ceiling counted from the first change.
+ *    The cycle then syncs each channel with pending changes in turn, push first since email and SMS need
+ *    the push player id.
+ * Retries after a failed sync share one backoff, so a failure on one channel does not schedule
+ *    its own separate cycle. The backoff is only reset by a successful sync, and a change made while a retry
+ *    is pending never brings the retry forward.
+ */
+class UserStateSyncCoordinator extends HandlerThread {
+
+    private static final String THREAD_NAME = "OSH_NetworkHandlerThread";
+
+    static final int MAX_RETRIES = 3, NETWORK_CALL_DELAY_TO_BUFFER_MS = 5_000;
+    // The first change waits INITIAL_BUFFER_DELAY_MS, each change after it doubles the wait up to
+    //    NETWORK_CALL_DELAY_TO_BUFFER_MS, but never past MAX_BUFFER_MS from the first change so a
+    //    steady stream of changes can't hold the sync off
+    static final long INITIAL_BUFFER_DELAY_MS = 500, MAX_BUFFER_MS = 15_000;
+    static final long RETRY_BASE_DELAY_MS = 15_000, RETRY_MAX_DELAY_MS = 2 * 60 * 1_000;
+    final OSRetryScheduler.Backoff retryBackoff = new OSRetryScheduler.Backoff(RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, MAX_RETRIES);
+
+    final Handler mHandler;
+
+    // Channels to sync on the next cycle, guarded by mHandler
+    private final Set<UserStateSynchronizerType> pendingChannels = EnumSet.noneOf(UserStateSynchronizerType.class);
+    // Changes since the last cycle started, guarded by mHandler
+    private int bufferedChanges;
+    private long firstBufferedChangeAtMs;
+    // Elapsed realtime the posted cycle is due at and whether it is a retry, guarded by mHandler
+    private long syncDueAtMs;
+    private boolean retryPending;
+
+    private final Runnable syncCycle = new Runnable() {
+        @Override
+        public void run() {
+            OneSignalStateSynchronizer.flushTagWrites();
+
+            // The flush schedules a cycle of its own, this one already covers it
+            synchronized (mHandler) {
+                bufferedChanges = 0;
+                retryPending = false;
+                mHandler.removeCallbacks(this);
+            }
+
+            // Checked one channel at a time so a channel scheduled by an earlier one in this
+            //    cycle, such as email after the push player is created, is synced right away
+            for (UserStateSynchronizerType channel : UserStateSynchronizerType.values()) {
+                synchronized (mHandler) {
+                    if (!pendingChannels.remove(channel))
+                        continue;
+                }
+                OneSignalStateSynchronizer.getUserStateSynchronizer(channel).syncPendingUserState();
+            }
+        }
+    };
+
+    UserStateSyncCoordinator() {
+        super(THREAD_NAME);
+        start();
+        mHandler = new Handler(getLooper());
+    }
+
+    void scheduleSync(UserStateSynchronizerType channel) {
+        scheduleSync(channel, false);
+    }
+
+    /**
+     * Runs the cycle right away, along with any changes already buffered, for changes that shouldn't wait
+     *    such as the user turning notifications off
+     */
+    void scheduleSyncNow(UserStateSynchronizerType channel) {
+        scheduleSync(channel, true);
+    }
+
+    private void scheduleSync(UserStateSynchronizerType channel, boolean now) {
+        synchronized (mHandler) {
+            pendingChannels.add(channel);
+
+            long nowMs = OneSignal.getTime().getElapsedRealtime();
+            if (bufferedChanges++ == 0)
+                firstBufferedChangeAtMs = nowMs;
+
+            long delayMs = 0;
+            if (!now) {
+                delayMs = Math.min(INITIAL_BUFFER_DELAY_MS << Math.min(bufferedChanges - 1, 10), NETWORK_CALL_DELAY_TO_BUFFER_MS);
+                delayMs = Math.max(0, Math.min(delayMs, firstBufferedChangeAtMs + MAX_BUFFER_MS - nowMs));
+            }
+
+            // A pending retry is still backing off, or waiting out a Retry-After, the change goes out with it
+            if (retryPending)
+                delayMs = Math.max(delayMs, syncDueAtMs - nowMs);
+
+            postSyncCycle(delayMs, nowMs);
+        }
+    }
+
+    /**
+     * Called after a sync reached the server, the next failure starts backing off from the base delay again
+     */
+    void onSyncSucceeded() {
+        retryBackoff.reset();
+    }
+
+    // Retries if not passed limit, held back by a Retry-After the server sent for the failed url.
+    // Returns true if there retrying or there is another future sync scheduled already
+    boolean retrySync(UserStateSynchronizerType channel, String failedUrl) {
+        synchronized (mHandler) {
+            boolean futureSync = mHandler.hasMessages(0);
+
+            if (!futureSync) {
+                long delayMs = OneSignalRestClient.getRetryScheduler().nextDelayMs(failedUrl, retryBackoff);
+                if (delayMs >= 0) {
+                    postSyncCycle(delayMs, OneSignal.getTime().getElapsedRealtime());
+                    retryPending = true;
+                }
+            }
+
+            boolean retrying = mHandler.hasMessages(0);
+            if (retrying)
+                pendingChannels.add(channel);
+            return retrying;
+        }
+    }
+
+    // Must be called under mHandler
+    private void postSyncCycle(long delayMs, long nowMs) {
+        syncDueAtMs = nowMs + delayMs;
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.postDelayed(syncCycle, delayMs);
+    }
+
+    /**
+     * @return ms until the posted cycle is due, -1 if none is posted
+     */
+    long getSyncCycleDelayMs() {
+        synchronized (mHandler) {
+            if (!mHandler.hasMessages(0))
+                return -1;
+            return Math.max(0, syncDueAtMs - OneSignal.getTime().getElapsedRealtime());
+        }
+    }
+}
@@ -1,19 +1,22 @@
 package com.onesignal;
 
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.onesignal.OneSignal.ChangeTagsUpdateHandler;
 import com.onesignal.OneSignal.SendTagsError;
 import com.onesignal.OneSignalStateSynchronizer.UserStateSynchronizerType;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -47,7 +50,8 @@ abstract class UserStateSynchronizer {
     static final String SMS_AUTH_HASH_KEY = "sms_auth_hash";
     static final String APP_ID = "app_id";
 
-    // Object to synchronize on to prevent concurrent modifications on syncValues and dependValues
+    // Object to synchronize on to prevent concurrent modifications on syncValues and dependValues.
+    // Only writers take it, reads go through the UserState Values published by the last write.
     protected final Object LOCK = new Object();
 
     private UserStateSynchronizerType channel;
@@ -97,86 +101,20 @@ abstract class UserStateSynchronizer {
         return externalUserIdUpdateHandlers.size() > 0;
     }
 
-    class NetworkHandlerThread extends HandlerThread {
-        private static final String THREAD_NAME_PREFIX = "OSH_NetworkHandlerThread_";
-        protected static final int NETWORK_HANDLER_USERSTATE = 0;
-
-        int mType;
-
-        Handler mHandler;
-
-        static final int MAX_RETRIES = 3, NETWORK_CALL_DELAY_TO_BUFFER_MS = 5_000;
-        int currentRetry;
-
-        NetworkHandlerThread(int type) {
-            super(THREAD_NAME_PREFIX + UserStateSynchronizer.this.channel);
-            mType = type;
-            start();
-            mHandler = new Handler(getLooper());
-        }
-
-        void runNewJobDelayed() {
-            if (!canMakeUpdates)
-                return;
-
-            synchronized (mHandler) {
-                currentRetry = 0;
-                mHandler.removeCallbacksAndMessages(null);
-                mHandler.postDelayed(getNewRunnable(), NETWORK_CALL_DELAY_TO_BUFFER_MS);
-            }
-        }
-
-        private Runnable getNewRunnable() {
-            switch (mType) {
-                case NETWORK_HANDLER_USERSTATE:
-                    return new Runnable() {
-                        @Override
-                        public void run() {
-                            boolean syncUserState = !runningSyncUserState.get();
-                            if (syncUserState)
-                                syncUserState(false);
-                        }
-                    };
-            }
-
-            return null;
-        }
-
-        void stopScheduledRunnable() {
-            mHandler.removeCallbacksAndMessages(null);
-        }
-
-        // Retries if not passed limit.
-        // Returns true if there retrying or there is another future sync scheduled already
-        boolean doRetry() {
-            synchronized (mHandler) {
-                boolean doRetry = currentRetry < MAX_RETRIES;
-                boolean futureSync = mHandler.hasMessages(0);
-
-                if (doRetry && !futureSync) {
-                    currentRetry++;
-                    mHandler.postDelayed(getNewRunnable(), currentRetry * 15_000);
-                }
-
-                return mHandler.hasMessages(0);
-            }
-        }
-    }
-
-    HashMap<Integer, NetworkHandlerThread> networkHandlerThreads = new HashMap<>();
-    private final Object networkHandlerSyncLock = new Object() {};
-
     protected boolean waitingForSessionResponse = false;
 
     // currentUserState - Current known state of the user on OneSignal's server.
     // toSyncUserState  - Pending state that will be synced to the OneSignal server.
     //                    diff will be generated between currentUserState when a sync call is made to the server.
-    private UserState currentUserState, toSyncUserState;
+    private volatile UserState currentUserState, toSyncUserState;
+
+    // Sync versions of currentUserState and toSyncUserState when the server last acknowledged a sync.
+    // While both still match nothing was changed since, a sync is skipped and a session call only sends the
+    //    fields every request needs, without diffing. -1 when not known, such as after a reset.
+    private long ackedCurrentSyncVersion = -1, ackedToSyncSyncVersion = -1;
 
     protected JSONObject generateJsonDiff(JSONObject cur, JSONObject changedTo, JSONObject baseOutput, Set<String> includeFields) {
-        synchronized (LOCK) {
-            return JSONUtils.generateJsonDiff(cur, changedTo, baseOutput, includeFields);
-        }
+        return JSONUtils.generateJsonDiff(cur, changedTo, baseOutput, includeFields);
     }
 
     protected UserState getCurrentUserState() {
@@ -242,6 +180,12 @@ abstract class UserStateSynchronizer {
         return getToSyncUserState().getDependValues().optBoolean(LOGOUT_EMAIL, false);
     }
 
+    // Called by UserStateSyncCoordinator on each cycle this channel has pending changes for
+    void syncPendingUserState() {
+        if (!runningSyncUserState.get())
+            syncUserState(false);
+    }
+
     void syncUserState(boolean fromSyncService) {
         runningSyncUserState.set(true);
         internalSyncUserState(fromSyncService);
@@ -261,14 +205,22 @@ abstract class UserStateSynchronizer {
 
         final boolean isSessionCall = !fromSyncService && isSessionCall();
         JSONObject jsonBody, dependDiff;
+        long toSyncVersion;
         synchronized (LOCK) {
-            jsonBody = currentUserState.generateJsonDiff(getToSyncUserState(), isSessionCall);
             UserState toSyncState = getToSyncUserState();
+            currentUserState.addDependFields();
+            toSyncState.addDependFields();
+            toSyncVersion = toSyncState.getSyncVersion();
+            if (isAcknowledged(toSyncState))
+                jsonBody = isSessionCall ? currentUserState.generateUnchangedSessionBody() : null;
+            else
+                jsonBody = currentUserState.generateJsonDiff(toSyncState, isSessionCall);
             dependDiff = currentUserState.generateJsonDiffFromDependValues(toSyncState, null);;
             OneSignal.onesignalLog(OneSignal.LOG_LEVEL.DEBUG, "UserStateSynchronizer internalSyncUserState from session call: "+ isSessionCall + " jsonBody: " + jsonBody);
             // Updates did not result in a server side change, skipping network call
             if (jsonBody == null) {
                 currentUserState.persistStateAfterSync(dependDiff, null);
+                currentUserState.clearSyncedChanges(toSyncState);
                 sendTagsHandlersPerformOnSuccess();
                 externalUserIdUpdateHandlersPerformOnSuccess();
                 return;
@@ -277,13 +229,27 @@ abstract class UserStateSynchronizer {
         }
 
         if (!isSessionCall)
-            doPutSync(userId, jsonBody, dependDiff);
+            doPutSync(userId, jsonBody, dependDiff, toSyncVersion);
         else
-            doCreateOrNewSession(userId, jsonBody, dependDiff);
+            doCreateOrNewSession(userId, jsonBody, dependDiff, toSyncVersion);
+    }
+
+    // Must be called under LOCK
+    private boolean isAcknowledged(UserState toSyncState) {
+        return ackedCurrentSyncVersion == currentUserState.getSyncVersion() &&
+                ackedToSyncSyncVersion == toSyncState.getSyncVersion() &&
+                !currentUserState.hasLocationChange(toSyncState);
+    }
+
+    // Must be called under LOCK, after the synced body was applied to currentUserState
+    private void acknowledgeSync(long toSyncVersion) {
+        ackedCurrentSyncVersion = currentUserState.getSyncVersion();
+        ackedToSyncSyncVersion = toSyncVersion;
+        OneSignalStateSynchronizer.getSyncCoordinator().onSyncSucceeded();
     }
 
     private void doEmailLogout(String userId) {
-        String urlStr = "players/" + userId + "/email_logout";
+        final String urlStr = "players/" + userId + "/email_logout";
         JSONObject jsonBody = new JSONObject();
         try {
             ImmutableJSONObject dependValues = currentUserState.getDependValues();
@@ -312,7 +278,7 @@ abstract class UserStateSynchronizer {
                 if (response400WithErrorsContaining(statusCode, response, "not a valid device_type"))
                     handlePlayerDeletedFromServer();
                 else
-                    handleNetworkFailure(statusCode);
+                    handleNetworkFailure(statusCode, urlStr);
             }
 
             @Override
@@ -323,6 +289,7 @@ abstract class UserStateSynchronizer {
     }
 
     private void logoutEmailSyncSuccess() {
+        OneSignalStateSynchronizer.getSyncCoordinator().onSyncSucceeded();
         getToSyncUserState().removeFromDependValues(LOGOUT_EMAIL);
         toSyncUserState.removeFromDependValues(EMAIL_AUTH_HASH_KEY);
         toSyncUserState.removeFromSyncValues(PARENT_PLAYER_ID);
@@ -340,7 +307,7 @@ abstract class UserStateSynchronizer {
         OneSignal.handleSuccessfulEmailLogout();
     }
 
-    private void doPutSync(String userId, final JSONObject jsonBody, final JSONObject dependDiff) {
+    private void doPutSync(String userId, final JSONObject jsonBody, final JSONObject dependDiff, final long toSyncVersion) {
         if (userId == null) {
             OneSignal.onesignalLog(getLogLevel(), "Error updating the user record because of the null user id");
             sendTagsHandlersPerformOnFailure(new SendTagsError(-1, "Unable to update tags: the current user is not registered with OneSignal"));
@@ -348,7 +315,8 @@ abstract class UserStateSynchronizer {
             return;
         }
 
-        OneSignalRestClient.putSync("players/" + userId, jsonBody, new OneSignalRestClient.ResponseHandler() {
+        final String urlStr = "players/" + userId;
+        OneSignalRestClient.putSync(urlStr, jsonBody, new OneSignalRestClient.ResponseHandler() {
             @Override
             void onFailure(int statusCode, String response, Throwable throwable) {
                 OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Failed PUT sync request with status code: " + statusCode + " and response: " + response);
@@ -357,7 +325,7 @@ abstract class UserStateSynchronizer {
                     if (response400WithErrorsContaining(statusCode, response, "No user with this id found"))
                         handlePlayerDeletedFromServer();
                     else
-                        handleNetworkFailure(statusCode);
+                        handleNetworkFailure(statusCode, urlStr);
                 }
 
                 if (jsonBody.has(TAGS))
@@ -373,6 +341,8 @@ abstract class UserStateSynchronizer {
             void onSuccess(String response) {
                 synchronized (LOCK) {
                     currentUserState.persistStateAfterSync(dependDiff, jsonBody);
+                    currentUserState.clearSyncedChanges(getToSyncUserState());
+                    acknowledgeSync(toSyncVersion);
                     onSuccessfulSync(jsonBody);
                 }
 
@@ -385,8 +355,8 @@ abstract class UserStateSynchronizer {
         });
     }
 
-    private void doCreateOrNewSession(final String userId, final JSONObject jsonBody, final JSONObject dependDiff) {
-        String urlStr;
+    private void doCreateOrNewSession(final String userId, final JSONObject jsonBody, final JSONObject dependDiff, final long toSyncVersion) {
+        final String urlStr;
         if (userId == null)
             urlStr = "players";
         else
@@ -394,7 +364,7 @@ abstract class UserStateSynchronizer {
 
         waitingForSessionResponse = true;
         addOnSessionOrCreateExtras(jsonBody);
-        OneSignalRestClient.postSync(urlStr, jsonBody, new OneSignalRestClient.ResponseHandler() {
+        OneSignalRestClient.postSync(urlStr, jsonBody, new OneSignalRestClient.StreamingResponseHandler<SessionResponse>() {
             @Override
             void onFailure(int statusCode, String response, Throwable throwable) {
                 synchronized (LOCK) {
@@ -404,24 +374,55 @@ abstract class UserStateSynchronizer {
                     if (response400WithErrorsContaining(statusCode, response, "not a valid device_type"))
                         handlePlayerDeletedFromServer();
                     else
-                        handleNetworkFailure(statusCode);
+                        handleNetworkFailure(statusCode, urlStr);
                 }
             }
 
             @Override
-            void onSuccess(String response) {
+            void onUnparsableResponse(int statusCode, Throwable throwable) {
                 synchronized (LOCK) {
                     waitingForSessionResponse = false;
+                    // The server applied the request, sending it again could create a duplicate player
                     currentUserState.persistStateAfterSync(dependDiff, jsonBody);
+                    currentUserState.clearSyncedChanges(getToSyncUserState());
+                    acknowledgeSync(toSyncVersion);
+                    OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "ERROR parsing on_session or create JSON Response.", throwable);
+                }
+            }
+
+            // The in_app_messages list can be large, it is read one message at a time without
+            //   holding the whole response as a String first
+            @Override
+            SessionResponse parseResponse(@NonNull JsonReader reader) throws IOException, JSONException {
+                SessionResponse sessionResponse = new SessionResponse();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (ID.equals(name) && reader.peek() == JsonToken.STRING)
+                        sessionResponse.id = reader.nextString();
+                    else if (IN_APP_MESSAGES_JSON_KEY.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY)
+                        sessionResponse.inAppMessages = JSONUtils.readJSONArray(reader);
+                    else
+                        reader.skipValue();
+                }
+                reader.endObject();
+                return sessionResponse;
+            }
+
+            @Override
+            void onParsed(SessionResponse response) {
+                synchronized (LOCK) {
+                    waitingForSessionResponse = false;
+                    currentUserState.persistStateAfterSync(dependDiff, jsonBody);
+                    currentUserState.clearSyncedChanges(getToSyncUserState());
+                    acknowledgeSync(toSyncVersion);
 
                     try {
                         OneSignal.onesignalLog(OneSignal.LOG_LEVEL.DEBUG, "doCreateOrNewSession:response: " + response);
-                        JSONObject jsonResponse = new JSONObject(response);
 
-                        if (jsonResponse.has(ID)) {
-                            String newUserId = jsonResponse.optString(ID);
-                            updateIdDependents(newUserId);
-                            OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "Device registered, UserId = " + newUserId);
+                        if (response.id != null) {
+                            updateIdDependents(response.id);
+                            OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "Device registered, UserId = " + response.id);
                         }
                         else
                             OneSignal.Log(OneSignal.LOG_LEVEL.INFO, "session sent, UserId = " + userId);
@@ -430,8 +431,8 @@ abstract class UserStateSynchronizer {
                         getUserStateForModification().persistState();
 
                         // List of in app messages to evaluate for the session
-                        if (jsonResponse.has(IN_APP_MESSAGES_JSON_KEY))
-                            OneSignal.getInAppMessageController().receivedInAppMessageJson(jsonResponse.getJSONArray(IN_APP_MESSAGES_JSON_KEY));
+                        if (response.inAppMessages != null)
+                            OneSignal.getInAppMessageController().receivedInAppMessageJson(response.inAppMessages);
 
                         onSuccessfulSync(jsonBody);
                     } catch (JSONException e) {
@@ -442,16 +443,32 @@ abstract class UserStateSynchronizer {
         });
     }
 
+    /**
+     * The parts of the create and on_session responses that are used
+     */
+    private static class SessionResponse {
+        String id;
+        JSONArray inAppMessages;
+
+        @Override
+        public String toString() {
+            return "SessionResponse{" +
+                    "id=" + id +
+                    ", inAppMessages=" + (inAppMessages == null ? 0 : inAppMessages.length()) +
+                    '}';
+        }
+    }
+
     protected abstract void onSuccessfulSync(JSONObject jsonField);
 
-    private void handleNetworkFailure(int statusCode) {
+    private void handleNetworkFailure(int statusCode, String failedUrl) {
         if (statusCode == HttpURLConnection.HTTP_FORBIDDEN) {
             OneSignal.Log(OneSignal.LOG_LEVEL.FATAL, "403 error updating player, omitting further retries!");
             fireNetworkFailureEvents();
             return;
         }
 
-        boolean retried = getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).doRetry();
+        boolean retried = OneSignalStateSynchronizer.getSyncCoordinator().retrySync(channel, failedUrl);
         // If there are no more retries and still pending changes send out event of what failed to sync
         if (!retried)
             fireNetworkFailureEvents();
@@ -483,12 +500,20 @@ abstract class UserStateSynchronizer {
         return false;
     }
 
-    protected NetworkHandlerThread getNetworkHandlerThread(Integer type) {
-        synchronized (networkHandlerSyncLock) {
-            if (!networkHandlerThreads.containsKey(type))
-                networkHandlerThreads.put(type, new NetworkHandlerThread(type));
-            return networkHandlerThreads.get(type);
-        }
+    // Adds this channel to the next sync cycle, which is shared with the other channels
+    protected void scheduleSyncCycle() {
+        if (!canMakeUpdates)
+            return;
+
+        OneSignalStateSynchronizer.getSyncCoordinator().scheduleSync(channel);
+    }
+
+    // Same as scheduleSyncCycle but without waiting for more changes to buffer
+    protected void scheduleSyncCycleNow() {
+        if (!canMakeUpdates)
+            return;
+
+        OneSignalStateSynchronizer.getSyncCoordinator().scheduleSyncNow(channel);
     }
 
     // Get a JSONObject to apply changes to
@@ -526,9 +551,8 @@ abstract class UserStateSynchronizer {
         return getUserStateForModification().getDependValues().optBoolean(SESSION);
     }
 
-    void sendTags(JSONObject tags, @Nullable ChangeTagsUpdateHandler handler) {
-        if (handler != null)
-            this.sendTagsHandlers.add(handler);
+    void sendTags(JSONObject tags, List<ChangeTagsUpdateHandler> handlers) {
+        this.sendTagsHandlers.addAll(handlers);
         UserState userStateTags = getUserStateForModification();
         userStateTags.generateJsonDiffFromIntoSyncValued(tags, null);
     }
@@ -558,6 +582,11 @@ abstract class UserStateSynchronizer {
     }
 
     void resetCurrentState() {
+        synchronized (LOCK) {
+            // The server state is no longer known, the next sync sends everything
+            ackedCurrentSyncVersion = -1;
+            ackedToSyncSyncVersion = -1;
+        }
         currentUserState.setSyncValues(new JSONObject());
         currentUserState.persistState();
     }
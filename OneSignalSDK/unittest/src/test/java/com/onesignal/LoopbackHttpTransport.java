@@ -0,0 +1,105 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2021 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.onesignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers every request in memory without a network, so OneSignalRestClient can be driven
+ *    at full speed, such as to measure request throughput.
+ */
+public class LoopbackHttpTransport implements OSHttpTransport {
+
+   private final AtomicInteger callCount = new AtomicInteger();
+   private volatile int status = 200;
+   private volatile byte[] responseBody = "{}".getBytes(StandardCharsets.UTF_8);
+   private volatile Request lastRequest;
+
+   public void setResponse(int status, String responseBody) {
+      this.status = status;
+      this.responseBody = responseBody.getBytes(StandardCharsets.UTF_8);
+   }
+
+   public int getCallCount() {
+      return callCount.get();
+   }
+
+   public Request getLastRequest() {
+      return lastRequest;
+   }
+
+   @Override
+   public @NonNull Call newCall(@NonNull final Request request) {
+      return new Call() {
+         @Override
+         public @NonNull Response execute() {
+            callCount.incrementAndGet();
+            lastRequest = request;
+            return new LoopbackResponse(status, responseBody);
+         }
+
+         @Override
+         public void cancel() {
+         }
+      };
+   }
+
+   private static class LoopbackResponse implements Response {
+      private final int status;
+      private final byte[] body;
+
+      LoopbackResponse(int status, byte[] body) {
+         this.status = status;
+         this.body = body;
+      }
+
+      @Override
+      public int getStatusCode() {
+         return status;
+      }
+
+      @Override
+      public @Nullable String getHeader(@NonNull String name) {
+         return null;
+      }
+
+      @Override
+      public @Nullable InputStream getBody() {
+         return new ByteArrayInputStream(body);
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
@@ -28,10 +28,13 @@
 package com.onesignal;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,13 +48,21 @@ public class MockHttpURLConnection extends HttpURLConnection {
 
    public static class MockResponse {
       public String responseBody;
+      // Raw bytes to respond with instead of responseBody, such as a gzipped body
+      public byte[] responseBytes;
       public String errorResponseBody;
       public boolean mockThreadHang;
+      public boolean mockOffline;
       public int status;
       public Map<String, String> mockProps = new HashMap<>();
    }
 
    private MockResponse mockResponse;
+   private ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+
+   public byte[] getRequestBody() {
+      return requestBody.toByteArray();
+   }
 
    MockHttpURLConnection(URL url, MockResponse response) {
       super(url);
@@ -80,6 +91,9 @@ public class MockHttpURLConnection extends HttpURLConnection {
 
    @Override
    public int getResponseCode() throws IOException {
+      if (mockResponse.mockOffline)
+         throw new UnknownHostException("Mock device is offline");
+
       if (mockResponse.mockThreadHang) {
          try {
             Thread.sleep(120_000);
@@ -92,8 +106,15 @@ public class MockHttpURLConnection extends HttpURLConnection {
       return mockResponse.status;
    }
 
+   @Override
+   public OutputStream getOutputStream() throws IOException {
+      return requestBody;
+   }
+
    @Override
    public InputStream getInputStream() throws IOException {
+      if (mockResponse.responseBytes != null)
+         return new ByteArrayInputStream(mockResponse.responseBytes);
       return new ByteArrayInputStream(StandardCharsets.UTF_8.encode(mockResponse.responseBody).array());
    }
 
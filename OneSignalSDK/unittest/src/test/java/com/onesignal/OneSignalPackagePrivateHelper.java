@@ -3,7 +3,9 @@ package com.onesignal;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.os.Bundle;
+import android.util.JsonReader;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -16,13 +18,17 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.robolectric.util.Scheduler;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.FutureTask;
 
 import static com.test.onesignal.TestHelpers.threadAndTaskWait;
 import static org.robolectric.Shadows.shadowOf;
@@ -34,42 +40,17 @@ public class OneSignalPackagePrivateHelper {
 
    private static final String LOGCAT_TAG = "OS_PACKAGE_HELPER";
 
-   private static abstract class RunnableArg<T> {
-      abstract void run(T object) throws Exception;
-   }
-
-   private static void processNetworkHandles(RunnableArg runnable) throws Exception {
-      Set<Map.Entry<Integer, UserStateSynchronizer.NetworkHandlerThread>> entrySet;
-
-      entrySet = OneSignalStateSynchronizer.getPushStateSynchronizer().networkHandlerThreads.entrySet();
-      for (Map.Entry<Integer, UserStateSynchronizer.NetworkHandlerThread> handlerThread : entrySet)
-         runnable.run(handlerThread.getValue());
-
-      entrySet = OneSignalStateSynchronizer.getEmailStateSynchronizer().networkHandlerThreads.entrySet();
-      for (Map.Entry<Integer, UserStateSynchronizer.NetworkHandlerThread> handlerThread : entrySet)
-         runnable.run(handlerThread.getValue());
-
-      entrySet = OneSignalStateSynchronizer.getSMSStateSynchronizer().networkHandlerThreads.entrySet();
-      for (Map.Entry<Integer, UserStateSynchronizer.NetworkHandlerThread> handlerThread : entrySet)
-         runnable.run(handlerThread.getValue());
-   }
-
-   private static boolean startedRunnable;
    public static boolean runAllNetworkRunnables() throws Exception {
-      startedRunnable = false;
-
-      RunnableArg runnable = new RunnableArg<UserStateSynchronizer.NetworkHandlerThread>() {
-         @Override
-         void run(UserStateSynchronizer.NetworkHandlerThread handlerThread) throws Exception {
-            synchronized (handlerThread.mHandler) {
-               Scheduler scheduler = shadowOf(handlerThread.getLooper()).getScheduler();
-               while (scheduler.runOneTask())
-                  startedRunnable = true;
-            }
-         }
-      };
-
-      processNetworkHandles(runnable);
+      UserStateSyncCoordinator syncCoordinator = OneSignalStateSynchronizer.syncCoordinator;
+      if (syncCoordinator == null)
+         return false;
+
+      boolean startedRunnable = false;
+      synchronized (syncCoordinator.mHandler) {
+         Scheduler scheduler = shadowOf(syncCoordinator.getLooper()).getScheduler();
+         while (scheduler.runOneTask())
+            startedRunnable = true;
+      }
 
       return startedRunnable;
    }
@@ -219,6 +200,9 @@ public class OneSignalPackagePrivateHelper {
    public static class InAppMessageTable extends OneSignalDbContract.InAppMessageTable {
    }
 
+   public static class OutboundRequestTable extends OneSignalDbContract.OutboundRequestTable {
+   }
+
    public static class OSNotificationRestoreWorkManager extends com.onesignal.OSNotificationRestoreWorkManager {
    }
 
@@ -247,12 +231,25 @@ public class OneSignalPackagePrivateHelper {
    }
 
    public static class OneSignalRestClient extends com.onesignal.OneSignalRestClient {
+      public static final String CACHE_KEY_GET_TAGS = com.onesignal.OneSignalRestClient.CACHE_KEY_GET_TAGS;
+
       public static abstract class ResponseHandler extends com.onesignal.OneSignalRestClient.ResponseHandler {
          @Override
          public void onSuccess(String response) {}
          @Override
          public void onFailure(int statusCode, String response, Throwable throwable) {}
       }
+
+      public static abstract class StreamingResponseHandler<T> extends com.onesignal.OneSignalRestClient.StreamingResponseHandler<T> {
+         @Override
+         public abstract T parseResponse(@NonNull JsonReader reader) throws IOException, JSONException;
+         @Override
+         public void onParsed(T result) {}
+         @Override
+         public void onUnparsableResponse(int statusCode, Throwable throwable) {}
+         @Override
+         public void onFailure(int statusCode, String response, Throwable throwable) {}
+      }
    }
 
    public static String NotificationChannelManager_createNotificationChannel(Context context, JSONObject payload) {
@@ -275,6 +272,36 @@ public class OneSignalPackagePrivateHelper {
 
    public class TestOneSignalPrefs extends com.onesignal.OneSignalPrefs {}
 
+   public static final int OSAppendLogKeyValueStore_MAX_STALE_RECORDS_BEFORE_COMPACT = OSAppendLogKeyValueStore.MAX_STALE_RECORDS_BEFORE_COMPACT;
+
+   /**
+    * Opens a new store for prefsName so the value comes from what was written to disk
+    */
+   public static Object OneSignalPrefs_readFromDisk(Context context, String prefsName, String key) {
+      return OneSignalPrefs.storeFactory.open(context, prefsName).get(key);
+   }
+
+   public static boolean OneSignalPrefs_flushBarrier() {
+      return OneSignalPrefs.flushBarrier();
+   }
+
+   public static boolean OneSignalPrefs_isStoreOpen(String prefsName) {
+      FutureTask<OSKeyValueStore> store = OneSignalPrefs.stores.get(prefsName);
+      return store != null && store.isDone();
+   }
+
+   public static boolean OneSignalPrefs_canOpenStore(Context context, String prefsName) {
+      return OneSignalPrefs.storeFactory.open(context, prefsName) != null;
+   }
+
+   public static File OSAppendLogKeyValueStore_getFile(Context context, String prefsName) {
+      return OSAppendLogKeyValueStore.getFile(context, prefsName);
+   }
+
+   public static int OneSignalPrefs_getRecordCount(String prefsName) {
+      return ((OSAppendLogKeyValueStore)OneSignalPrefs.getStore(prefsName)).getRecordCount();
+   }
+
    public static void OneSignal_onAppLostFocus() {
       OneSignal.onAppLostFocus();
    }
@@ -293,6 +320,119 @@ public class OneSignalPackagePrivateHelper {
       OneSignal.getDelayTaskController().shutdownNow();
    }
 
+   /**
+    * Stops all OneSignalRestClient threads and makes future ones idle out right away,
+    *    otherwise TestHelpers would keep waiting on idle pooled OS_ threads.
+    */
+   public static void OneSignalRestClient_resetDispatcher() {
+      OSHttpDispatcher dispatcher = com.onesignal.OneSignalRestClient.getDispatcher();
+      dispatcher.configure(
+         OSHttpDispatcher.DEFAULT_MAX_CONCURRENT_REQUESTS,
+         OSHttpDispatcher.DEFAULT_MAX_CALLBACK_THREADS,
+         1
+      );
+      dispatcher.shutdownNow();
+   }
+
+   /**
+    * @param priority name of an OSHttpDispatcher.Priority, ex. "SESSION"
+    */
+   public static void OneSignalRestClient_executeRequest(String priority, Runnable request) {
+      com.onesignal.OneSignalRestClient.getDispatcher().executeRequest(OSHttpDispatcher.Priority.valueOf(priority), request);
+   }
+
+   public static final int OSRequestJournal_DRAIN_BATCH_SIZE = OSRequestJournal.DRAIN_BATCH_SIZE;
+
+   public static int OneSignalRestClient_getJournaledRequestCount() {
+      Cursor cursor = OneSignal.getDBHelperInstance().query(OutboundRequestTable.TABLE_NAME, null, null, null, null, null, null);
+      int count = cursor.getCount();
+      cursor.close();
+      return count;
+   }
+
+   public static void OneSignalRestClient_configureDispatcher(int maxConcurrentRequests, int maxCallbackThreads) {
+      com.onesignal.OneSignalRestClient.getDispatcher().configure(maxConcurrentRequests, maxCallbackThreads, 1);
+   }
+
+   public static void OneSignalRestClient_setResponseCacheMaxSize(long maxSizeBytes) {
+      com.onesignal.OneSignalRestClient.getResponseCache().setMaxSizeBytes(maxSizeBytes);
+   }
+
+   public static void OneSignalRestClient_resetResponseCacheMaxSize() {
+      OneSignalRestClient_setResponseCacheMaxSize(OSHttpResponseCache.DEFAULT_MAX_SIZE_BYTES);
+   }
+
+   public static void OneSignalRestClient_reopenResponseCache() {
+      com.onesignal.OneSignalRestClient.getResponseCache().close();
+   }
+
+   public static void OneSignalRestClient_setRequestCompression(String endpointTemplate, boolean enabled) {
+      com.onesignal.OneSignalRestClient.getCompression().setRequestCompression(endpointTemplate, enabled);
+   }
+
+   public static long[] OneSignalRestClient_getCompressionByteCounts() {
+      OSHttpCompression compression = com.onesignal.OneSignalRestClient.getCompression();
+      return new long[] {
+         compression.getRequestBodyBytes(),
+         compression.getRequestWireBytes(),
+         compression.getResponseBodyBytes(),
+         compression.getResponseWireBytes()
+      };
+   }
+
+   public static void OneSignalRestClient_resetCompression() {
+      OSHttpCompression compression = com.onesignal.OneSignalRestClient.getCompression();
+      compression.setRequestCompressionEndpoints(null);
+      compression.resetCounters();
+   }
+
+   public static void OneSignalRestClient_setMemoizeWindow(long memoizeWindowMs) {
+      com.onesignal.OneSignalRestClient.getCoalescer().setMemoizeWindowMs(memoizeWindowMs);
+   }
+
+   public static void OneSignalRestClient_onWriteStarted() {
+      com.onesignal.OneSignalRestClient.getCoalescer().onWriteStarted();
+   }
+
+   public static void OneSignalRestClient_onWriteFinished() {
+      com.onesignal.OneSignalRestClient.getCoalescer().onWriteFinished();
+   }
+
+   /**
+    * Most tests make back to back GETs to the same mock url expecting a new response each time,
+    *    so memoizing is off unless a test turns it on.
+    */
+   public static void OneSignalRestClient_resetCoalescer() {
+      OSRequestCoalescer coalescer = com.onesignal.OneSignalRestClient.getCoalescer();
+      coalescer.setMemoizeWindowMs(0);
+      coalescer.clearInFlightRequests();
+   }
+
+   /**
+    * Drops scheduled retries and per endpoint Retry-After and budget state so they don't carry into the next test
+    */
+   public static void OneSignalRestClient_resetRetryScheduler() {
+      com.onesignal.OneSignalRestClient.getRetryScheduler().shutdownNow();
+   }
+
+   /**
+    * @return delay of the next retry to url, -1 if out of attempts
+    */
+   public static long OneSignalRestClient_nextRetryDelay(String url, long baseDelayMs, long maxDelayMs, int maxAttempts) {
+      OSRetryScheduler.Backoff backoff = new OSRetryScheduler.Backoff(baseDelayMs, maxDelayMs, maxAttempts);
+      return com.onesignal.OneSignalRestClient.getRetryScheduler().nextDelayMs(url, backoff);
+   }
+
+   public static void OneSignalRestClient_resetTransport() {
+      com.onesignal.OneSignalRestClient.setTransport(null);
+   }
+
+   public static void OneSignalRestClient_resetMetrics() {
+      OSHttpMetrics metrics = com.onesignal.OneSignalRestClient.getMetrics();
+      metrics.setListener(null);
+      metrics.reset();
+   }
+
    public static boolean OneSignal_requiresUserPrivacyConsent() {
       return OneSignal.requiresUserPrivacyConsent();
    }
@@ -612,6 +752,118 @@ public class OneSignalPackagePrivateHelper {
       }
    }
 
+   /**
+    * Loads the sync values saved for persistKey, the same way they would be read on the next app start
+    */
+   public static JSONObject UserState_getPersistedSyncValues(String persistKey) throws JSONException {
+      return new UserStatePush(persistKey, true).getSyncValuesCopy();
+   }
+
+   /**
+    * A push UserState loaded from disk, for tests of how its changes are persisted
+    */
+   public static class TestUserState {
+      private final UserStatePush userState;
+
+      public TestUserState(String persistKey) {
+         userState = new UserStatePush(persistKey, true);
+      }
+
+      public void putOnSyncValues(String key, Object value) throws JSONException {
+         userState.putOnSyncValues(key, value);
+      }
+
+      public void persistState() {
+         userState.persistState();
+      }
+
+      /**
+       * Runs duringPersist while a persistState on another thread has taken the values it writes but not yet
+       *    written them
+       */
+      public void persistStateDuring(Runnable duringPersist) throws Exception {
+         Field operationLogField = com.onesignal.UserState.class.getDeclaredField("operationLog");
+         operationLogField.setAccessible(true);
+         Object operationLog = operationLogField.get(userState);
+
+         Thread persistThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               userState.persistState();
+            }
+         }, "TEST_PersistState");
+
+         // The persist waits on the log's monitor to write
+         synchronized (operationLog) {
+            persistThread.start();
+            while (!isWaitingOnOperationLog(persistThread)) {
+               if (persistThread.getState() == Thread.State.TERMINATED)
+                  throw new IllegalStateException("persistState returned without writing");
+               Thread.sleep(1);
+            }
+            duringPersist.run();
+         }
+         persistThread.join();
+      }
+
+      private static boolean isWaitingOnOperationLog(Thread thread) {
+         if (thread.getState() != Thread.State.BLOCKED)
+            return false;
+         StackTraceElement[] stackTrace = thread.getStackTrace();
+         return stackTrace.length > 0 && stackTrace[0].getClassName().equals(OSUserStateOperationLog.class.getName());
+      }
+   }
+
+   public static File UserState_getOperationLogFile(String persistKey) {
+      return new File(OneSignal.appContext.getFilesDir(), OSUserStateOperationLog.FILE_NAME_PREFIX + persistKey);
+   }
+
+   public static final long OSTagRefreshPolicy_DEFAULT_MAX_STALENESS_MS = OSTagRefreshPolicy.DEFAULT_MAX_STALENESS_MS;
+
+   public static long OneSignalStateSynchronizer_getCoalescedTagWriteCount() {
+      return OneSignalStateSynchronizer.getTagWriteBuffer().getTotalCoalescedWrites();
+   }
+
+   /**
+    * Stops sync cycles from running on their own, they then only run from {@link #runAllNetworkRunnables()}
+    */
+   public static void OneSignalStateSynchronizer_pauseSyncCycles() {
+      shadowOf(OneSignalStateSynchronizer.getSyncCoordinator().getLooper()).getScheduler().pause();
+   }
+
+   /**
+    * Runs the next posted sync cycle only, cycles it schedules are left posted
+    */
+   public static boolean OneSignalStateSynchronizer_runSyncCycle() {
+      UserStateSyncCoordinator syncCoordinator = OneSignalStateSynchronizer.getSyncCoordinator();
+      synchronized (syncCoordinator.mHandler) {
+         return shadowOf(syncCoordinator.getLooper()).getScheduler().runOneTask();
+      }
+   }
+
+   public static void OneSignalStateSynchronizer_scheduleSync() {
+      OneSignalStateSynchronizer.getSyncCoordinator().scheduleSync(OneSignalStateSynchronizer.UserStateSynchronizerType.PUSH);
+   }
+
+   public static void OneSignalStateSynchronizer_scheduleSyncNow() {
+      OneSignalStateSynchronizer.getSyncCoordinator().scheduleSyncNow(OneSignalStateSynchronizer.UserStateSynchronizerType.PUSH);
+   }
+
+   public static boolean OneSignalStateSynchronizer_retrySync(String failedUrl) {
+      return OneSignalStateSynchronizer.getSyncCoordinator().retrySync(OneSignalStateSynchronizer.UserStateSynchronizerType.PUSH, failedUrl);
+   }
+
+   /**
+    * @return ms until the next sync cycle runs, -1 if none is scheduled
+    */
+   public static long OneSignalStateSynchronizer_getSyncCycleDelayMs() {
+      return OneSignalStateSynchronizer.getSyncCoordinator().getSyncCycleDelayMs();
+   }
+
+   public static int OneSignalStateSynchronizer_getRetryAttempt() {
+      return OneSignalStateSynchronizer.getSyncCoordinator().retryBackoff.getAttempt();
+   }
+
    public static class WebViewManager extends com.onesignal.WebViewManager {
 
       public static void callDismissAndAwaitNextMessage() {
@@ -627,6 +879,87 @@ public class OneSignalPackagePrivateHelper {
       }
    }
 
+   /**
+    * Wraps com.onesignal.ImmutableJSONObject, each call returns a new wrapper so use isSameInstance to check
+    *    whether a change returned the same instance
+    */
+   public static class ImmutableJSONObject {
+      private final com.onesignal.ImmutableJSONObject immutableJSONObject;
+
+      public ImmutableJSONObject() {
+         this(new com.onesignal.ImmutableJSONObject());
+      }
+
+      public ImmutableJSONObject(JSONObject jsonObject) {
+         this(new com.onesignal.ImmutableJSONObject(jsonObject));
+      }
+
+      private ImmutableJSONObject(com.onesignal.ImmutableJSONObject immutableJSONObject) {
+         this.immutableJSONObject = immutableJSONObject;
+      }
+
+      public boolean isSameInstance(ImmutableJSONObject other) {
+         return immutableJSONObject == other.immutableJSONObject;
+      }
+
+      public ImmutableJSONObject with(String key, Object value) {
+         return new ImmutableJSONObject(immutableJSONObject.with(key, value));
+      }
+
+      public ImmutableJSONObject withAll(Map<String, Object> changes) {
+         return new ImmutableJSONObject(immutableJSONObject.withAll(changes));
+      }
+
+      public ImmutableJSONObject without(String key) {
+         return new ImmutableJSONObject(immutableJSONObject.without(key));
+      }
+
+      public ImmutableJSONObject withoutAll(Collection<String> keys) {
+         return new ImmutableJSONObject(immutableJSONObject.withoutAll(keys));
+      }
+
+      public @Nullable ImmutableJSONObject optImmutableJSONObject(String name) {
+         com.onesignal.ImmutableJSONObject nested = immutableJSONObject.optImmutableJSONObject(name);
+         return nested != null ? new ImmutableJSONObject(nested) : null;
+      }
+
+      public JSONObject toJSONObject() {
+         return immutableJSONObject.toJSONObject();
+      }
+
+      public boolean has(String name) {
+         return immutableJSONObject.has(name);
+      }
+
+      public Object opt(String name) {
+         return immutableJSONObject.opt(name);
+      }
+
+      public String optString(String name) {
+         return immutableJSONObject.optString(name);
+      }
+
+      public boolean optBoolean(String name) {
+         return immutableJSONObject.optBoolean(name);
+      }
+
+      public long optLong(String name) {
+         return immutableJSONObject.optLong(name);
+      }
+
+      public int optInt(String name) {
+         return immutableJSONObject.optInt(name);
+      }
+
+      public long getLong(String name) throws JSONException {
+         return immutableJSONObject.getLong(name);
+      }
+
+      public JSONObject optJSONObject(String name) {
+         return immutableJSONObject.optJSONObject(name);
+      }
+   }
+
    public static class JSONUtils extends com.onesignal.JSONUtils {
 
       public @Nullable static Map<String, Object> jsonObjectToMap(@Nullable JSONObject json) throws JSONException {
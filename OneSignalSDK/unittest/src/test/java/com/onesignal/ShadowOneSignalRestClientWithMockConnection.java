@@ -34,10 +34,12 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
-@Implements(OneSignalRestClient.class)
+// Mocks the connections of the default transport so requests go through all of OneSignalRestClient
+@Implements(OSHttpURLConnectionTransport.class)
 public class ShadowOneSignalRestClientWithMockConnection {
 
    public static MockHttpURLConnection lastConnection;
+   public static int connectionCount;
    public static MockHttpURLConnection.MockResponse mockResponse;
 
    public static void resetStatics() {
@@ -46,6 +48,7 @@ public class ShadowOneSignalRestClientWithMockConnection {
          status = 200;
       }};
       lastConnection = null;
+      connectionCount = 0;
    }
    
    public static int getThreadTimeout(int timeout) {
@@ -53,9 +56,10 @@ public class ShadowOneSignalRestClientWithMockConnection {
    }
 
    @Implementation
-   public static HttpURLConnection newHttpURLConnection(String url) throws IOException {
+   public HttpURLConnection openConnection(String url) throws IOException {
+      connectionCount++;
       lastConnection = new MockHttpURLConnection(
-         new URL("https://onesignal.com/api/v1/" + url),
+         new URL(url),
          mockResponse
       );
       return lastConnection;
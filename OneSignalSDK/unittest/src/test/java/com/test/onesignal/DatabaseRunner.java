@@ -12,6 +12,7 @@ import com.onesignal.OneSignalPackagePrivateHelper;
 import com.onesignal.OneSignalPackagePrivateHelper.InAppMessageTable;
 import com.onesignal.OneSignalPackagePrivateHelper.NotificationTable;
 import com.onesignal.OneSignalPackagePrivateHelper.OSTestInAppMessageInternal;
+import com.onesignal.OneSignalPackagePrivateHelper.OutboundRequestTable;
 import com.onesignal.OSOutcomeEvent;
 import com.onesignal.ShadowOneSignalDbHelper;
 import com.onesignal.StaticResetHelper;
@@ -459,6 +460,42 @@ public class DatabaseRunner {
         assertEquals(OSInfluenceType.UNATTRIBUTED, outcomeSaved.getIamInfluenceType());
     }
 
+    @Test
+    public void shouldUpgradeDbFromV8ToV9OutboundRequestTable() {
+        // 1. Init DB as version 8
+        ShadowOneSignalDbHelper.DATABASE_VERSION = 8;
+        SQLiteDatabase writableDatabase = dbHelper.getSQLiteDatabaseWithRetries();
+
+        Cursor cursor = writableDatabase.rawQuery("SELECT name FROM sqlite_master WHERE type ='table' AND name='" + OutboundRequestTable.TABLE_NAME + "'", null);
+
+        boolean exist = false;
+        if (cursor != null) {
+            exist = cursor.getCount() > 0;
+            cursor.close();
+        }
+        // 2. Table must not exist
+        assertFalse(exist);
+
+        writableDatabase.setVersion(8);
+        writableDatabase.close();
+
+        // 3. Clear the cache of the DB so it reloads the file and next getSQLiteDatabaseWithRetries will auto trigger the update
+        ShadowOneSignalDbHelper.restSetStaticFields();
+        ShadowOneSignalDbHelper.ignoreDuplicatedFieldsOnUpgrade = true;
+
+        // 4. Opening the DB will auto trigger the update to DB version 9.
+        writableDatabase = dbHelper.getSQLiteDatabaseWithRetries();
+
+        cursor = writableDatabase.rawQuery("SELECT name FROM sqlite_master WHERE type ='table' AND name='" + OutboundRequestTable.TABLE_NAME + "'", null);
+        exist = false;
+        if (cursor != null) {
+            exist = cursor.getCount() > 0;
+            cursor.close();
+        }
+        // 5. Table must exist after the upgrade
+        assertTrue(exist);
+    }
+
     @Test
     public void shouldUpgradeDbFromV3ToV8UniqueOutcomeTable() {
         // 1. Init DB as version 3
@@ -645,4 +682,10 @@ public class DatabaseRunner {
         assertEquals(outcomeEventDB.getIamInfluenceType(), outcomeSaved.getIamInfluenceType());
     }
 
+    @Test
+    public void shouldOpenDbWithWriteAheadLogging() {
+        // Lets reads run alongside writes, OneSignalDbHelper.query doesn't wait for the write lock
+        SQLiteDatabase database = dbHelper.getSQLiteDatabaseWithRetries();
+        assertTrue(database.isWriteAheadLoggingEnabled());
+    }
 }
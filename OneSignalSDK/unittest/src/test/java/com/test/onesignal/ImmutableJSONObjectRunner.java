@@ -0,0 +1,160 @@
+package com.test.onesignal;
+
+import com.onesignal.OneSignalPackagePrivateHelper.ImmutableJSONObject;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@Config(packageName = "com.onesignal.example", sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class ImmutableJSONObjectRunner {
+
+   private JSONObject jsonObject;
+   private ImmutableJSONObject immutable;
+
+   @Before
+   public void beforeEachTest() throws Exception {
+      jsonObject = new JSONObject(
+         "{" +
+            "\"int\": 5," +
+            "\"long\": 12345678901," +
+            "\"double\": 5.7," +
+            "\"numberString\": \"42\"," +
+            "\"booleanString\": \"TRUE\"," +
+            "\"boolean\": true," +
+            "\"string\": \"text\"," +
+            "\"nested\": {\"key\": \"value\"}," +
+            "\"array\": [1, \"two\"]" +
+         "}"
+      );
+      immutable = new ImmutableJSONObject(jsonObject);
+   }
+
+   @Test
+   public void shouldReturnSameInstanceWhenNothingChanges() throws Exception {
+      assertTrue(immutable.isSameInstance(immutable.with("string", "text")));
+      assertTrue(immutable.isSameInstance(immutable.with("boolean", true)));
+      assertTrue(immutable.isSameInstance(immutable.with("nested", new JSONObject("{\"key\": \"value\"}"))));
+      assertTrue(immutable.isSameInstance(immutable.with("array", new JSONArray("[1, \"two\"]"))));
+      assertTrue(immutable.isSameInstance(immutable.without("missing")));
+      assertTrue(immutable.isSameInstance(immutable.withoutAll(Collections.singletonList("missing"))));
+
+      Map<String, Object> changes = new HashMap<>();
+      changes.put("string", "text");
+      changes.put("int", 5);
+      changes.put("missing", null);
+      assertTrue(immutable.isSameInstance(immutable.withAll(changes)));
+   }
+
+   @Test
+   public void shouldReturnSameInstanceWhenNumberIsPutWithAnotherBoxedType() {
+      // Parsed as an Integer, callers often put the same value as a Long
+      assertTrue(immutable.isSameInstance(immutable.with("int", 5L)));
+      assertTrue(immutable.isSameInstance(immutable.with("long", 12345678901L)));
+      assertTrue(immutable.isSameInstance(immutable.with("double", 5.7)));
+
+      Map<String, Object> changes = new HashMap<>();
+      changes.put("int", 5L);
+      assertTrue(immutable.isSameInstance(immutable.withAll(changes)));
+
+      assertFalse(immutable.isSameInstance(immutable.with("int", 6L)));
+      assertFalse(immutable.isSameInstance(immutable.with("int", 5.5)));
+   }
+
+   @Test
+   public void shouldReturnNewInstanceOnChange() throws Exception {
+      ImmutableJSONObject changed = immutable.with("string", "other");
+      assertFalse(immutable.isSameInstance(changed));
+      assertEquals("text", immutable.optString("string"));
+      assertEquals("other", changed.optString("string"));
+
+      ImmutableJSONObject removed = immutable.withoutAll(Arrays.asList("string", "missing"));
+      assertFalse(removed.has("string"));
+      assertTrue(immutable.has("string"));
+
+      // A null value removes the key, same as JSONObject.put
+      assertFalse(immutable.with("string", null).has("string"));
+   }
+
+   @Test
+   public void shouldShareNestedObjectsBetweenVersions() {
+      ImmutableJSONObject changed = immutable.with("string", "other").without("int");
+      assertTrue(immutable.optImmutableJSONObject("nested").isSameInstance(changed.optImmutableJSONObject("nested")));
+   }
+
+   @Test
+   public void shouldNotBeAffectedByChangesToJSONObjectsPassedInOrOut() throws Exception {
+      jsonObject.put("string", "changed");
+      jsonObject.getJSONObject("nested").put("key", "changed");
+      assertEquals("text", immutable.optString("string"));
+      assertEquals("value", immutable.optJSONObject("nested").getString("key"));
+
+      immutable.toJSONObject().getJSONObject("nested").put("key", "changed");
+      immutable.optJSONObject("nested").put("key", "changed");
+      assertEquals("value", immutable.optImmutableJSONObject("nested").optString("key"));
+   }
+
+   @Test
+   public void shouldCopyJSONArraysInAndOut() throws Exception {
+      jsonObject.getJSONArray("array").put(3);
+      assertEquals(2, ((JSONArray) immutable.opt("array")).length());
+
+      ((JSONArray) immutable.opt("array")).put(3);
+      immutable.toJSONObject().getJSONArray("array").put(3);
+      assertEquals(2, ((JSONArray) immutable.opt("array")).length());
+
+      JSONArray array = new JSONArray("[1]");
+      ImmutableJSONObject withArray = immutable.with("array", array);
+      array.put(2);
+      assertEquals("[1]", withArray.opt("array").toString());
+   }
+
+   @Test
+   public void shouldCoerceGettersLikeJSONObject() throws Exception {
+      String[] keys = { "int", "long", "double", "numberString", "booleanString", "boolean", "string", "nested", "missing" };
+      for (String key : keys) {
+         assertEquals(key, jsonObject.has(key), immutable.has(key));
+         assertEquals(key, jsonObject.optString(key), immutable.optString(key));
+         assertEquals(key, jsonObject.optBoolean(key), immutable.optBoolean(key));
+         assertEquals(key, jsonObject.optLong(key), immutable.optLong(key));
+         assertEquals(key, jsonObject.optInt(key), immutable.optInt(key));
+         assertEquals(key, String.valueOf(jsonObject.optJSONObject(key)), String.valueOf(immutable.optJSONObject(key)));
+         assertEquals(key, getLongOrNull(jsonObject, key), getLongOrNull(immutable, key));
+      }
+
+      assertNull(immutable.optJSONObject("string"));
+      assertNull(immutable.optImmutableJSONObject("string"));
+   }
+
+   private static Long getLongOrNull(JSONObject jsonObject, String key) {
+      try {
+         return jsonObject.getLong(key);
+      } catch (JSONException e) {
+         return null;
+      }
+   }
+
+   private static Long getLongOrNull(ImmutableJSONObject immutable, String key) {
+      try {
+         return immutable.getLong(key);
+      } catch (JSONException e) {
+         return null;
+      }
+   }
+}
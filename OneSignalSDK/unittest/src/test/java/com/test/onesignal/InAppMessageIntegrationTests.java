@@ -229,6 +229,32 @@ public class InAppMessageIntegrationTests {
         assertTrue(OneSignalPackagePrivateHelper.isInAppMessageShowing());
     }
 
+    @Test
+    public void testFailedHtmlFetchIsRetriedThroughRetryScheduler() throws Exception {
+        final OSTestInAppMessageInternal message = InAppMessagingHelpers.buildTestMessageWithSingleTrigger(OSTriggerKind.CUSTOM, "test_key", OSTestTrigger.OSTriggerOperator.EQUAL_TO.toString(), 3);
+        setMockRegistrationResponseWithMessages(new ArrayList<OSTestInAppMessageInternal>() {{
+            add(message);
+        }});
+
+        OneSignalInit();
+        threadAndTaskWait();
+
+        ShadowOneSignalRestClient.failGetParams = true;
+        ShadowOneSignalRestClient.failHttpCode = 500;
+        OneSignal.addTrigger("test_key", 3);
+        threadAndTaskWait();
+
+        // Only the first fetch went out, the retry waits on the scheduler's backoff instead of being sent right away
+        int htmlRequests = 0;
+        for (ShadowOneSignalRestClient.Request request : ShadowOneSignalRestClient.requests) {
+            if (request.url.contains("/variants/"))
+                htmlRequests++;
+        }
+        assertEquals(1, htmlRequests);
+        // The message stays up for display until the retry is due
+        assertTrue(OneSignalPackagePrivateHelper.isInAppMessageShowing());
+    }
+
     /**
      * Since it is possible for multiple in-app messages to be valid at the same time, we've implemented
      * a queue so that the SDK does not try to display both messages at the same time.
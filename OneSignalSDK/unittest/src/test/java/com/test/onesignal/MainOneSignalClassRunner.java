@@ -116,6 +116,7 @@ import org.robolectric.shadows.ShadowAlarmManager;
 import org.robolectric.shadows.ShadowConnectivityManager;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -1615,6 +1616,119 @@ public class MainOneSignalClassRunner {
       OneSignal.sendTags(new JSONObject(), null);
    }
 
+   @Test
+   public void shouldPersistTagsThroughOperationLogCompaction() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      // Enough syncs to compact the log of each state at least once
+      for (int i = 0; i < 40; i++) {
+         OneSignal.sendTag("key" + i, "value" + i);
+         threadAndTaskWait();
+      }
+      OneSignal.deleteTag("key0");
+      threadAndTaskWait();
+
+      JSONObject tags = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE").getJSONObject("tags");
+      assertEquals(39, tags.length());
+      assertFalse(tags.has("key0"));
+      assertEquals("value39", tags.getString("key39"));
+   }
+
+   @Test
+   public void shouldPersistWriteMadeDuringPersistOnNextPersist() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      final OneSignalPackagePrivateHelper.TestUserState userState = new OneSignalPackagePrivateHelper.TestUserState("TEST_STATE");
+      userState.putOnSyncValues("first", "value1");
+      userState.persistState();
+
+      userState.putOnSyncValues("second", "value2");
+      userState.persistStateDuring(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               userState.putOnSyncValues("third", "value3");
+            } catch (JSONException e) {
+               throw new RuntimeException(e);
+            }
+         }
+      });
+
+      // The persist that was running only wrote what it had taken before the write
+      JSONObject persisted = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("TEST_STATE");
+      assertEquals("value2", persisted.getString("second"));
+      assertFalse(persisted.has("third"));
+
+      userState.persistState();
+      persisted = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("TEST_STATE");
+      assertEquals("value1", persisted.getString("first"));
+      assertEquals("value2", persisted.getString("second"));
+      assertEquals("value3", persisted.getString("third"));
+   }
+
+   @Test
+   public void shouldNotWriteWhenNothingChangedSinceLastPersist() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      OneSignalPackagePrivateHelper.TestUserState userState = new OneSignalPackagePrivateHelper.TestUserState("TEST_STATE");
+      userState.putOnSyncValues("key", "value");
+      userState.persistState();
+
+      File logFile = OneSignalPackagePrivateHelper.UserState_getOperationLogFile("TEST_STATE");
+      assertTrue(logFile.delete());
+
+      // Same version as the last persist, and putting an equal value doesn't publish a new one
+      userState.persistState();
+      userState.putOnSyncValues("key", "value");
+      userState.persistState();
+      assertFalse(logFile.exists());
+   }
+
+   @Test
+   public void shouldOnlySendFieldsChangedSinceLastSync() throws Exception {
+      OneSignalInit();
+      OneSignal.sendTags(new JSONObject("{\"test1\": \"value1\"}"));
+      threadAndTaskWait();
+      assertEquals(2, ShadowOneSignalRestClient.networkCallCount);
+
+      OneSignal.setLanguage("fr");
+      OneSignal.sendTags(new JSONObject("{\"test2\": \"value2\"}"));
+      threadAndTaskWait();
+      assertEquals(3, ShadowOneSignalRestClient.networkCallCount);
+      JSONObject lastPut = ShadowOneSignalRestClient.lastPost;
+      assertEquals("fr", lastPut.getString("language"));
+      assertEquals("{\"test2\":\"value2\"}", lastPut.getJSONObject("tags").toString());
+      assertFalse(lastPut.has("identifier"));
+
+      // Nothing changed since the last sync
+      ShadowOneSignalRestClient.lastPost = null;
+      OneSignal.setLanguage("fr");
+      threadAndTaskWait();
+      assertEquals(3, ShadowOneSignalRestClient.networkCallCount);
+      assertNull(ShadowOneSignalRestClient.lastPost);
+   }
+
+   @Test
+   public void shouldOnlySendRequiredFieldsOnSessionWhenNothingChanged() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      pauseActivity(blankActivityController);
+      time.advanceSystemTimeBy(31);
+      blankActivityController.resume();
+      threadAndTaskWait();
+
+      assertTrue(ShadowOneSignalRestClient.lastUrl.matches("players/.*/on_session"));
+      JSONObject sessionBody = ShadowOneSignalRestClient.lastPost;
+      assertEquals(ONESIGNAL_APP_ID, sessionBody.getString("app_id"));
+      assertFalse(sessionBody.has("identifier"));
+      assertFalse(sessionBody.has("device_model"));
+      assertFalse(sessionBody.has("language"));
+   }
+
    @Test
    @Config(shadows = { ShadowGenerateNotification.class })
    public void shouldSendTagsFromBackgroundOnAppKilled() throws Exception {
@@ -1770,6 +1884,42 @@ public class MainOneSignalClassRunner {
       assertTrue(handler.getSucceeded());
    }
 
+   @Test
+   public void shouldCoalesceTagWritesBeforeSync() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+      int networkCallCount = ShadowOneSignalRestClient.networkCallCount;
+
+      TestChangeTagsUpdateHandler setHandler = new TestChangeTagsUpdateHandler();
+      TestChangeTagsUpdateHandler deleteHandler = new TestChangeTagsUpdateHandler();
+      OneSignal.sendTag("test1", "value1");
+      OneSignal.sendTags(new JSONObject("{\"test1\": \"value2\", \"test2\": \"value\"}"), setHandler);
+      OneSignal.deleteTags(Arrays.asList("test2"), deleteHandler);
+      threadAndTaskWait();
+
+      // One request with the last value of test1, test2 was set then deleted so it is never sent
+      assertEquals(networkCallCount + 1, ShadowOneSignalRestClient.networkCallCount);
+      assertEquals("{\"test1\":\"value2\"}", ShadowOneSignalRestClient.lastPost.getJSONObject("tags").toString());
+      assertTrue(setHandler.getSucceeded());
+      assertTrue(deleteHandler.getSucceeded());
+      assertEquals(3, OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_getCoalescedTagWriteCount());
+   }
+
+   @Test
+   public void shouldSendDeleteOfTagMissingFromLocalState() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      // The tag may have been set through the REST API or dashboard, the device never had it
+      TestChangeTagsUpdateHandler deleteHandler = new TestChangeTagsUpdateHandler();
+      OneSignal.deleteTags(Arrays.asList("serverOnly"), deleteHandler);
+      threadAndTaskWait();
+
+      assertEquals("{\"serverOnly\":\"\"}", ShadowOneSignalRestClient.lastPost.getJSONObject("tags").toString());
+      assertTrue(deleteHandler.getSucceeded());
+      assertEquals(0, OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_getCoalescedTagWriteCount());
+   }
+
    // Tests to make sure that the onFailure callback works
    @Test
    public void shouldFailToSendTagsWithResponse() throws Exception {
@@ -2616,10 +2766,8 @@ public class MainOneSignalClassRunner {
       OneSignal.deleteTags(Arrays.asList("bool", "str"));
       threadAndTaskWait();
 
-      flushBufferedSharedPrefs();
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-      String syncValues = prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null);
-      assertFalse(new JSONObject(syncValues).has("tags"));
+      JSONObject syncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
+      assertFalse(syncValues.has("tags"));
    }
 
 
@@ -2641,9 +2789,7 @@ public class MainOneSignalClassRunner {
 
       assertEquals("{}", lastGetTags.toString());
 
-      flushBufferedSharedPrefs();
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-      JSONObject syncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
+      JSONObject syncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
       assertFalse(syncValues.has("tags"));
    }
 
@@ -2771,6 +2917,41 @@ public class MainOneSignalClassRunner {
       assertTrue(ShadowOneSignalRestClient.lastUrl.contains(ShadowOneSignalRestClient.pushUserId));
    }
 
+   @Test
+   public void getTagsAnsweredLocallyUntilStale() throws Exception {
+      ShadowOneSignalRestClient.setNextSuccessfulGETJSONResponse(new JSONObject() {{
+         put("tags", new JSONObject() {{
+            put("test1", "value1");
+         }});
+      }});
+      ShadowOneSignalRestClient.nextSuccessfulGETResponsePattern = Pattern.compile("players/.*");
+      OneSignalInit();
+      threadAndTaskWait();
+      getGetTagsHandler();
+      threadAndTaskWait();
+      int networkCallCount = ShadowOneSignalRestClient.networkCallCount;
+
+      // Answered from local tags, including ones not synced yet, without a GET
+      lastGetTags = null;
+      OneSignal.sendTag("test2", "value2");
+      getGetTagsHandler();
+      assertEquals(networkCallCount, ShadowOneSignalRestClient.networkCallCount);
+      threadAndTaskWait();
+      assertEquals("value1", lastGetTags.getString("test1"));
+      assertEquals("value2", lastGetTags.getString("test2"));
+      assertFalse(ShadowOneSignalRestClient.lastUrl.startsWith("players/" + ShadowOneSignalRestClient.pushUserId + "?"));
+      networkCallCount = ShadowOneSignalRestClient.networkCallCount;
+
+      // Once past the staleness bound the local tags are still returned, and refreshed in the background
+      time.advanceSystemTimeBy(OneSignalPackagePrivateHelper.OSTagRefreshPolicy_DEFAULT_MAX_STALENESS_MS / 1_000);
+      lastGetTags = null;
+      getGetTagsHandler();
+      threadAndTaskWait();
+      assertEquals("value2", lastGetTags.getString("test2"));
+      assertEquals(networkCallCount + 1, ShadowOneSignalRestClient.networkCallCount);
+      assertTrue(ShadowOneSignalRestClient.lastUrl.startsWith("players/" + ShadowOneSignalRestClient.pushUserId));
+   }
+
    // ####### End GetTags Tests ########
 
    @Test
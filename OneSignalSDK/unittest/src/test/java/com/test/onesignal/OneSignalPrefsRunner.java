@@ -23,9 +23,25 @@ import org.robolectric.annotation.Config;
 import org.robolectric.annotation.LooperMode;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static com.onesignal.OneSignalPackagePrivateHelper.OSAppendLogKeyValueStore_MAX_STALE_RECORDS_BEFORE_COMPACT;
+import static com.onesignal.OneSignalPackagePrivateHelper.OSAppendLogKeyValueStore_getFile;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalPrefs_canOpenStore;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalPrefs_flushBarrier;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalPrefs_getRecordCount;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalPrefs_isStoreOpen;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalPrefs_readFromDisk;
 import static com.onesignal.ShadowOneSignalRestClient.setRemoteParamsGetHtmlResponse;
 import static com.test.onesignal.TestHelpers.threadAndTaskWait;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @Config(packageName = "com.onesignal.example",
         shadows = {
@@ -84,8 +100,7 @@ public class OneSignalPrefsRunner {
       threadAndTaskWait();
       TestHelpers.flushBufferedSharedPrefs();
 
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(TestOneSignalPrefs.PREFS_ONESIGNAL, Context.MODE_PRIVATE);
-      String value = prefs.getString(KEY, "");
+      Object value = OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, KEY);
       assertEquals(VALUE, value);
    }
 
@@ -99,8 +114,7 @@ public class OneSignalPrefsRunner {
       threadAndTaskWait();
       TestHelpers.flushBufferedSharedPrefs();
 
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(TestOneSignalPrefs.PREFS_ONESIGNAL, Context.MODE_PRIVATE);
-      String value = prefs.getString(KEY, "");
+      Object value = OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, KEY);
       assertEquals(VALUE, value);
    }
 
@@ -114,8 +128,144 @@ public class OneSignalPrefsRunner {
       threadAndTaskWait();
       TestHelpers.flushBufferedSharedPrefs();
 
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(TestOneSignalPrefs.PREFS_ONESIGNAL, Context.MODE_PRIVATE);
-      String value = prefs.getString(KEY, "");
+      Object value = OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, KEY);
       assertEquals(VALUE, value);
    }
+
+   @Test
+   public void testMigratesValuesFromSharedPreferences() throws Exception {
+      final SharedPreferences prefs = blankActivity.getSharedPreferences(TestOneSignalPrefs.PREFS_ONESIGNAL, Context.MODE_PRIVATE);
+      prefs.edit()
+         .putString(KEY, VALUE)
+         .putInt("int", 1)
+         .putLong("long", 2L)
+         .putBoolean("bool", true)
+         .putStringSet("set", new HashSet<>(Arrays.asList("a", "b")))
+         .commit();
+
+      OneSignal.initWithContext(blankActivity);
+      TestOneSignalPrefs.saveString(TestOneSignalPrefs.PREFS_ONESIGNAL, "new", VALUE);
+      TestHelpers.flushBufferedSharedPrefs();
+
+      assertEquals(VALUE, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, KEY));
+      assertEquals(1, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "int"));
+      assertEquals(2L, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "long"));
+      assertEquals(true, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "bool"));
+      assertEquals(new HashSet<>(Arrays.asList("a", "b")), OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "set"));
+      assertEquals(VALUE, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "new"));
+   }
+
+   @Test
+   public void testPrimitiveWritesKeepTheirTypeOnDisk() throws Exception {
+      OneSignal.initWithContext(blankActivity);
+      TestOneSignalPrefs.saveInt(TestOneSignalPrefs.PREFS_ONESIGNAL, "int", 1);
+      TestOneSignalPrefs.saveLong(TestOneSignalPrefs.PREFS_ONESIGNAL, "long", 2L);
+      TestOneSignalPrefs.saveBool(TestOneSignalPrefs.PREFS_ONESIGNAL, "bool", true);
+      TestOneSignalPrefs.saveObject(TestOneSignalPrefs.PREFS_ONESIGNAL, KEY, null);
+      TestHelpers.flushBufferedSharedPrefs();
+
+      assertEquals(1, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "int"));
+      assertEquals(2L, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "long"));
+      assertEquals(true, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, "bool"));
+      assertNull(OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, KEY));
+   }
+
+   @Test
+   public void testFlushBarrierWritesBufferedValuesWithoutWaitingForTheirCadence() throws Exception {
+      OneSignal.initWithContext(blankActivity);
+      TestOneSignalPrefs.saveLong(TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_OS_LAST_LOCATION_TIME, 1L);
+      TestOneSignalPrefs.saveLong(TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_GT_UNSENT_ACTIVE_TIME, 2L);
+
+      assertTrue(OneSignalPrefs_flushBarrier());
+
+      assertEquals(1L, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_OS_LAST_LOCATION_TIME));
+      assertEquals(2L, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_GT_UNSENT_ACTIVE_TIME));
+   }
+
+   @Test
+   public void testUnreadableStoreFileIsNotOpenedAsEmpty() throws Exception {
+      // A directory in place of the file makes every read of it fail
+      assertTrue(OSAppendLogKeyValueStore_getFile(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL).mkdirs());
+
+      assertFalse(OneSignalPrefs_canOpenStore(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL));
+   }
+
+   @Test
+   public void testStoreFileFromNewerVersionIsLeftAsIs() throws Exception {
+      OneSignal.initWithContext(blankActivity);
+      TestOneSignalPrefs.saveString(TestOneSignalPrefs.PREFS_ONESIGNAL, KEY, VALUE);
+      TestOneSignalPrefs.saveString(TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_GT_PLAYER_ID, "player-id");
+      TestHelpers.flushBufferedSharedPrefs();
+
+      // 1. Bump the format version byte that follows the 4 byte magic, as a downgrade would see it
+      File file = OSAppendLogKeyValueStore_getFile(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL);
+      byte[] saved = readBytes(file);
+      byte[] bumped = saved.clone();
+      bumped[4]++;
+      writeBytes(file, bumped);
+
+      // 2. Not opened, and the file isn't rewritten
+      assertFalse(OneSignalPrefs_canOpenStore(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL));
+      assertTrue(Arrays.equals(bumped, readBytes(file)));
+
+      // 3. Nothing was lost once the version is readable again
+      writeBytes(file, saved);
+      assertEquals(VALUE, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, KEY));
+      assertEquals("player-id", OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_GT_PLAYER_ID));
+   }
+
+   @Test
+   public void testStoreFileWithTruncatedHeaderIsNotOpenedAsEmpty() throws Exception {
+      File file = OSAppendLogKeyValueStore_getFile(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL);
+      writeBytes(file, new byte[] { 0x4F, 0x53 });
+
+      assertFalse(OneSignalPrefs_canOpenStore(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL));
+      assertEquals(2, file.length());
+   }
+
+   @Test
+   public void testOverwritesAreCompacted() throws Exception {
+      OneSignal.initWithContext(blankActivity);
+      int writes = OSAppendLogKeyValueStore_MAX_STALE_RECORDS_BEFORE_COMPACT * 2;
+      for (int i = 0; i < writes; i++) {
+         TestOneSignalPrefs.saveInt(TestOneSignalPrefs.PREFS_ONESIGNAL, KEY, i);
+         TestHelpers.flushBufferedSharedPrefs();
+      }
+
+      assertTrue(OneSignalPrefs_getRecordCount(TestOneSignalPrefs.PREFS_ONESIGNAL) <= OSAppendLogKeyValueStore_MAX_STALE_RECORDS_BEFORE_COMPACT);
+      assertEquals(writes - 1, OneSignalPrefs_readFromDisk(blankActivity, TestOneSignalPrefs.PREFS_ONESIGNAL, KEY));
+   }
+
+   @Test
+   public void testPreloadRecordsTimeToFirstRead() throws Exception {
+      assertEquals(-1, OneSignal.getPrefsTimeToFirstReadMs());
+
+      OneSignal.initWithContext(blankActivity);
+      threadAndTaskWait();
+
+      assertTrue(OneSignal.getPrefsTimeToFirstReadMs() >= 0);
+      assertTrue(OneSignalPrefs_isStoreOpen(TestOneSignalPrefs.PREFS_PLAYER_PURCHASES));
+   }
+
+   private static byte[] readBytes(File file) throws Exception {
+      byte[] bytes = new byte[(int)file.length()];
+      FileInputStream inputStream = new FileInputStream(file);
+      try {
+         int read = 0;
+         while (read < bytes.length)
+            read += inputStream.read(bytes, read, bytes.length - read);
+      } finally {
+         inputStream.close();
+      }
+      return bytes;
+   }
+
+   private static void writeBytes(File file, byte[] bytes) throws Exception {
+      FileOutputStream outputStream = new FileOutputStream(file);
+      try {
+         outputStream.write(bytes);
+      } finally {
+         outputStream.close();
+      }
+   }
 }
@@ -27,14 +27,21 @@
 
 package com.test.onesignal;
 
+import android.util.JsonReader;
+
 import androidx.test.core.app.ApplicationProvider;
 
+import com.onesignal.LoopbackHttpTransport;
 import com.onesignal.MockHttpURLConnection;
+import com.onesignal.OSHttpEndpointMetrics;
+import com.onesignal.OSHttpTransport;
 import com.onesignal.OneSignal;
 import com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient;
+import com.onesignal.OneSignalPackagePrivateHelper.TestOneSignalPrefs;
 import com.onesignal.ShadowOneSignalRestClientWithMockConnection;
 import com.onesignal.StaticResetHelper;
 
+import org.json.JSONObject;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -44,10 +51,32 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.onesignal.OneSignalPackagePrivateHelper.OSRequestJournal_DRAIN_BATCH_SIZE;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_configureDispatcher;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_executeRequest;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_getCompressionByteCounts;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_getJournaledRequestCount;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_nextRetryDelay;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_onWriteFinished;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_onWriteStarted;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_reopenResponseCache;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_setMemoizeWindow;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_setRequestCompression;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalRestClient_setResponseCacheMaxSize;
 import static com.onesignal.OneSignalPackagePrivateHelper.OneSignal_savePrivacyConsentRequired;
 import static com.test.onesignal.TestHelpers.threadAndTaskWait;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 
 @Config(packageName = "com.onesignal.example",
@@ -90,6 +119,79 @@ public class RESTClientRunner {
       assertTrue(ShadowOneSignalRestClientWithMockConnection.lastConnection.getDidInterruptMockHang());
    }
 
+   @Test
+   public void testAsyncRequestsShareBoundedNetworkThreads() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignalRestClient_configureDispatcher(2, 1);
+
+      // Distinct urls so the requests aren't coalesced
+      for (int i = 0; i < 10; i++)
+         OneSignalRestClient.get("URL" + i, null, null);
+
+      assertTrue(countThreadsWithPrefix("OS_REST_NETWORK_") <= 2);
+      threadAndTaskWait();
+   }
+
+   @Test
+   public void testTelemetryIsDeferredWhileSessionRequestIsInFlight() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+
+      final CountDownLatch releaseSession = new CountDownLatch(1);
+      final CountDownLatch interactiveDone = new CountDownLatch(1);
+      final CountDownLatch telemetryDone = new CountDownLatch(1);
+      OneSignalRestClient_executeRequest("SESSION", new Runnable() {
+         @Override
+         public void run() {
+            try {
+               releaseSession.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {}
+         }
+      });
+      OneSignalRestClient_executeRequest("TELEMETRY", new Runnable() {
+         @Override
+         public void run() {
+            telemetryDone.countDown();
+         }
+      });
+      OneSignalRestClient_executeRequest("INTERACTIVE", new Runnable() {
+         @Override
+         public void run() {
+            interactiveDone.countDown();
+         }
+      });
+
+      // 1. Interactive requests still run, telemetry waits on the session request
+      assertTrue(interactiveDone.await(1, TimeUnit.SECONDS));
+      assertFalse(telemetryDone.await(200, TimeUnit.MILLISECONDS));
+
+      // 2. Telemetry goes once the session request is done
+      releaseSession.countDown();
+      assertTrue(telemetryDone.await(1, TimeUnit.SECONDS));
+      threadAndTaskWait();
+   }
+
+   @Test
+   public void testSyncRequestFiresCallbackOnCallingThread() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+
+      final Thread[] callbackThread = {null};
+      Thread callingThread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            OneSignalRestClient.getSync("URL", new OneSignalRestClient.ResponseHandler() {
+               @Override
+               public void onSuccess(String response) {
+                  callbackThread[0] = Thread.currentThread();
+               }
+            }, null);
+         }
+      }, "OS_TEST_SYNC_CALLER");
+      callingThread.start();
+      callingThread.join();
+
+      assertEquals(callingThread, callbackThread[0]);
+   }
+
    private static final String SDK_VERSION_HTTP_HEADER = "onesignal/android/" + OneSignal.getSdkVersionRaw();
 
    @Test
@@ -124,6 +226,7 @@ public class RESTClientRunner {
    }
 
    private final static String MOCK_CACHE_KEY = "MOCK_CACHE_KEY";
+   private final static String MOCK_JOURNAL_KEY = "MOCK_JOURNAL_KEY";
    private final static String MOCK_ETAG_VALUE = "MOCK_ETAG_VALUE";
 
    private String firstResponse, secondResponse;
@@ -202,6 +305,417 @@ public class RESTClientRunner {
       assertEquals(newMockResponse, secondResponse);
    }
 
+   @Test
+   public void testMigratesCacheFromSharedPreferences() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      final String legacyResponse = "{\"legacy\": \"value\"}";
+      // 1. Response cached in SharedPreferences by an older SDK version, migrated when the cache is first opened
+      TestOneSignalPrefs.saveString(TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_OS_ETAG_PREFIX + OneSignalRestClient.CACHE_KEY_GET_TAGS, MOCK_ETAG_VALUE);
+      TestOneSignalPrefs.saveString(TestOneSignalPrefs.PREFS_ONESIGNAL, TestOneSignalPrefs.PREFS_OS_HTTP_CACHE_PREFIX + OneSignalRestClient.CACHE_KEY_GET_TAGS, legacyResponse);
+      OneSignalRestClient_reopenResponseCache();
+
+      // 2. First request after updating should still send the ETag and use the cached response
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 304;
+      }};
+      OneSignalRestClient.get("URL", new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            firstResponse = response;
+         }
+      }, OneSignalRestClient.CACHE_KEY_GET_TAGS);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      assertEquals(legacyResponse, firstResponse);
+      assertEquals(MOCK_ETAG_VALUE, getLastHTTPHeaderProp("if-none-match"));
+
+      // 3. Cached response now comes from the disk cache
+      OneSignalRestClient.get("URL", new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            secondResponse = response;
+         }
+      }, OneSignalRestClient.CACHE_KEY_GET_TAGS);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      assertEquals(legacyResponse, secondResponse);
+      assertEquals(MOCK_ETAG_VALUE, getLastHTTPHeaderProp("if-none-match"));
+   }
+
+   @Test
+   public void testEvictsLeastRecentlyUsedCachedResponse() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      // Room for two of the responses below but not three
+      OneSignalRestClient_setResponseCacheMaxSize(200);
+
+      for (final String cacheKey : new String[] { "KEY_1", "KEY_2", "KEY_3" }) {
+         ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+            status = 200;
+            responseBody = "{\"key\": \"" + cacheKey + "_padding_to_make_the_response_use_up_space\"}";
+            mockProps.put("etag", cacheKey + "_ETAG");
+         }};
+         OneSignalRestClient.get("URL", null, cacheKey);
+         threadAndTaskWait();
+      }
+
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 304;
+      }};
+      OneSignalRestClient.get("URL", null, "KEY_1");
+      threadAndTaskWait();
+      assertNull(getLastHTTPHeaderProp("if-none-match"));
+
+      OneSignalRestClient.get("URL", null, "KEY_3");
+      threadAndTaskWait();
+      assertEquals("KEY_3_ETAG", getLastHTTPHeaderProp("if-none-match"));
+   }
+
+   @Test
+   public void testGzippedResponseIsDecoded() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      final String mockResponseBody = "{\"key1\": \"value1\"}";
+      final byte[] gzippedBody = gzip(mockResponseBody.getBytes("UTF-8"));
+
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 200;
+         responseBytes = gzippedBody;
+         mockProps.put("Content-Encoding", "gzip");
+      }};
+      OneSignalRestClient.get("URL", new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            firstResponse = response;
+         }
+      }, null);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      assertEquals("gzip", getLastHTTPHeaderProp("Accept-Encoding"));
+      assertEquals(mockResponseBody, firstResponse);
+      long[] byteCounts = OneSignalRestClient_getCompressionByteCounts();
+      assertEquals(mockResponseBody.length(), byteCounts[2]);
+      assertEquals(gzippedBody.length, byteCounts[3]);
+   }
+
+   @Test
+   public void testEmptyGzippedResponseSucceeds() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 200;
+         responseBytes = new byte[0];
+         mockProps.put("Content-Encoding", "gzip");
+      }};
+      final boolean[] failed = {false};
+      OneSignalRestClient.get("URL", new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            firstResponse = response;
+         }
+
+         @Override
+         public void onFailure(int statusCode, String response, Throwable throwable) {
+            failed[0] = true;
+         }
+      }, null);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      assertFalse(failed[0]);
+      assertEquals("", firstResponse);
+   }
+
+   @Test
+   public void testLargeRequestBodyIsGzippedOnlyForEnabledEndpoint() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+      OneSignalRestClient_setRequestCompression("players/{id}/on_session", true);
+
+      StringBuilder largeValue = new StringBuilder();
+      for (int i = 0; i < 500; i++)
+         largeValue.append("tag");
+      JSONObject jsonBody = new JSONObject().put("tags", largeValue.toString());
+
+      // 1. Endpoint not enabled, sent as is
+      OneSignalRestClient.post("players/a1b2c3d4/on_focus", jsonBody, null);
+      threadAndTaskWait();
+      assertNull(getLastHTTPHeaderProp("Content-Encoding"));
+      assertEquals(jsonBody.toString(), new String(ShadowOneSignalRestClientWithMockConnection.lastConnection.getRequestBody(), "UTF-8"));
+
+      // 2. Enabled endpoint, the id in the url should still match the endpoint template
+      OneSignalRestClient.post("players/a1b2c3d4/on_session", jsonBody, null);
+      threadAndTaskWait();
+      assertEquals("gzip", getLastHTTPHeaderProp("Content-Encoding"));
+      byte[] sentBody = ShadowOneSignalRestClientWithMockConnection.lastConnection.getRequestBody();
+      assertEquals(jsonBody.toString(), new String(gunzip(sentBody), "UTF-8"));
+
+      long[] byteCounts = OneSignalRestClient_getCompressionByteCounts();
+      assertEquals(jsonBody.toString().length() * 2, byteCounts[0]);
+      assertEquals(jsonBody.toString().length() + sentBody.length, byteCounts[1]);
+   }
+
+   @Test
+   public void testStreamingHandlerParsesResponse() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 200;
+         responseBody = "{\"skipped\": {\"nested\": [1, 2]}, \"key1\": \"value1\"}";
+      }};
+
+      OneSignalRestClient.get("URL", new OneSignalRestClient.StreamingResponseHandler<String>() {
+         @Override
+         public String parseResponse(JsonReader reader) throws IOException {
+            String value = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+               if (reader.nextName().equals("key1"))
+                  value = reader.nextString();
+               else
+                  reader.skipValue();
+            }
+            reader.endObject();
+            return value;
+         }
+
+         @Override
+         public void onParsed(String result) {
+            firstResponse = result;
+         }
+      }, null);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      assertEquals("value1", firstResponse);
+   }
+
+   @Test
+   public void testStreamingHandlerUnparsableSuccessIsNotAFailure() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 200;
+         responseBody = "{\"key1\": ";
+      }};
+
+      final int[] unparsableStatus = { 0 };
+      final boolean[] failed = { false };
+      OneSignalRestClient.get("URL", new OneSignalRestClient.StreamingResponseHandler<String>() {
+         @Override
+         public String parseResponse(JsonReader reader) throws IOException {
+            reader.beginObject();
+            reader.nextName();
+            return reader.nextString();
+         }
+
+         @Override
+         public void onUnparsableResponse(int statusCode, Throwable throwable) {
+            unparsableStatus[0] = statusCode;
+         }
+
+         @Override
+         public void onFailure(int statusCode, String response, Throwable throwable) {
+            failed[0] = true;
+         }
+      }, null);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      // A 2xx the body of which can't be parsed must not go down the retry path
+      assertEquals(200, unparsableStatus[0]);
+      assertFalse(failed[0]);
+   }
+
+   @Test
+   public void testIdenticalInFlightGetsAreCoalesced() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 200;
+         responseBody = "{\"key1\": \"value1\"}";
+      }};
+
+      OneSignalRestClient.get("URL", new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            firstResponse = response;
+         }
+      }, MOCK_CACHE_KEY);
+      OneSignalRestClient.get("URL", new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            secondResponse = response;
+         }
+      }, MOCK_CACHE_KEY);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      assertEquals(1, ShadowOneSignalRestClientWithMockConnection.connectionCount);
+      assertNotNull(firstResponse);
+      assertEquals(firstResponse, secondResponse);
+   }
+
+   @Test
+   public void testRecentGetResponseIsReusedUntilAWrite() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+      OneSignalRestClient_setMemoizeWindow(60_000);
+
+      // 1. Second GET within the window is answered without a request
+      OneSignalRestClient.get("URL", null, MOCK_CACHE_KEY);
+      threadAndTaskWait();
+      OneSignalRestClient.get("URL", new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            firstResponse = response;
+         }
+      }, MOCK_CACHE_KEY);
+      threadAndTaskWait();
+      Thread.sleep(200);
+
+      assertNotNull(firstResponse);
+      assertEquals(1, ShadowOneSignalRestClientWithMockConnection.connectionCount);
+
+      // 2. A write may change the response, so the next GET makes a request again
+      OneSignalRestClient.post("URL", null, null);
+      threadAndTaskWait();
+      OneSignalRestClient.get("URL", null, MOCK_CACHE_KEY);
+      threadAndTaskWait();
+
+      assertEquals(3, ShadowOneSignalRestClientWithMockConnection.connectionCount);
+   }
+
+   @Test
+   public void testGetOverlappingAWriteIsNotReused() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignalRestClient_setMemoizeWindow(60_000);
+
+      // 1. GET made while a write is in flight may have been answered before the write was applied
+      OneSignalRestClient_onWriteStarted();
+      OneSignalRestClient.get("URL", null, MOCK_CACHE_KEY);
+      threadAndTaskWait();
+      OneSignalRestClient_onWriteFinished();
+
+      // 2. So the next GET makes a request again, and its response is reused
+      OneSignalRestClient.get("URL", null, MOCK_CACHE_KEY);
+      threadAndTaskWait();
+      OneSignalRestClient.get("URL", null, MOCK_CACHE_KEY);
+      threadAndTaskWait();
+
+      assertEquals(2, ShadowOneSignalRestClientWithMockConnection.connectionCount);
+   }
+
+   @Test
+   public void testRetryAfterHoldsBackRetriesToEndpoint() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 429;
+         errorResponseBody = "{}";
+         mockProps.put("Retry-After", "120");
+      }};
+      OneSignalRestClient.post("players/a1b2c3/on_session", null, null);
+      threadAndTaskWait();
+
+      // 1. Retries to the same endpoint, for any player, wait out the Retry-After
+      assertTrue(OneSignalRestClient_nextRetryDelay("players/d4e5f6/on_session", 1_000, 1_000, 3) >= 119_000);
+
+      // 2. Other endpoints are not held back
+      assertEquals(1_000, OneSignalRestClient_nextRetryDelay("players/d4e5f6", 1_000, 1_000, 3));
+   }
+
+   @Test
+   public void testRetryBudgetSpreadsOutRetriesPastIt() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+
+      for (int i = 0; i < 20; i++)
+         assertEquals(1_000, OneSignalRestClient_nextRetryDelay("players/a1b2c3", 1_000, 1_000, 3));
+
+      assertTrue(OneSignalRestClient_nextRetryDelay("players/a1b2c3", 1_000, 1_000, 3) > 1_000);
+      assertEquals(-1, OneSignalRestClient_nextRetryDelay("players/a1b2c3", 1_000, 1_000, 0));
+   }
+
+   @Test
+   public void testRecordsMetricsPerEndpointTemplate() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+
+      final String[] listenedEndpoint = {null};
+      final int[] listenedStatusCode = {0};
+      OneSignal.setHttpMetricsListener(new OneSignal.OSHttpMetricsListener() {
+         @Override
+         public void onRequestCompleted(String endpoint, String method, int statusCode, long latencyMs, long requestBytes, long responseBytes) {
+            listenedEndpoint[0] = endpoint;
+            listenedStatusCode[0] = statusCode;
+         }
+      });
+
+      // 1. Requests for different players are recorded under the same endpoint
+      OneSignalRestClient.post("players/a1b2c3/on_session", new JSONObject("{\"key\": \"value\"}"), null);
+      threadAndTaskWait();
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 400;
+         errorResponseBody = "{}";
+      }};
+      OneSignalRestClient.post("players/d4e5f6/on_session", null, null);
+      threadAndTaskWait();
+
+      assertEquals("players/{id}/on_session", listenedEndpoint[0]);
+      assertEquals(400, listenedStatusCode[0]);
+
+      OSHttpEndpointMetrics metrics = OneSignal.getHttpMetrics().get("players/{id}/on_session");
+      assertEquals(2, metrics.getRequestCount());
+      assertEquals("{\"key\":\"value\"}".length(), metrics.getRequestBytes());
+      assertEquals(1, metrics.getStatusClassCount(2));
+      assertEquals(1, metrics.getStatusClassCount(4));
+      assertTrue(metrics.getResponseBytes() > 0);
+      assertTrue(metrics.getLatencyPercentileMs(50) > 0);
+   }
+
+   @Test
+   public void testRequestsGoThroughCustomTransport() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+      LoopbackHttpTransport transport = new LoopbackHttpTransport();
+      transport.setResponse(200, "{\"id\": \"a1b2c3\"}");
+      OneSignal.setHttpTransport(transport);
+
+      OneSignalRestClient.post("players", new JSONObject("{\"key\": \"value\"}"), new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onSuccess(String response) {
+            firstResponse = response;
+         }
+      });
+      threadAndTaskWait();
+
+      // 1. Request reaches the transport as the client built it and its response reaches the handler
+      OSHttpTransport.Request request = transport.getLastRequest();
+      assertEquals(1, transport.getCallCount());
+      assertEquals("POST", request.getMethod());
+      assertTrue(request.getUrl().endsWith("/players"));
+      assertEquals("{\"key\":\"value\"}", new String(request.getBody(), "UTF-8"));
+      assertEquals("application/json; charset=UTF-8", request.getHeaders().get("Content-Type"));
+      assertEquals("{\"id\": \"a1b2c3\"}", firstResponse);
+
+      // 2. Default transport was not used
+      assertEquals(0, ShadowOneSignalRestClientWithMockConnection.connectionCount);
+   }
+
+   @Test
+   public void testLoopbackTransportThroughput() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+      LoopbackHttpTransport transport = new LoopbackHttpTransport();
+      OneSignal.setHttpTransport(transport);
+
+      int requestCount = 500;
+      for (int i = 0; i < requestCount; i++)
+         OneSignalRestClient.post("players/a1b2c3", new JSONObject("{\"key\": " + i + "}"), null);
+      threadAndTaskWait();
+
+      assertEquals(requestCount, transport.getCallCount());
+      assertEquals(requestCount, OneSignal.getHttpMetrics().get("players/{id}").getRequestCount());
+   }
+
    @Test
    public void testApiCall400Response() throws Exception {
       OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
@@ -270,6 +784,95 @@ public class RESTClientRunner {
       assertEquals(statusCode, statusCodeResponse[0]);
    }
 
+   @Test
+   public void testOfflineJournaledRequestIsReplayedOnceOnline() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+
+      // 1. Device offline, the request should be journaled instead of failing
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         mockOffline = true;
+      }};
+      final boolean[] failed = {false};
+      OneSignalRestClient.ResponseHandler handler = new OneSignalRestClient.ResponseHandler() {
+         @Override
+         public void onFailure(int statusCode, String response, Throwable throwable) {
+            failed[0] = true;
+         }
+      };
+      OneSignalRestClient.post("URL", new JSONObject(), handler, MOCK_JOURNAL_KEY);
+      threadAndTaskWait();
+      // 2. Same event reported again while offline should not be journaled twice
+      OneSignalRestClient.post("URL", new JSONObject(), handler, MOCK_JOURNAL_KEY);
+      threadAndTaskWait();
+
+      assertFalse(failed[0]);
+      assertEquals(1, OneSignalRestClient_getJournaledRequestCount());
+
+      // 3. Any request reaching the server should replay the journal
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 200;
+         responseBody = "{}";
+      }};
+      OneSignalRestClient.get("URL", null, null);
+      threadAndTaskWait();
+
+      assertEquals(0, OneSignalRestClient_getJournaledRequestCount());
+   }
+
+   @Test
+   public void testJournalDrainsEveryBatchOnceOnline() throws Exception {
+      OneSignal.initWithContext(ApplicationProvider.getApplicationContext());
+      OneSignal_savePrivacyConsentRequired(false);
+
+      // 1. More requests journaled than fit in one replay batch
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         mockOffline = true;
+      }};
+      int journaled = OSRequestJournal_DRAIN_BATCH_SIZE * 2 + 1;
+      for (int i = 0; i < journaled; i++)
+         OneSignalRestClient.post("URL", new JSONObject(), null, MOCK_JOURNAL_KEY + i);
+      threadAndTaskWait();
+      assertEquals(journaled, OneSignalRestClient_getJournaledRequestCount());
+
+      // 2. Each batch is queued on its own behind other BACKGROUND requests, all of them are still replayed
+      ShadowOneSignalRestClientWithMockConnection.mockResponse = new MockHttpURLConnection.MockResponse() {{
+         status = 200;
+         responseBody = "{}";
+      }};
+      OneSignalRestClient.get("URL", null, null);
+      threadAndTaskWait();
+
+      assertEquals(0, OneSignalRestClient_getJournaledRequestCount());
+   }
+
+   private static int countThreadsWithPrefix(String prefix) {
+      int count = 0;
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+         if (thread.getName().startsWith(prefix))
+            count++;
+      }
+      return count;
+   }
+
+   private static byte[] gzip(byte[] bytes) throws Exception {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+      gzipOutputStream.write(bytes);
+      gzipOutputStream.close();
+      return outputStream.toByteArray();
+   }
+
+   private static byte[] gunzip(byte[] bytes) throws Exception {
+      GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(bytes));
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = gzipInputStream.read(buffer)) != -1)
+         outputStream.write(buffer, 0, read);
+      return outputStream.toByteArray();
+   }
+
    private static String getLastHTTPHeaderProp(String prop) {
       return ShadowOneSignalRestClientWithMockConnection.lastConnection.getRequestProperty(prop);
    }
@@ -2,8 +2,6 @@ package com.test.onesignal;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
-import android.content.Context;
-import android.content.SharedPreferences;
 
 import androidx.test.core.app.ApplicationProvider;
 
@@ -42,6 +40,13 @@ import java.lang.reflect.Field;
 import java.util.List;
 
 import static com.onesignal.OneSignal.ExternalIdErrorType.REQUIRES_EXTERNAL_ID_AUTH;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_getRetryAttempt;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_getSyncCycleDelayMs;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_pauseSyncCycles;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_retrySync;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_runSyncCycle;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_scheduleSync;
+import static com.onesignal.OneSignalPackagePrivateHelper.OneSignalStateSynchronizer_scheduleSyncNow;
 import static com.onesignal.OneSignalPackagePrivateHelper.OneSignal_getSessionListener;
 import static com.onesignal.OneSignalPackagePrivateHelper.OneSignal_setSessionManager;
 import static com.onesignal.OneSignalPackagePrivateHelper.OneSignal_setTime;
@@ -80,6 +85,7 @@ public class SynchronizerIntegrationTests {
     private static final String ONESIGNAL_APP_ID = "b4f7f966-d8cc-11e4-bed1-df8f05be55ba";
     private static final String ONESIGNAL_EMAIL_ADDRESS = "test@onesignal.com";
     private static final String ONESIGNAL_SMS_NUMBER = "123456789";
+    private static final long SYNC_TEST_START_MS = 1_000_000;
 
     @SuppressLint("StaticFieldLeak")
     private static Activity blankActivity;
@@ -1483,9 +1489,7 @@ public class SynchronizerIntegrationTests {
         threadAndTaskWait();
 
         // Check that external_user_id_auth_hash is in syncValues
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        JSONObject syncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
+        JSONObject syncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
         assertEquals(testExternalId, syncValues.getString("external_user_id"));
         assertEquals(mockExternalIdHash, syncValues.getString("external_user_id_auth_hash"));
 
@@ -1510,9 +1514,7 @@ public class SynchronizerIntegrationTests {
         assertEquals(mockExternalIdHash, removeIdRequest.payload.getString("external_user_id_auth_hash"));
 
         // Check that external_user_id_auth_hash is no longer in syncValues and has "" as external_user_id
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences newPrefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        syncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
+        syncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
         assertFalse(syncValues.has("external_user_id_auth_hash"));
         assertEquals("", syncValues.getString("external_user_id"));
     }
@@ -1537,10 +1539,8 @@ public class SynchronizerIntegrationTests {
         threadAndTaskWait();
 
         // 4. Check the user state for push and email
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        JSONObject pushSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
-        JSONObject emailSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_emailCURRENT_STATE", null));
+        JSONObject pushSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
+        JSONObject emailSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("emailCURRENT_STATE");
 
         assertEquals(testExternalId, pushSyncValues.getString("external_user_id"));
         assertEquals(mockExternalIdHash, pushSyncValues.getString("external_user_id_auth_hash"));
@@ -1568,10 +1568,8 @@ public class SynchronizerIntegrationTests {
         assertNull(lastEmailUpdateFailure);
 
         // 6. Check that external_user_id_auth_hash is no longer in syncValues and has "" as external_user_id
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences newPrefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        pushSyncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
-        emailSyncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_emailCURRENT_STATE", null));
+        pushSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
+        emailSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("emailCURRENT_STATE");
 
         assertFalse(pushSyncValues.has("external_user_id_auth_hash"));
         assertEquals("", pushSyncValues.getString("external_user_id"));
@@ -1599,10 +1597,8 @@ public class SynchronizerIntegrationTests {
         threadAndTaskWait();
 
         // 4. Check the user state for sms and email
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        JSONObject pushSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
-        JSONObject smsSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_smsCURRENT_STATE", null));
+        JSONObject pushSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
+        JSONObject smsSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("smsCURRENT_STATE");
 
         assertEquals(testExternalId, pushSyncValues.getString("external_user_id"));
         assertEquals(mockExternalIdHash, pushSyncValues.getString("external_user_id_auth_hash"));
@@ -1628,10 +1624,8 @@ public class SynchronizerIntegrationTests {
         assertEquals(expectedExternalUserIdResponse.toString(), lastExternalUserIdResponse.toString());
 
         // 6. Check that external_user_id_auth_hash is no longer in syncValues and has "" as external_user_id
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences newPrefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        pushSyncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
-        smsSyncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_smsCURRENT_STATE", null));
+        pushSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
+        smsSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("smsCURRENT_STATE");
 
         assertFalse(pushSyncValues.has("external_user_id_auth_hash"));
         assertEquals("", pushSyncValues.getString("external_user_id"));
@@ -1664,11 +1658,9 @@ public class SynchronizerIntegrationTests {
         threadAndTaskWait();
 
         // 5. Check the user state for sms and email and push
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        JSONObject pushSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
-        JSONObject smsSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_smsCURRENT_STATE", null));
-        JSONObject emailSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_emailCURRENT_STATE", null));
+        JSONObject pushSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
+        JSONObject smsSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("smsCURRENT_STATE");
+        JSONObject emailSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("emailCURRENT_STATE");
 
         assertEquals(testExternalId, pushSyncValues.getString("external_user_id"));
         assertEquals(mockExternalIdHash, pushSyncValues.getString("external_user_id_auth_hash"));
@@ -1700,11 +1692,9 @@ public class SynchronizerIntegrationTests {
         assertEquals(expectedExternalUserIdResponse.toString(), lastExternalUserIdResponse.toString());
 
         // 7. Check that external_user_id_auth_hash is no longer in syncValues and has "" as external_user_id
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences newPrefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        pushSyncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
-        smsSyncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_smsCURRENT_STATE", null));
-        emailSyncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_emailCURRENT_STATE", null));
+        pushSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
+        smsSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("smsCURRENT_STATE");
+        emailSyncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("emailCURRENT_STATE");
 
         assertFalse(pushSyncValues.has("external_user_id_auth_hash"));
         assertEquals("", pushSyncValues.getString("external_user_id"));
@@ -1912,9 +1902,7 @@ public class SynchronizerIntegrationTests {
         assertEquals(expectedExternalUserIdResponse.toString(), lastExternalUserIdResponse.toString());
 
         // 4. Check the external user id and auth hash values in syncValues
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        JSONObject syncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
+        JSONObject syncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
         assertEquals(testExternalId1, syncValues.getString("external_user_id"));
         assertEquals(mockExternalIdHash1, syncValues.getString("external_user_id_auth_hash"));
 
@@ -1939,9 +1927,7 @@ public class SynchronizerIntegrationTests {
         assertEquals(mockExternalIdHash2, externalIdRequest2.payload.getString("external_user_id_auth_hash"));
 
         // 9. Check the external user id and auth hash values in syncValues
-        TestHelpers.flushBufferedSharedPrefs();
-        final SharedPreferences newPrefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-        syncValues = new JSONObject(newPrefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
+        syncValues = OneSignalPackagePrivateHelper.UserState_getPersistedSyncValues("CURRENT_STATE");
         assertEquals(testExternalId2, syncValues.getString("external_user_id"));
         assertEquals(mockExternalIdHash2, syncValues.getString("external_user_id_auth_hash"));
     }
@@ -2388,6 +2374,169 @@ public class SynchronizerIntegrationTests {
         assertEquals(60, postSMSl.payload.getInt("active_time"));
     }
 
+    @Test
+    public void shouldStartSyncCycleAfterInitialBufferDelay() throws Exception {
+        initAndPauseSyncCycles();
+
+        OneSignalStateSynchronizer_scheduleSync();
+        assertEquals(500, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+
+        assertTrue(OneSignalPackagePrivateHelper.runAllNetworkRunnables());
+        assertEquals(-1, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+    }
+
+    @Test
+    public void shouldDoubleSyncCycleDelayOnEachChangeUpToBufferCap() throws Exception {
+        initAndPauseSyncCycles();
+
+        long[] expectedDelaysMs = { 500, 1_000, 2_000, 4_000, 5_000, 5_000 };
+        for (long expectedDelayMs : expectedDelaysMs) {
+            OneSignalStateSynchronizer_scheduleSync();
+            assertEquals(expectedDelayMs, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+        }
+
+        // The cycle resets the buffer, the next change starts from the initial delay again
+        OneSignalPackagePrivateHelper.runAllNetworkRunnables();
+        OneSignalStateSynchronizer_scheduleSync();
+        assertEquals(500, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+    }
+
+    @Test
+    public void shouldNotDelaySyncCyclePastCeilingFromFirstChange() throws Exception {
+        initAndPauseSyncCycles();
+
+        OneSignalStateSynchronizer_scheduleSync();
+        time.setMockedElapsedTime(SYNC_TEST_START_MS + 12_000);
+        for (int i = 0; i < 5; i++)
+            OneSignalStateSynchronizer_scheduleSync();
+        // 15s from the first change, not the 5s buffer cap
+        assertEquals(3_000, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+
+        time.setMockedElapsedTime(SYNC_TEST_START_MS + 16_000);
+        OneSignalStateSynchronizer_scheduleSync();
+        assertEquals(0, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+    }
+
+    @Test
+    public void shouldRunBufferedChangesRightAwayOnScheduleSyncNow() throws Exception {
+        initAndPauseSyncCycles();
+
+        OneSignalStateSynchronizer_scheduleSync();
+        OneSignalStateSynchronizer_scheduleSync();
+        assertEquals(1_000, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+
+        OneSignalStateSynchronizer_scheduleSyncNow();
+        assertEquals(0, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+    }
+
+    @Test
+    public void shouldKeepPendingRetryDueTimeAndBackoffWhenUserStateChanges() throws Exception {
+        initAndPauseSyncCycles();
+
+        assertTrue(OneSignalStateSynchronizer_retrySync("players/" + PUSH_USER_ID));
+        long retryDelayMs = OneSignalStateSynchronizer_getSyncCycleDelayMs();
+        assertTrue(retryDelayMs >= 15_000);
+        assertEquals(1, OneSignalStateSynchronizer_getRetryAttempt());
+
+        // A change doesn't bring the retry forward or reset its backoff
+        OneSignalStateSynchronizer_scheduleSync();
+        OneSignalStateSynchronizer_scheduleSyncNow();
+        assertEquals(retryDelayMs, OneSignalStateSynchronizer_getSyncCycleDelayMs());
+        assertEquals(1, OneSignalStateSynchronizer_getRetryAttempt());
+
+        // Only a successful sync resets it
+        OneSignal.sendTag("key", "value");
+        threadAndTaskWait();
+        assertEquals(0, OneSignalStateSynchronizer_getRetryAttempt());
+    }
+
+    @Test
+    public void shouldSyncPushAndEmailChangesInOneCycle() throws Exception {
+        OneSignalInit();
+        OneSignal.setEmail(ONESIGNAL_EMAIL_ADDRESS);
+        threadAndTaskWait();
+        OneSignalStateSynchronizer_pauseSyncCycles();
+        int requestCount = ShadowOneSignalRestClient.requests.size();
+
+        // Tags change both the push and email player
+        OneSignal.sendTags(new JSONObject("{\"test1\": \"value1\"}"));
+        assertTrue(OneSignalStateSynchronizer_runSyncCycle());
+
+        List<ShadowOneSignalRestClient.Request> cycleRequests = ShadowOneSignalRestClient.requests.subList(requestCount, ShadowOneSignalRestClient.requests.size());
+        assertEquals(2, cycleRequests.size());
+        assertEquals("players/" + ShadowOneSignalRestClient.pushUserId, cycleRequests.get(0).url);
+        assertEquals("value1", cycleRequests.get(0).payload.getJSONObject("tags").getString("test1"));
+        assertEquals("players/" + ShadowOneSignalRestClient.emailUserId, cycleRequests.get(1).url);
+        assertEquals("value1", cycleRequests.get(1).payload.getJSONObject("tags").getString("test1"));
+    }
+
+    @Test
+    public void shouldSyncEmailScheduledByPushCreateResponseInSameCycle() throws Exception {
+        ShadowOneSignalRestClient.failPosts = true;
+        OneSignalInit();
+        OneSignal.setEmail(ONESIGNAL_EMAIL_ADDRESS);
+        threadAndTaskWait();
+
+        // The email player waits on the push player id, only push is scheduled
+        ShadowOneSignalRestClient.failPosts = false;
+        OneSignalStateSynchronizer_pauseSyncCycles();
+        int requestCount = ShadowOneSignalRestClient.requests.size();
+        OneSignalStateSynchronizer_scheduleSync();
+        assertTrue(OneSignalStateSynchronizer_runSyncCycle());
+
+        List<ShadowOneSignalRestClient.Request> cycleRequests = ShadowOneSignalRestClient.requests.subList(requestCount, ShadowOneSignalRestClient.requests.size());
+        assertEquals(2, cycleRequests.size());
+        assertEquals("players", cycleRequests.get(0).url);
+        assertEquals(1, cycleRequests.get(0).payload.getInt("device_type"));
+        assertEquals("players", cycleRequests.get(1).url);
+        assertEquals(ONESIGNAL_EMAIL_ADDRESS, cycleRequests.get(1).payload.getString("identifier"));
+        assertEquals(ShadowOneSignalRestClient.pushUserId, cycleRequests.get(1).payload.getString("device_player_id"));
+    }
+
+    @Test
+    public void shouldRetryFailedChannelWhileOtherChannelCallbacksFire() throws Exception {
+        OneSignalInit();
+        OneSignal.setEmail(ONESIGNAL_EMAIL_ADDRESS);
+        threadAndTaskWait();
+        OneSignalStateSynchronizer_pauseSyncCycles();
+
+        final boolean[] tagsSent = new boolean[1];
+        ShadowOneSignalRestClient.failMethod = "players/" + ShadowOneSignalRestClient.emailUserId;
+        OneSignal.sendTags(new JSONObject("{\"test1\": \"value1\"}"), new OneSignal.ChangeTagsUpdateHandler() {
+            @Override
+            public void onSuccess(JSONObject tags) {
+                tagsSent[0] = true;
+            }
+
+            @Override
+            public void onFailure(OneSignal.SendTagsError error) {
+            }
+        });
+        assertTrue(OneSignalStateSynchronizer_runSyncCycle());
+
+        // Push went through and fired its callback, email failed and is retried on its own
+        assertTrue(tagsSent[0]);
+        assertTrue(OneSignalStateSynchronizer_getSyncCycleDelayMs() >= 15_000);
+
+        ShadowOneSignalRestClient.failMethod = null;
+        int requestCount = ShadowOneSignalRestClient.requests.size();
+        assertTrue(OneSignalStateSynchronizer_runSyncCycle());
+
+        List<ShadowOneSignalRestClient.Request> retryRequests = ShadowOneSignalRestClient.requests.subList(requestCount, ShadowOneSignalRestClient.requests.size());
+        assertEquals(1, retryRequests.size());
+        assertEquals("players/" + ShadowOneSignalRestClient.emailUserId, retryRequests.get(0).url);
+        assertEquals("value1", retryRequests.get(0).payload.getJSONObject("tags").getString("test1"));
+    }
+
+    private void initAndPauseSyncCycles() throws Exception {
+        OneSignalInit();
+        threadAndTaskWait();
+
+        // Elapsed time only moves when a test moves it so the buffer delays are exact
+        time.setMockedElapsedTime(SYNC_TEST_START_MS);
+        OneSignalStateSynchronizer_pauseSyncCycles();
+    }
+
     private void OneSignalInit() {
         OneSignal.setLogLevel(OneSignal.LOG_LEVEL.VERBOSE, OneSignal.LOG_LEVEL.NONE);
         ShadowOSUtils.subscribableStatus = 1;
@@ -83,6 +83,13 @@ public class TestHelpers {
 
    static void beforeTestInitAndCleanup() throws Exception {
       TestOneSignalPrefs.initializePool();
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetDispatcher();
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetResponseCacheMaxSize();
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetCompression();
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetCoalescer();
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetRetryScheduler();
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetMetrics();
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetTransport();
       if (!ranBeforeTestSuite)
          return;
 
@@ -147,6 +154,8 @@ public class TestHelpers {
    }
 
    static void stopAllOSThreads() {
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetDispatcher();
+
       boolean joinedAThread;
       do {
          joinedAThread = false;